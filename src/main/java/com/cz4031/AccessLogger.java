@@ -5,10 +5,12 @@ import java.util.List;
 
 public class AccessLogger {
     private List<Node> nodeList;
-    private List<RecordAddress> blockList;
+    private List<Integer> blockList;
 
     private int numNodeAccess;
     private int numBlockAccess;
+    private int numBufferHit;
+    private int numBufferMiss;
 
     private Storage st;
 
@@ -18,6 +20,8 @@ public class AccessLogger {
         blockList = new LinkedList<>();
         numNodeAccess = 0;
         numBlockAccess = 0;
+        numBufferHit = 0;
+        numBufferMiss = 0;
     }
 
     public void reset() {
@@ -25,6 +29,8 @@ public class AccessLogger {
         blockList.clear();
         numNodeAccess = 0;
         numBlockAccess = 0;
+        numBufferHit = 0;
+        numBufferMiss = 0;
     }
 
     public void addNode(Node node) {
@@ -32,9 +38,32 @@ public class AccessLogger {
         if (nodeList.size() < 5) nodeList.add(node);
     }
 
-    public void addBlock(RecordAddress ra) {
+    /**
+     * Log an access to a bucket of a hash index, which is an index block like a node
+     */
+    public void addBucket() {
+        ++numNodeAccess;
+    }
+
+    public void addBlock(int blockID) {
         ++numBlockAccess;
-        if (blockList.size() < 5) blockList.add(ra);
+        if (blockList.size() < 5) blockList.add(blockID);
+    }
+
+    /**
+     * Log accesses to a number of blocks without recording their IDs, for blocks read by parallel tasks
+     * @param count number of blocks
+     */
+    public void addBlocks(int count) {
+        numBlockAccess += count;
+    }
+
+    public void addBufferHit() {
+        ++numBufferHit;
+    }
+
+    public void addBufferMiss() {
+        ++numBufferMiss;
     }
 
     public String getNodeAccess() {
@@ -47,11 +76,15 @@ public class AccessLogger {
         return sb.toString();
     }
 
+    /**
+     * Describe the first logged blocks, read without going through the buffer pool so that the pool is unchanged
+     * @return records of each logged block, one block per line
+     */
     public String getBlockAccess() {
         StringBuilder sb = new StringBuilder();
         for(int i=0;i<blockList.size(); ++i) {
             sb.append(String.format("%d. ", i+1));
-            sb.append(Block.fromByteArray(st.readBlock(blockList.get(i).getBlockID()),st.getRecordSize()));
+            sb.append(Block.fromByteArray(st.peekBlock(blockList.get(i)),st.getCodec()));
             sb.append("\n");
         }
         return sb.toString();
@@ -64,4 +97,12 @@ public class AccessLogger {
     public int getNumBlockAccess() {
         return numBlockAccess;
     }
+
+    public int getNumBufferHit() {
+        return numBufferHit;
+    }
+
+    public int getNumBufferMiss() {
+        return numBufferMiss;
+    }
 }
@@ -0,0 +1,73 @@
+package com.cz4031;
+
+/**
+ * Class accumulating the count, sum, minimum and maximum of the averageRating of a set of records
+ */
+public class Aggregate {
+
+    /**
+     * Number of records
+     */
+    private long count;
+
+    /**
+     * Sum of averageRating
+     */
+    private double sum;
+
+    /**
+     * Smallest and largest averageRating of the records added one at a time, infinite if there are none
+     */
+    private float min = Float.POSITIVE_INFINITY;
+    private float max = Float.NEGATIVE_INFINITY;
+
+    /**
+     * Add the averageRating of a record
+     * @param rating averageRating of record
+     */
+    public void add(float rating) {
+        ++count;
+        sum += rating;
+        min = Math.min(min, rating);
+        max = Math.max(max, rating);
+    }
+
+    /**
+     * Add the totals of a group of records, without their individual ratings
+     * @param count number of records
+     * @param sum sum of averageRating of the records
+     */
+    public void addTotals(long count, double sum) {
+        this.count += count;
+        this.sum += sum;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public float getMin() {
+        return min;
+    }
+
+    public float getMax() {
+        return max;
+    }
+
+    /**
+     * Get the average of averageRating
+     * @return average, NaN if there are no records
+     */
+    public double getAverage() {
+        return sum / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count %d, average %.4f, min %.1f, max %.1f", count, getAverage(), min, max);
+    }
+}
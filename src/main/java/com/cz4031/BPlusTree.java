@@ -38,10 +38,33 @@ public class BPlusTree {
     private int maxKeysLeaf;
 
     /**
-     * Minimum number of keys in a leaf node
+     * Minimum number of keys in a leaf node, if leaf nodes are not compressed
      */
     private int minKeysLeaf;
 
+    /**
+     * Whether leaf nodes are sized by their compressed encoding instead of their number of keys
+     */
+    private final boolean compressedLeaves;
+
+    /**
+     * Whether leaf entries include the averageRating of their records, so aggregates of averageRating over a
+     * key range are answered from leaf nodes without reading the records. Internal nodes of a covering tree
+     * also keep the count and sum of averageRating of the subtree of each child
+     */
+    private final boolean covering;
+
+    /**
+     * Maximum and minimum size of the encoded leaf node in bytes, if leaf nodes are compressed
+     */
+    private int maxLeafBytes;
+    private int minLeafBytes;
+
+    /**
+     * Attribute of the records used as the primary indexed attribute of the keys
+     */
+    private final IndexAttribute attribute;
+
     /**
      * Height of tree
      */
@@ -68,26 +91,131 @@ public class BPlusTree {
      * @param st storage, for logging purposes
      */
     public BPlusTree(int n, Storage st) {
+        this(n, st, false);
+    }
+
+    /**
+     * Construct a B+ tree, optionally with compressed leaf nodes.
+     * A compressed leaf node may hold any number of entries as long as their encoding (see LeafNode.encodedSize)
+     * fits in the space of n uncompressed entries, so runs of entries with the same numVotes fit more entries
+     * in a node. Internal nodes are not compressed
+     * @param n maximum number of keys in a node, or in an internal node if leaf nodes are compressed
+     * @param st storage, for logging purposes
+     * @param compressedLeaves whether leaf nodes are compressed
+     */
+    public BPlusTree(int n, Storage st, boolean compressedLeaves) {
+        this(n, st, compressedLeaves, IndexAttribute.NUM_VOTES);
+    }
+
+    /**
+     * Construct a B+ tree on an attribute of the records
+     * @param n maximum number of keys in a node, or in an internal node if leaf nodes are compressed
+     * @param st storage, for logging purposes
+     * @param compressedLeaves whether leaf nodes are compressed
+     * @param attribute attribute used as the primary indexed attribute of the keys
+     */
+    public BPlusTree(int n, Storage st, boolean compressedLeaves, IndexAttribute attribute) {
+        this(n, st, compressedLeaves, false, attribute);
+    }
+
+    /**
+     * Construct a B+ tree on an attribute of the records, optionally covering averageRating.
+     * Entries of a covering tree also store the averageRating of their records, so fewer of them fit in a
+     * leaf node. Covering leaf nodes cannot be compressed
+     * @param n maximum number of keys in a node
+     * @param st storage, for logging purposes
+     * @param compressedLeaves whether leaf nodes are compressed
+     * @param covering whether leaf entries include the averageRating of their records
+     * @param attribute attribute used as the primary indexed attribute of the keys
+     */
+    public BPlusTree(int n, Storage st, boolean compressedLeaves, boolean covering, IndexAttribute attribute) {
+        if (compressedLeaves && covering) {
+            throw new IllegalArgumentException("Covering leaf nodes cannot be compressed");
+        }
         this.n = n;
 
         // Initialize root as an empty leaf node
         this.root = null;
         this.maxDegreeInternal = n+1;
         this.minDegreeInternal = (int) Math.floor(n/2.0) + 1;
-        this.maxKeysLeaf = n;
-        this.minKeysLeaf = (int) Math.floor((n+1) / 2.0);
+        this.maxKeysLeaf = getMaxKeysLeaf(n, compressedLeaves, covering);
+        this.minKeysLeaf = (int) Math.floor(((covering ? maxKeysLeaf : n) + 1) / 2.0);
+        this.compressedLeaves = compressedLeaves;
+        this.covering = covering;
+        this.attribute = attribute;
         this.height = 0;
         this.totalNodes = 0;
         this.totalNodesDeleted = 0;
         this.st = st;
+
+        if (compressedLeaves) {
+            maxLeafBytes = getUncompressedLeafBytes(n);
+
+            // An entry changes the size of a node by at most the largest entry size, and the first entry of a node
+            // is stored in full, so this leaves enough slack for a split, merge, or borrow to keep every node
+            // between the minimum and maximum size
+            minLeafBytes = (maxLeafBytes - 2 * LeafNode.MAX_ENCODED_ENTRY_SIZE) / 2;
+            if (minLeafBytes < LeafNode.MAX_ENCODED_ENTRY_SIZE) {
+                throw new IllegalArgumentException("Nodes are too small to compress leaf nodes");
+            }
+        }
+        if (covering && maxKeysLeaf < 2) {
+            throw new IllegalArgumentException("Nodes are too small to cover averageRating");
+        }
+    }
+
+    /**
+     * Construct a B+ tree from existing nodes
+     * @param n maximum number of keys in a node
+     * @param st storage, for logging purposes
+     * @param root root node of the existing nodes, null if the tree is empty
+     * @param height height of tree
+     * @param totalNodes total number of nodes in the tree
+     */
+    public BPlusTree(int n, Storage st, Node root, int height, int totalNodes) {
+        this(n, st, false, root, height, totalNodes);
+    }
+
+    /**
+     * Construct a B+ tree from existing nodes, optionally with compressed leaf nodes
+     * @param n maximum number of keys in a node, or in an internal node if leaf nodes are compressed
+     * @param st storage, for logging purposes
+     * @param compressedLeaves whether leaf nodes are compressed
+     * @param root root node of the existing nodes, null if the tree is empty
+     * @param height height of tree
+     * @param totalNodes total number of nodes in the tree
+     */
+    public BPlusTree(int n, Storage st, boolean compressedLeaves, Node root, int height, int totalNodes) {
+        this(n, st, compressedLeaves, false, root, height, totalNodes);
+    }
+
+    /**
+     * Construct a B+ tree from existing nodes, optionally with compressed or covering leaf nodes
+     * @param n maximum number of keys in a node, or in an internal node if leaf nodes are compressed
+     * @param st storage, for logging purposes
+     * @param compressedLeaves whether leaf nodes are compressed
+     * @param covering whether leaf entries include the averageRating of their records
+     * @param root root node of the existing nodes, null if the tree is empty
+     * @param height height of tree
+     * @param totalNodes total number of nodes in the tree
+     */
+    public BPlusTree(int n, Storage st, boolean compressedLeaves, boolean covering, Node root, int height,
+                     int totalNodes) {
+        this(n, st, compressedLeaves, covering, IndexAttribute.NUM_VOTES);
+        this.root = root;
+        this.height = height;
+        this.totalNodes = totalNodes;
+
+        // Subtree totals are not stored, so they are recomputed from the leaf nodes
+        if (covering && root != null) annotate(root);
     }
 
     /**
      * Search for records with the specified value
      * @param searchKey search key (numVotes)
-     * @return a list of record addresses with a key value equal to the search key
+     * @return a list of packed record addresses with a key value equal to the search key
      */
-    public List<RecordAddress> search(int searchKey) {
+    public LongList search(int searchKey) {
         // Reset logs for experiment
         st.resetLog();
 
@@ -100,24 +228,156 @@ public class BPlusTree {
      * Search for records with the value within the lower and upper bounds
      * @param lower lower bound of the search key, inclusive (numVotes)
      * @param upper upper bound of the search key, inclusive (numVotes)
-     * @return a list of record addresses with a key value between the lower and upper bounds
+     * @return a list of packed record addresses with a key value between the lower and upper bounds
      */
-    public List<RecordAddress> search(int lower, int upper) {
+    public LongList search(int lower, int upper) {
         // Reset logs for experiment
         st.resetLog();
 
         return searchInternal(root, lower, upper);
     }
 
+    /**
+     * Create a lazy cursor over the record addresses with the value within the lower and upper bounds
+     * @param lower lower bound of the search key, inclusive (numVotes)
+     * @param upper upper bound of the search key, inclusive (numVotes)
+     * @return cursor returning record addresses in order of key
+     */
+    public RangeCursor cursor(int lower, int upper) {
+        // Reset logs for experiment
+        st.resetLog();
+
+        return new RangeCursor(this, lower, upper, st);
+    }
+
+    /**
+     * Compute the count, sum, minimum and maximum of the averageRating of the records with a key value within
+     * the lower and upper bounds, from the leaf nodes alone without reading any record
+     * @param lower lower bound of the search key, inclusive (numVotes)
+     * @param upper upper bound of the search key, inclusive (numVotes)
+     * @return aggregate of averageRating of the matching records
+     * @throws IllegalStateException if the tree does not cover averageRating
+     */
+    public Aggregate aggregate(int lower, int upper) {
+        if (!covering) throw new IllegalStateException("Index does not cover averageRating");
+
+        // Reset logs for experiment
+        st.resetLog();
+
+        Aggregate result = new Aggregate();
+        if (root == null) return result;
+
+        // Traverse to the leftmost leaf node possibly containing the lower bound
+        Node node = root;
+        while (node instanceof InternalNode) {
+            st.logNodeAccess(node);
+            InternalNode curNode = (InternalNode) node;
+            node = curNode.getPointers()[findIndexOfNode(curNode, lower)];
+        }
+
+        for (LeafNode leaf = (LeafNode) node; leaf != null; leaf = leaf.getRightSibling()) {
+            st.logNodeAccess(leaf);
+            KeyArray keys = leaf.getKeys();
+            for (int i = keys.countLess(lower, leaf.getDegree()); i < leaf.getDegree(); ++i) {
+                if (keys.getK1(i) > upper) return result;
+                result.add(leaf.getRatings()[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compute the count and sum of the averageRating of the records with a key value within the lower and
+     * upper bounds from the subtree totals of the internal nodes. Only the search paths of the two bounds are
+     * visited: children lying between the paths contribute their totals, and only the two boundary leaf nodes
+     * are scanned. The minimum and maximum are not computed
+     * @param lower lower bound of the search key, inclusive (numVotes)
+     * @param upper upper bound of the search key, inclusive (numVotes)
+     * @return count and sum of averageRating of the matching records
+     * @throws IllegalStateException if the tree does not cover averageRating
+     */
+    public Aggregate rangeAggregate(int lower, int upper) {
+        if (!covering) throw new IllegalStateException("Index does not cover averageRating");
+
+        // Reset logs for experiment
+        st.resetLog();
+
+        Aggregate result = new Aggregate();
+        if (root == null || lower > upper) return result;
+
+        // Descend the search paths of both bounds together, they are the same path until they diverge
+        Node lo = root, hi = root;
+        while (lo instanceof InternalNode) {
+            InternalNode loNode = (InternalNode) lo, hiNode = (InternalNode) hi;
+            int loIndex = findIndexOfNode(loNode, lower);
+            int hiIndex = upper == Integer.MAX_VALUE ? hiNode.getDegree() - 1 : findIndexOfNode(hiNode, upper + 1);
+
+            st.logNodeAccess(loNode);
+            if (loNode == hiNode) {
+                // Children between the two paths are entirely within the bounds
+                addSubtrees(result, loNode, loIndex + 1, hiIndex);
+            } else {
+                st.logNodeAccess(hiNode);
+                addSubtrees(result, loNode, loIndex + 1, loNode.getDegree());
+                addSubtrees(result, hiNode, 0, hiIndex);
+            }
+            lo = loNode.getPointers()[loIndex];
+            hi = hiNode.getPointers()[hiIndex];
+        }
+
+        // Scan the entries of the boundary leaf nodes within the bounds
+        LeafNode loLeaf = (LeafNode) lo, hiLeaf = (LeafNode) hi;
+        int start = loLeaf.getKeys().countLess(lower, loLeaf.getDegree());
+        int end = upper == Integer.MAX_VALUE ? hiLeaf.getDegree()
+                : hiLeaf.getKeys().countLess(upper + 1, hiLeaf.getDegree());
+        st.logNodeAccess(loLeaf);
+        if (loLeaf == hiLeaf) {
+            addEntries(result, loLeaf, start, end);
+        } else {
+            st.logNodeAccess(hiLeaf);
+            addEntries(result, loLeaf, start, loLeaf.getDegree());
+            addEntries(result, hiLeaf, 0, end);
+        }
+        return result;
+    }
+
+    /**
+     * Add the subtree totals of a range of children of an internal node to an aggregate
+     * @param result aggregate to add to
+     * @param node internal node
+     * @param from index of first child, inclusive
+     * @param to index of last child, exclusive
+     */
+    private static void addSubtrees(Aggregate result, InternalNode node, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            result.addTotals(node.getCounts()[i], node.getSums()[i]);
+        }
+    }
+
+    /**
+     * Add the averageRating of a range of entries of a leaf node to an aggregate, as totals
+     * @param result aggregate to add to
+     * @param leaf leaf node
+     * @param from index of first entry, inclusive
+     * @param to index of last entry, exclusive
+     */
+    private static void addEntries(Aggregate result, LeafNode leaf, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; ++i) {
+            sum += leaf.getRatings()[i];
+        }
+        result.addTotals(Math.max(0, to - from), sum);
+    }
+
     /**
      * Internal implementation of searching in the B+ tree
      * @param node current node
      * @param lower lower bound of search
      * @param upper upper bound of search
-     * @return a list of record addresses with a key value between the lower and upper bounds
+     * @return a list of packed record addresses with a key value between the lower and upper bounds
      */
-    public List<RecordAddress> searchInternal(Node node, int lower, int upper) {
-        List<RecordAddress> result = new ArrayList<>();
+    public LongList searchInternal(Node node, int lower, int upper) {
+        LongList result = new LongList();
         if (node instanceof LeafNode) {
             LeafNode leafNode = (LeafNode) node;
             boolean finished = false;
@@ -127,17 +387,14 @@ public class BPlusTree {
                 // Record node access here, since leaf nodes can be traversed through siblings
                 st.logNodeAccess(leafNode);
 
-                KeyValuePair[] kvPairs = leafNode.getKvPairs();
-
-                for (KeyValuePair kv : kvPairs) {
-                    // If key-value pair is null, continue to next leaf node
-                    if (kv == null) break;
+                KeyArray keys = leafNode.getKeys();
 
+                for (int i = 0; i < leafNode.getDegree(); ++i) {
                     // Add to result if current key value is within lower and upper bounds
                     // Finish search if it is higher than the upper bound
-                    int curK1 = kv.getKey().getK1();
+                    int curK1 = keys.getK1(i);
                     if (lower <= curK1 && curK1 <= upper) {
-                        result.add(kv.getRecordAddress());
+                        result.add(leafNode.getAddresses()[i]);
                     } else if (upper < curK1) {
                         finished = true;
                         break;
@@ -162,30 +419,42 @@ public class BPlusTree {
     }
 
     /**
-     * Insert to B+ tree with numVotes and tconst as key to support duplicate values of numVotes
-     * Value of the entry is the logical address of the record (Block ID, Record ID)
+     * Insert to B+ tree with the indexed attribute (numVotes by default) and tconst as key to support duplicate
+     * values of the indexed attribute
+     * Value of the entry is the logical address of the record (Block ID, Record ID), packed into a long
      * @param record record to be inserted
-     * @param address address of record to be inserted
+     * @param address packed address of record to be inserted
      */
-    public void insert(Record record, RecordAddress address) {
-        Key key = new Key(record.getNumVotes(), record.getTconst());
-        KeyValuePair entry = new KeyValuePair(key, address);
+    public void insert(Record record, long address) {
+        Key key = new Key(attribute.keyOf(record), record.getTconst());
 
         // Insert by traversing the tree from the root node
-        insertInternal(this.root, entry, null);
+        insertInternal(this.root, key, address, record.getAvgRating(), null);
+    }
+
+    /**
+     * Insert an entry with a key built by the caller, such as an entry of a sparse index
+     * @param key key of entry to be inserted
+     * @param address packed address of entry to be inserted
+     */
+    public void insert(Key key, long address) {
+        insertInternal(this.root, key, address, 0, null);
     }
 
     /**
      * Internal implementation of insertion in B+ tree
      * @param node current node
-     * @param entry entry to be inserted
+     * @param key key of entry to be inserted
+     * @param address packed record address of entry to be inserted
+     * @param rating averageRating of the record, stored only if the tree is covering
      * @param newChildEntry key-node pair which points to split child, null if child was not split
      * @return a key-node pair if current node is split, otherwise null
      */
-    public KeyNodePair insertInternal(Node node, KeyValuePair entry, KeyNodePair newChildEntry) {
+    public KeyNodePair insertInternal(Node node, Key key, long address, float rating, KeyNodePair newChildEntry) {
         if (root == null) {
-            root = new LeafNode(n);
+            root = new LeafNode(maxKeysLeaf, covering);
             node = root;
+            ++totalNodes;
         }
 
         boolean split = false;
@@ -193,17 +462,20 @@ public class BPlusTree {
             InternalNode curNode = (InternalNode) node;
 
             // Find index of pointer to leftmost node that can be inserted with the entry
-            int pointerIndex = findIndexOfNode(curNode, entry.getKey());
+            int pointerIndex = findIndexOfNode(curNode, key);
 
             // Insert entry to subtree
-            newChildEntry = insertInternal(curNode.getPointers()[pointerIndex], entry, newChildEntry);
+            newChildEntry = insertInternal(curNode.getPointers()[pointerIndex], key, address, rating, newChildEntry);
 
             if (newChildEntry != null) {
                 newChildEntry.getNode().setParent(curNode);
                 if (curNode.getDegree() < maxDegreeInternal) {
-                    // Insert entry to node if it is not full
+                    // Insert entry to node if it is not full, the split child is placed right after the child
+                    // it was split from
                     curNode.addSorted(newChildEntry);
                     newChildEntry = null;
+                    refreshChild(curNode, pointerIndex);
+                    refreshChild(curNode, pointerIndex + 1);
                 } else {
                     // Split node if it is full
                     newChildEntry = splitNode(curNode, newChildEntry);
@@ -212,17 +484,19 @@ public class BPlusTree {
                     // Increase number of nodes
                     ++totalNodes;
                 }
+            } else if (covering) {
+                // Entry was added to the subtree without splitting the child
+                curNode.addAnnotation(pointerIndex, 1, rating);
             }
 
         } else if (node instanceof LeafNode) {
             LeafNode leafNode = (LeafNode) node;
-            if (leafNode.getDegree() < maxKeysLeaf) {
-                // Add entry to leaf node if it is not full
-                leafNode.addSorted(entry);
+            if (leafNode.getDegree() < maxKeysLeaf && addToLeaf(leafNode, key, address, rating)) {
+                // Entry was added to the leaf node since it is not full
                 newChildEntry = null;
             } else {
                 // Split leaf if it is full
-                newChildEntry = splitLeaf(leafNode, entry);
+                newChildEntry = splitLeaf(leafNode, key, address, rating);
                 split = true;
 
                 // Increase number of nodes
@@ -232,11 +506,12 @@ public class BPlusTree {
 
         if (split && root == node) {
             // If root is split, add a new node to be the root
-            InternalNode newNode = new InternalNode(n);
+            InternalNode newNode = new InternalNode(n, covering);
             newNode.addPointer(node, newNode.getDegree());
             newNode.addSorted(newChildEntry);
             node.setParent(newNode);
             newChildEntry.getNode().setParent(newNode);
+            refreshChildren(newNode);
             root = newNode;
 
             // Increase height of tree and number of nodes
@@ -248,206 +523,605 @@ public class BPlusTree {
     }
 
     /**
-     * Delete all entries having the specified key as its primary key
+     * Build the B+ tree bottom-up from entries sorted by key, replacing the current content of the tree.
+     * Leaf nodes are packed according to the fill factor and linked to their siblings, then each level of
+     * internal nodes is built on top of the previous level until a single root remains
+     * @param keys keys sorted in ascending order
+     * @param addresses packed record addresses, parallel to the keys
+     * @param fillFactor fraction of each node to be filled, between 0 (exclusive) and 1 (inclusive)
+     */
+    public void bulkLoad(Key[] keys, long[] addresses, double fillFactor) {
+        bulkLoad(keys, addresses, null, fillFactor);
+    }
+
+    /**
+     * Build the B+ tree bottom-up from entries sorted by key, including the averageRating of the records if
+     * the tree is covering
+     * @param keys keys sorted in ascending order
+     * @param addresses packed record addresses, parallel to the keys
+     * @param ratings averageRating of the records, parallel to the keys, required only if the tree is covering
+     * @param fillFactor fraction of each node to be filled, between 0 (exclusive) and 1 (inclusive)
+     */
+    public void bulkLoad(Key[] keys, long[] addresses, float[] ratings, double fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException("Fill factor must be between 0 (exclusive) and 1 (inclusive)");
+        }
+        if (covering && ratings == null) {
+            throw new IllegalArgumentException("Covering index requires the averageRating of every entry");
+        }
+
+        root = null;
+        height = 0;
+        totalNodes = 0;
+        if (keys.length == 0) return;
+
+        // Pack sorted entries into leaf nodes, keeping the smallest key of each node for the level above
+        KeyArray allKeys = new KeyArray(keys, keys.length);
+        int[] leafSizes;
+        if (compressedLeaves) {
+            leafSizes = partitionEncoded(allKeys, fillFactor);
+        } else {
+            int keysPerLeaf = Math.max(minKeysLeaf,
+                    Math.min(maxKeysLeaf, (int) Math.round(maxKeysLeaf * fillFactor)));
+            leafSizes = partition(keys.length, keysPerLeaf, minKeysLeaf, maxKeysLeaf);
+        }
+        Node[] level = new Node[leafSizes.length];
+        Key[] firstKeys = new Key[leafSizes.length];
+        LeafNode prevLeaf = null;
+        for (int i = 0, start = 0; i < leafSizes.length; start += leafSizes[i++]) {
+            KeyArray leafKeys = new KeyArray(maxKeysLeaf);
+            KeyArray.copy(allKeys, start, leafKeys, 0, leafSizes[i]);
+            long[] leafAddresses = new long[maxKeysLeaf];
+            System.arraycopy(addresses, start, leafAddresses, 0, leafSizes[i]);
+            float[] leafRatings = null;
+            if (covering) {
+                leafRatings = new float[maxKeysLeaf];
+                System.arraycopy(ratings, start, leafRatings, 0, leafSizes[i]);
+            }
+            LeafNode leaf = new LeafNode(leafSizes[i], leafKeys, leafAddresses, leafRatings);
+
+            // Modify sibling relations on leaf nodes
+            leaf.setLeftSibling(prevLeaf);
+            if (prevLeaf != null) prevLeaf.setRightSibling(leaf);
+            prevLeaf = leaf;
+
+            level[i] = leaf;
+            firstKeys[i] = keys[start];
+        }
+        totalNodes += level.length;
+
+        // Build internal nodes level by level until only the root is left
+        int pointersPerNode = Math.max(minDegreeInternal,
+                Math.min(maxDegreeInternal, (int) Math.round(maxDegreeInternal * fillFactor)));
+        while (level.length > 1) {
+            int[] nodeSizes = partition(level.length, pointersPerNode, minDegreeInternal, maxDegreeInternal);
+            Node[] upperLevel = new Node[nodeSizes.length];
+            Key[] upperFirstKeys = new Key[nodeSizes.length];
+            for (int i = 0, start = 0; i < nodeSizes.length; start += nodeSizes[i++]) {
+                Node[] pointers = new Node[n+1];
+                System.arraycopy(level, start, pointers, 0, nodeSizes[i]);
+
+                // Smallest key of every child except the first one separates it from its left neighbour
+                KeyArray nodeKeys = new KeyArray(Arrays.copyOfRange(firstKeys, start + 1, start + nodeSizes[i]), n);
+                InternalNode node = new InternalNode(nodeSizes[i], nodeKeys, pointers);
+                for (int j = 0; j < nodeSizes[i]; ++j) {
+                    pointers[j].setParent(node);
+                }
+                if (covering) {
+                    node.setAnnotations(new long[n+1], new double[n+1]);
+                    refreshChildren(node);
+                }
+
+                upperLevel[i] = node;
+                upperFirstKeys[i] = firstKeys[start];
+            }
+            totalNodes += upperLevel.length;
+            ++height;
+
+            level = upperLevel;
+            firstKeys = upperFirstKeys;
+        }
+
+        root = level[0];
+    }
+
+    /**
+     * Split a number of elements into groups of a preferred size, such that every group has between the
+     * minimum and maximum number of elements. Only a single group is allowed to be smaller than the minimum.
+     * @param total total number of elements
+     * @param perGroup preferred number of elements in a group
+     * @param min minimum number of elements in a group
+     * @param max maximum number of elements in a group
+     * @return number of elements in each group
+     */
+    private static int[] partition(int total, int perGroup, int min, int max) {
+        int numGroups = (total + perGroup - 1) / perGroup;
+        int[] sizes = new int[numGroups];
+        Arrays.fill(sizes, perGroup);
+        sizes[numGroups - 1] = total - perGroup * (numGroups - 1);
+
+        // If the last group is too small, combine it with the previous group, splitting them evenly if needed
+        if (numGroups > 1 && sizes[numGroups - 1] < min) {
+            int combined = sizes[numGroups - 2] + sizes[numGroups - 1];
+            if (combined <= max) {
+                sizes = Arrays.copyOf(sizes, numGroups - 1);
+                sizes[numGroups - 2] = combined;
+            } else {
+                sizes[numGroups - 2] = combined - combined / 2;
+                sizes[numGroups - 1] = combined / 2;
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Split sorted entries into compressed leaf nodes, each filled up to the fill factor of the maximum size.
+     * Only the last leaf node may be smaller than the minimum size, in which case it is combined with the
+     * previous leaf node, splitting them evenly if needed
+     * @param keys keys of all entries, sorted in ascending order
+     * @param fillFactor fraction of each node to be filled
+     * @return number of entries in each leaf node
+     */
+    private int[] partitionEncoded(KeyArray keys, double fillFactor) {
+        // A node stops growing once the next entry does not fit, so it is larger than the target by at most
+        // the size of an entry
+        int targetBytes = Math.max(minLeafBytes + LeafNode.MAX_ENCODED_ENTRY_SIZE,
+                Math.min(maxLeafBytes, (int) Math.round(maxLeafBytes * fillFactor)));
+
+        List<Integer> sizes = new ArrayList<>();
+        int count = keys.capacity();
+        for (int start = 0, end; start < count; start = end) {
+            int bytes = LeafNode.ENCODED_HEADER_SIZE + LeafNode.MAX_ENCODED_ENTRY_SIZE;
+            for (end = start + 1; end < count; ++end) {
+                int entryBytes = LeafNode.encodedEntrySize(keys, end, start);
+                if (bytes + entryBytes > targetBytes) break;
+                bytes += entryBytes;
+            }
+            sizes.add(end - start);
+        }
+
+        int last = sizes.size() - 1;
+        int lastStart = count - sizes.get(last);
+        if (last > 0 && LeafNode.encodedSize(keys, lastStart, count) < minLeafBytes) {
+            int prevStart = lastStart - sizes.get(last - 1);
+            if (LeafNode.encodedSize(keys, prevStart, count) <= maxLeafBytes) {
+                sizes.remove(last);
+                sizes.set(last - 1, count - prevStart);
+            } else {
+                int mid = LeafNode.findEncodedSplit(keys, prevStart, count);
+                sizes.set(last - 1, mid - prevStart);
+                sizes.set(last, count - mid);
+            }
+        }
+        return sizes.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Delete all entries having the specified key as its primary key, and the records they point to.
+     * The tree is traversed once to the first matching entry, the whole run of matching entries is removed
+     * from the leaf nodes, then the affected nodes are rebalanced
      * @param deleteKey key to delete
      */
     public void delete(int deleteKey) {
         // Initialize total number of nodes deleted for experiment
         totalNodesDeleted = 0;
+        if (root == null) return;
+
+        // Traverse to the leftmost leaf node possibly containing the key
+        Node node = root;
+        while (node instanceof InternalNode) {
+            InternalNode curNode = (InternalNode) node;
+            node = curNode.getPointers()[findIndexOfNode(curNode, deleteKey)];
+        }
+
+        // Remove matching entries from leaf nodes, continuing to the right sibling while the run of
+        // matching entries may continue there
+        List<LeafNode> affected = new ArrayList<>();
+        LeafNode leaf = (LeafNode) node;
+        while (leaf != null) {
+            long[] deleted = leaf.deleteByKey(deleteKey);
+            for (long address : deleted) {
+                st.deleteRecord(address);
+            }
+            if (deleted.length > 0) affected.add(leaf);
+
+            if (leaf.getDegree() > 0 && leaf.getKeys().getK1(leaf.getDegree()-1) > deleteKey) break;
+            leaf = leaf.getRightSibling();
+        }
 
-        // Keep deleting until the key is not found in the B+ tree
-        DeleteResult result;
-        do {
-            result = deleteInternal(root, deleteKey, null);
-        } while (result != null && result.isFound());
+        // Update subtree totals before restructuring, which keeps the totals of the parents of moved nodes
+        for (LeafNode affectedLeaf : affected) {
+            refreshPath(affectedLeaf);
+        }
+
+        // Leaf nodes in the middle of the run are left empty and can be removed directly, at most the first
+        // and last affected leaf nodes still have entries and may need to borrow or merge
+        for (LeafNode affectedLeaf : affected) {
+            if (affectedLeaf.getDegree() == 0) removeLeaf(affectedLeaf);
+        }
+        for (LeafNode affectedLeaf : affected) {
+            // Skip leaf nodes merged into a sibling while rebalancing
+            if (affectedLeaf.getDegree() > 0 && (affectedLeaf.getParent() != null || affectedLeaf == root)) {
+                rebalanceLeaf(affectedLeaf);
+            }
+        }
     }
 
     /**
-     * Internal implementation of deletion in B+ tree
-     * @param curNode current node
-     * @param deleteKey key to delete
-     * @param oldChildIndex index of deleted child node if any, otherwise null
-     * @return result object consisting of index of deleted child node, parent of traversed node,
-     * and boolean indicating if an entry is deleted
+     * Delete a single entry without deleting the record it points to, used to keep an index consistent when
+     * the record is deleted through another index
+     * @param key key of entry to delete
+     * @param address packed record address of entry to delete
+     * @return true if the entry was found and deleted
      */
-    public DeleteResult deleteInternal(Node curNode, int deleteKey, Integer oldChildIndex) {
-        if (root == null) {
-            return null;
+    public boolean deleteEntry(Key key, long address) {
+        // Initialize total number of nodes deleted for experiment
+        totalNodesDeleted = 0;
+        if (root == null) return false;
+
+        LeafNode leaf = findLeaf(key);
+        int index = indexOfEntry(leaf, key, address);
+        if (index < 0) return false;
+
+        leaf.deleteByIndex(index);
+        refreshPath(leaf);
+        if (leaf.getDegree() == 0) {
+            removeLeaf(leaf);
+        } else {
+            rebalanceLeaf(leaf);
+        }
+        return true;
+    }
+
+    /**
+     * Replace the address of an entry, used to keep an index consistent when its record is moved to another slot
+     * @param key key of entry
+     * @param oldAddress packed record address of entry before the move
+     * @param newAddress packed record address of entry after the move
+     * @return true if the entry was found and updated
+     */
+    public boolean updateAddress(Key key, long oldAddress, long newAddress) {
+        if (root == null) return false;
+
+        LeafNode leaf = findLeaf(key);
+        int index = indexOfEntry(leaf, key, oldAddress);
+        if (index < 0) return false;
+
+        leaf.getAddresses()[index] = newAddress;
+        return true;
+    }
+
+    /**
+     * Traverse to the leaf node where a key would be inserted, which holds the entries with the key if they exist
+     * @param key key
+     * @return leaf node
+     */
+    private LeafNode findLeaf(Key key) {
+        Node node = root;
+        while (node instanceof InternalNode) {
+            InternalNode curNode = (InternalNode) node;
+            node = curNode.getPointers()[findIndexOfNode(curNode, key)];
         }
+        return (LeafNode) node;
+    }
 
-        DeleteResult result;
-        InternalNode parentNode = curNode.getParent();
-        boolean found = false;
+    /**
+     * Find the index of an entry in the leaf node returned by findLeaf for its key
+     * @param leaf leaf node
+     * @param key key of entry
+     * @param address packed record address of entry
+     * @return index of entry, -1 if it is not in the leaf node
+     */
+    private static int indexOfEntry(LeafNode leaf, Key key, long address) {
+        int index = leaf.getKeys().upperBound(key, leaf.getDegree()) - 1;
+        while (index >= 0 && leaf.getAddresses()[index] != address && leaf.getKeys().get(index).compareTo(key) == 0) {
+            --index;
+        }
+        return index >= 0 && leaf.getAddresses()[index] == address ? index : -1;
+    }
 
-        if (curNode instanceof InternalNode) {
-            InternalNode node = (InternalNode) curNode;
+    /**
+     * Search a sparse index, whose entries hold the smallest key of consecutive groups of records ordered by key
+     * such as the blocks of a clustered storage, for the groups which may hold a key value within the bounds.
+     * These are the last group starting before the lower bound, followed by every group starting up to the upper
+     * bound
+     * @param lower lower bound of the search key, inclusive (numVotes)
+     * @param upper upper bound of the search key, inclusive (numVotes)
+     * @return packed addresses of the entries of the groups, in order of key
+     */
+    public LongList searchSparse(int lower, int upper) {
+        // Reset logs for experiment
+        st.resetLog();
 
-            // Find pointer to node possibly containing key to delete
-            int pointerIndex = findIndexOfNode(node, deleteKey);
+        LongList result = new LongList();
+        if (root == null || lower > upper) return result;
+
+        int[] index = new int[1];
+        LeafNode leaf = findFloor(new Key(lower), index, true);
+        for (int i = index[0]; leaf != null; leaf = leaf.getRightSibling(), i = 0) {
+            st.logNodeAccess(leaf);
+            for (; i < leaf.getDegree(); ++i) {
+                // The group holding the lower bound is always read, even if it starts after the upper bound
+                if (leaf.getKeys().getK1(i) > upper && !result.isEmpty()) return result;
+                result.add(leaf.getAddresses()[i]);
+            }
+        }
+        return result;
+    }
 
-            // Recursively delete
-            result = deleteInternal(node.getPointers()[pointerIndex], deleteKey, oldChildIndex);
+    /**
+     * Find the group of a sparse index that a key belongs to
+     * @param key key
+     * @return packed address of the last entry with a key not larger than the key, or of the first entry if
+     * every entry is larger
+     * @throws IllegalStateException if the index is empty
+     */
+    public long searchFloor(Key key) {
+        if (root == null) throw new IllegalStateException("Index is empty");
 
-            // Retrieve index of deleted child node, null if no deletion
-            oldChildIndex = result.getOldChildIndex();
+        int[] index = new int[1];
+        LeafNode leaf = findFloor(key, index, false);
+        return leaf.getAddresses()[index[0]];
+    }
 
-            // Set current node since parent of traversed nodes in the lower level may be different after recursion
-            node = result.getParentNode();
-            found = result.isFound();
+    /**
+     * Find the last entry with a key not larger than a key, or the first entry if every entry is larger
+     * @param key key
+     * @param index array whose first element is set to the index of the entry in the returned leaf node
+     * @param log whether the accessed nodes are logged, except the returned leaf node
+     * @return leaf node holding the entry
+     */
+    private LeafNode findFloor(Key key, int[] index, boolean log) {
+        Node node = root;
+        while (node instanceof InternalNode) {
+            if (log) st.logNodeAccess(node);
+            InternalNode curNode = (InternalNode) node;
+            node = curNode.getPointers()[findIndexOfNode(curNode, key)];
+        }
 
-            if (found && oldChildIndex != null) {
-                // Delete key and pointer to deleted child node
-                node.deleteKey(oldChildIndex-1);
-                node.deletePointer(oldChildIndex);
-                parentNode = node.getParent();
+        // Every entry of the leaf node may be larger, then the entry is the last one of a left sibling
+        LeafNode leaf = (LeafNode) node;
+        int i = leaf.getKeys().upperBound(key, leaf.getDegree()) - 1;
+        while (i < 0 && leaf.getLeftSibling() != null) {
+            if (log) st.logNodeAccess(leaf);
+            leaf = leaf.getLeftSibling();
+            i = leaf.getDegree() - 1;
+        }
+        index[0] = Math.max(i, 0);
+        return leaf;
+    }
 
-                if (node.getDegree() >= minDegreeInternal || node == root) {
-                    oldChildIndex = null;
-                } else {
-                    // Find index of pointer to current node in parent
-                    int curNodeIndex = findIndexOfPointer(parentNode, node);
+    /**
+     * Estimate the fraction of entries with a key value within the lower and upper bounds, from the position
+     * of the bounds among the children of the nodes on their search paths. Assumes that sibling subtrees
+     * hold about the same number of entries
+     * @param lower lower bound of key value, inclusive
+     * @param upper upper bound of key value, inclusive
+     * @return estimated fraction of entries, between 0 and 1
+     */
+    public double estimateSelectivity(int lower, int upper) {
+        if (root == null || lower > upper) return 0;
+        double upperRank = upper == Integer.MAX_VALUE ? 1 : estimateRank(upper + 1);
+        return Math.max(0, upperRank - estimateRank(lower));
+    }
 
-                    // Get left and right siblings of current node
-                    InternalNode rightSibling = null, leftSibling = null;
-                    if (curNodeIndex > 0) {
-                        leftSibling = (InternalNode) parentNode.getPointers()[curNodeIndex - 1];
-                    }
-                    if (curNodeIndex < maxDegreeInternal - 1) {
-                        rightSibling = (InternalNode) parentNode.getPointers()[curNodeIndex + 1];
-                    }
+    /**
+     * Estimate the fraction of entries with a key value smaller than a value
+     * @param keyValue key value
+     * @return estimated fraction of entries, between 0 and 1
+     */
+    private double estimateRank(int keyValue) {
+        double rank = 0, width = 1;
+        Node node = root;
+        while (node instanceof InternalNode) {
+            InternalNode curNode = (InternalNode) node;
+            int index = findIndexOfNode(curNode, keyValue);
+            rank += width * index / curNode.getDegree();
+            width /= curNode.getDegree();
+            node = curNode.getPointers()[index];
+        }
 
-                    if (rightSibling != null && rightSibling.getDegree() > minDegreeInternal) {
-                        // If right sibling has extra entries, borrow from right sibling
-                        // Move first key and pointer of right sibling to current node
-                        moveEntryToLeftInternalNode(node, rightSibling);
-
-                        // Swap moved key value with parent key value
-                        Key temp = node.getKeys()[node.getDegree()-2];
-                        node.getKeys()[node.getDegree()-2] = parentNode.getKeys()[curNodeIndex];
-                        parentNode.getKeys()[curNodeIndex] = temp;
-                        oldChildIndex = null;
-                    } else if (leftSibling != null && leftSibling.getDegree() > minDegreeInternal) {
-                        // If left sibling has extra entries, borrow from left sibling
-                        // Move last key and pointer of left sibling to current node
-                        moveEntryToRightInternalNode(leftSibling, node);
-
-                        // Swap moved key value with parent key value
-                        Key temp = node.getKeys()[0];
-                        node.getKeys()[0] = parentNode.getKeys()[curNodeIndex - 1];
-                        parentNode.getKeys()[curNodeIndex - 1] = temp;
-                        oldChildIndex = null;
-                    } else if (rightSibling != null) {
-                        // If right sibling does not have extra entries, merge with right sibling
-                        // Set right sibling node to be removed
-                        oldChildIndex = curNodeIndex + 1;
-
-                        // Pull down key from parent to current node
-                        node.addKey(parentNode.getKeys()[curNodeIndex], node.getDegree() - 1);
-
-                        // Merge right sibling node to current node
-                        merge(rightSibling, node);
-                    } else if (leftSibling != null) {
-                        // If left sibling does not have extra entries, merge with left sibling
-                        // Set current node to be removed
-                        oldChildIndex = curNodeIndex;
-
-                        // Pull down key from parent to left node
-                        leftSibling.addKey(parentNode.getKeys()[curNodeIndex - 1], leftSibling.getDegree() - 1);
-
-                        // Merge current node to left sibling node
-                        merge(node, leftSibling);
-                    }
-                }
-            }
+        LeafNode leaf = (LeafNode) node;
+        if (leaf.getDegree() > 0) {
+            rank += width * leaf.getKeys().countLess(keyValue, leaf.getDegree()) / leaf.getDegree();
+        }
+        return rank;
+    }
 
-            // If current node is root, and it only has 1 child, make child node the new root
-            if (root == node && root.getDegree() == 1) {
-                InternalNode temp = (InternalNode) root;
-                root = ((InternalNode) root).getPointers()[0];
-                root.setParent(null);
-                temp.deleteAll();
-
-                // Decrease height of tree and number of nodes, increase total number of deleted nodes
-                --height;
-                --totalNodes;
-                ++totalNodesDeleted;
-            }
+    /**
+     * Remove an empty leaf node from the tree, then rebalance its parent
+     * @param leaf empty leaf node
+     */
+    private void removeLeaf(LeafNode leaf) {
+        // Modify siblings of nodes
+        if (leaf.getLeftSibling() != null) leaf.getLeftSibling().setRightSibling(leaf.getRightSibling());
+        if (leaf.getRightSibling() != null) leaf.getRightSibling().setLeftSibling(leaf.getLeftSibling());
+
+        InternalNode parentNode = leaf.getParent();
+        if (parentNode == null) {
+            root = null;
+        } else {
+            removeChild(parentNode, findIndexOfPointer(parentNode, leaf));
+            leaf.setParent(null);
+        }
+
+        // Decrease number of nodes, increase total number of deleted nodes
+        --totalNodes;
+        ++totalNodesDeleted;
+
+        if (parentNode != null) rebalanceInternal(parentNode);
+    }
+
+    /**
+     * Rebalance a leaf node having fewer than the minimum number of keys, by borrowing entries from a sibling
+     * if the sibling has enough entries, otherwise merging with the sibling
+     * @param node leaf node to rebalance
+     */
+    private void rebalanceLeaf(LeafNode node) {
+        if (node == root || !isUnderfull(node)) return;
+
+        // Find index of pointer to current node in its parent
+        InternalNode parentNode = node.getParent();
+        int curNodeIndex = findIndexOfPointer(parentNode, node);
 
-        } else if (curNode instanceof LeafNode) {
-            LeafNode node = (LeafNode) curNode;
+        // Get left and right siblings of current node, if any
+        LeafNode rightSibling = null, leftSibling = null;
+        if (curNodeIndex < parentNode.getDegree() - 1) {
+            rightSibling = node.getRightSibling();
+        }
+        if (curNodeIndex > 0) {
+            leftSibling = node.getLeftSibling();
+        }
 
-            // Traverse leaf nodes to search for key to delete, since it is possible that the current node
-            // does not contain the key
-            KeyValuePair deletedEntry = node.delete(deleteKey);
-            while (deletedEntry == null && node != null && node.getDegree() > 0
-                    && deleteKey >= node.getKvPairs()[node.getDegree()-1].getKey().getK1()) {
-                node = node.getRightSibling();
-                if (node != null) deletedEntry = node.delete(deleteKey);
+        if (rightSibling != null && !canMerge(node, rightSibling)) {
+            // Borrow from right sibling
+            while (isUnderfull(node)) {
+                node.addSorted(rightSibling.getKeys().get(0), rightSibling.getAddresses()[0],
+                        rightSibling.getRating(0));
+                rightSibling.deleteByIndex(0);
             }
 
-            // Delete entry in storage
-            if (deletedEntry != null) {
-                found = true;
-                st.deleteRecord(deletedEntry.getRecordAddress());
+            // Set leftmost key of right sibling to be key value of parent
+            parentNode.getKeys().set(curNodeIndex, rightSibling.getKeys().get(0));
+            refreshChild(parentNode, curNodeIndex);
+            refreshChild(parentNode, curNodeIndex + 1);
+        } else if (leftSibling != null && !canMerge(leftSibling, node)) {
+            // Borrow from left sibling
+            while (isUnderfull(node)) {
+                int last = leftSibling.getDegree() - 1;
+                node.addSorted(leftSibling.getKeys().get(last), leftSibling.getAddresses()[last],
+                        leftSibling.getRating(last));
+                leftSibling.deleteByIndex(last);
             }
 
-            if (found && node.getDegree() < minKeysLeaf && node != root) {
-                // Set parent node since current node may have a different parent after traversing leaf nodes
-                parentNode = node.getParent();
+            // Set leftmost key of current node to be key value of parent
+            parentNode.getKeys().set(curNodeIndex-1, node.getKeys().get(0));
+            refreshChild(parentNode, curNodeIndex - 1);
+            refreshChild(parentNode, curNodeIndex);
+        } else if (rightSibling != null) {
+            // Merge with right sibling
+            merge(rightSibling, node);
+
+            // Modify siblings of nodes
+            node.setRightSibling(rightSibling.getRightSibling());
+            if (node.getRightSibling() != null) node.getRightSibling().setLeftSibling(node);
+
+            removeChild(parentNode, curNodeIndex + 1);
+            rightSibling.setParent(null);
+            refreshChild(parentNode, curNodeIndex);
+            rebalanceInternal(parentNode);
+
+            // Both nodes may have lost several entries, so the merged node can still be underfull
+            rebalanceLeaf(node);
+        } else if (leftSibling != null) {
+            // Merge with left sibling
+            merge(node, leftSibling);
+
+            // Modify siblings of nodes
+            leftSibling.setRightSibling(node.getRightSibling());
+            if (leftSibling.getRightSibling() != null) leftSibling.getRightSibling().setLeftSibling(leftSibling);
+
+            removeChild(parentNode, curNodeIndex);
+            node.setParent(null);
+            refreshChild(parentNode, curNodeIndex - 1);
+            rebalanceInternal(parentNode);
+
+            // Both nodes may have lost several entries, so the merged node can still be underfull
+            rebalanceLeaf(leftSibling);
+        }
+    }
 
-                // Find index of pointer to current node in its parent
-                int curNodeIndex = findIndexOfPointer(parentNode, node);
+    /**
+     * Rebalance internal nodes from the given node up to the root after a child has been removed. A node with
+     * fewer than the minimum number of children borrows a key and pointer from a sibling with extra entries,
+     * otherwise it is merged with a sibling, which removes a child from its parent
+     * @param node internal node which had a child removed
+     */
+    private void rebalanceInternal(InternalNode node) {
+        while (node != root && node.getDegree() < minDegreeInternal) {
+            InternalNode parentNode = node.getParent();
 
-                // Get left and right siblings of current node, if any
-                LeafNode rightSibling = null, leftSibling = null;
-                if (curNodeIndex < parentNode.getDegree() - 1) {
-                    rightSibling = node.getRightSibling();
-                }
-                if (curNodeIndex > 0) {
-                    leftSibling = node.getLeftSibling();
-                }
+            // Find index of pointer to current node in parent
+            int curNodeIndex = findIndexOfPointer(parentNode, node);
 
-                if (rightSibling != null && rightSibling.getDegree() > minKeysLeaf) {
-                    // Borrow from right sibling
-                    KeyValuePair entry = rightSibling.deleteByIndex(0);
-                    node.addSorted(entry);
-
-                    // Set leftmost key of right sibling to be key value of parent
-                    parentNode.getKeys()[curNodeIndex] = rightSibling.getKvPairs()[0].getKey();
-                } else if (leftSibling != null && leftSibling.getDegree() > minKeysLeaf) {
-                    // Borrow from left sibling
-                    KeyValuePair entry = leftSibling.deleteByIndex(leftSibling.getDegree() - 1);
-                    node.addSorted(entry);
-
-                    // Set rightmost key of current node to be key value of parent
-                    parentNode.getKeys()[curNodeIndex-1] = node.getKvPairs()[0].getKey();
-                } else if (rightSibling != null) {
-                    // Merge with right sibling
-                    oldChildIndex = curNodeIndex+1;
-                    merge(rightSibling, node);
-
-                    // Modify siblings of nodes
-                    node.setRightSibling(rightSibling.getRightSibling());
-                    if (node.getRightSibling() != null) node.getRightSibling().setLeftSibling(node);
-                } else if (leftSibling != null) {
-                    // Merge with left sibling
-                    oldChildIndex = curNodeIndex;
-                    merge(node, leftSibling);
-
-                    // Modify siblings of nodes
-                    leftSibling.setRightSibling(node.getRightSibling());
-                    if (leftSibling.getRightSibling() != null) leftSibling.getRightSibling().setLeftSibling(leftSibling);
-                }
+            // Get left and right siblings of current node
+            InternalNode rightSibling = null, leftSibling = null;
+            if (curNodeIndex > 0) {
+                leftSibling = (InternalNode) parentNode.getPointers()[curNodeIndex - 1];
+            }
+            if (curNodeIndex < parentNode.getDegree() - 1) {
+                rightSibling = (InternalNode) parentNode.getPointers()[curNodeIndex + 1];
             }
 
-            if (node == root && root.getDegree() == 0) {
-                root = null;
+            if (rightSibling != null && rightSibling.getDegree() > minDegreeInternal) {
+                // If right sibling has extra entries, borrow from right sibling
+                // Move first key and pointer of right sibling to current node
+                moveEntryToLeftInternalNode(node, rightSibling);
+
+                // Swap moved key value with parent key value
+                node.getKeys().swap(node.getDegree()-2, parentNode.getKeys(), curNodeIndex);
+                refreshChild(parentNode, curNodeIndex);
+                refreshChild(parentNode, curNodeIndex + 1);
+                return;
+            } else if (leftSibling != null && leftSibling.getDegree() > minDegreeInternal) {
+                // If left sibling has extra entries, borrow from left sibling
+                // Move last key and pointer of left sibling to current node
+                moveEntryToRightInternalNode(leftSibling, node);
+
+                // Swap moved key value with parent key value
+                node.getKeys().swap(0, parentNode.getKeys(), curNodeIndex - 1);
+                refreshChild(parentNode, curNodeIndex - 1);
+                refreshChild(parentNode, curNodeIndex);
+                return;
+            } else if (rightSibling != null) {
+                // If right sibling does not have extra entries, merge with right sibling
+                // Pull down key from parent to current node
+                node.addKey(parentNode.getKeys().get(curNodeIndex), node.getDegree() - 1);
+
+                // Merge right sibling node to current node
+                merge(rightSibling, node);
+                removeChild(parentNode, curNodeIndex + 1);
+                refreshChild(parentNode, curNodeIndex);
+            } else {
+                // If left sibling does not have extra entries, merge with left sibling
+                // Pull down key from parent to left node
+                leftSibling.addKey(parentNode.getKeys().get(curNodeIndex - 1), leftSibling.getDegree() - 1);
+
+                // Merge current node to left sibling node
+                merge(node, leftSibling);
+                removeChild(parentNode, curNodeIndex);
+                refreshChild(parentNode, curNodeIndex - 1);
             }
+
+            node = parentNode;
+        }
+
+        // If current node is root, and it only has 1 child, make child node the new root
+        if (node == root && root.getDegree() == 1) {
+            root = node.getPointers()[0];
+            root.setParent(null);
+            node.deleteAll();
+
+            // Decrease height of tree and number of nodes, increase total number of deleted nodes
+            --height;
+            --totalNodes;
+            ++totalNodesDeleted;
         }
+    }
 
-        // Return object consisting of index of deleted child (if any), parent of current node,
-        // and a boolean indicating whether an entry is deleted
-        return new DeleteResult(oldChildIndex, parentNode, found);
+    /**
+     * Remove a pointer to a child node from an internal node, together with the key separating it from
+     * its left sibling, or from its right sibling if it is the first child
+     * @param node internal node
+     * @param childIndex index of pointer to child node
+     */
+    private void removeChild(InternalNode node, int childIndex) {
+        if (childIndex > 0) {
+            node.deleteKey(childIndex - 1);
+        } else if (node.getDegree() > 1) {
+            node.deleteKey(0);
+        }
+        node.deletePointer(childIndex);
     }
 
     /**
@@ -462,8 +1136,12 @@ public class BPlusTree {
         }
 
         // Copy all keys and pointers of the source node to the back of the destination node
-        System.arraycopy(src.getKeys(), 0, dst.getKeys(), dst.getDegree(), src.getDegree() - 1);
+        KeyArray.copy(src.getKeys(), 0, dst.getKeys(), dst.getDegree(), src.getDegree() - 1);
         System.arraycopy(src.getPointers(), 0, dst.getPointers(), dst.getDegree(), src.getDegree());
+        if (covering) {
+            System.arraycopy(src.getCounts(), 0, dst.getCounts(), dst.getDegree(), src.getDegree());
+            System.arraycopy(src.getSums(), 0, dst.getSums(), dst.getDegree(), src.getDegree());
+        }
         dst.setDegree(src.getDegree() + dst.getDegree());
 
         // Delete source node
@@ -476,13 +1154,15 @@ public class BPlusTree {
     }
 
     /**
-     * Merge 2 leaf nodes by appending key-value pairs of source node to destination node
+     * Merge 2 leaf nodes by appending entries of source node to destination node
      * @param src source leaf node
      * @param dst destination leaf node, used to store the merged node
      */
     public void merge(LeafNode src, LeafNode dst) {
-        // Copy all key-value pairs of the source node to the back of the destination node
-        System.arraycopy(src.getKvPairs(), 0, dst.getKvPairs(), dst.getDegree(), src.getDegree());
+        // Copy all entries of the source node to the back of the destination node
+        KeyArray.copy(src.getKeys(), 0, dst.getKeys(), dst.getDegree(), src.getDegree());
+        System.arraycopy(src.getAddresses(), 0, dst.getAddresses(), dst.getDegree(), src.getDegree());
+        if (covering) System.arraycopy(src.getRatings(), 0, dst.getRatings(), dst.getDegree(), src.getDegree());
         dst.setDegree(dst.getDegree() + src.getDegree());
 
         // Delete source node
@@ -507,6 +1187,7 @@ public class BPlusTree {
         left.addKey(key, left.getDegree() - 1);
         left.addPointer(pointer, left.getDegree());
         pointer.setParent(left);
+        refreshChild(left, left.getDegree() - 1);
     }
 
     /**
@@ -523,6 +1204,7 @@ public class BPlusTree {
         right.addKey(key, 0);
         right.addPointer(pointer, 0);
         pointer.setParent(right);
+        refreshChild(right, 0);
     }
 
     /**
@@ -532,36 +1214,38 @@ public class BPlusTree {
      * @return pair of the smallest key in second node and pointer to second node
      */
     public KeyNodePair splitNode(InternalNode node, KeyNodePair knPair) {
-        Key[] keys = node.getKeys();
+        KeyArray keys = node.getKeys();
         Node[] pointers = node.getPointers();
 
         // Create temporary array to store existing and to be added keys and pointers
-        Key[] tempKeys = Arrays.copyOf(keys, keys.length+1);
+        KeyArray tempKeys = new KeyArray(n+1);
+        KeyArray.copy(keys, 0, tempKeys, 0, n);
         Node[] tempPointers = Arrays.copyOf(pointers, pointers.length+1);
 
         // Find midpoint to split node
         int mid = (int) Math.floor((n+1)/2.0);
 
         // Find on which index the key and pointer can be inserted in order to keep it sorted
-        int indexToInsertKey = Util.findIndexToInsert(tempKeys, knPair.getKey());
+        int indexToInsertKey = tempKeys.upperBound(knPair.getKey(), n);
 
         // Insert key and pointer to temporary array
-        Util.insertAndShift(tempKeys, knPair.getKey(), indexToInsertKey);
+        tempKeys.insert(indexToInsertKey, knPair.getKey());
         Util.insertAndShift(tempPointers, knPair.getNode(), indexToInsertKey+1);
 
-        // Split key and pointer arrays in half
-        Key[] firstHalfKeys = Arrays.copyOfRange(tempKeys, 0, mid);
+        // Split pointer array in half
         Node[] firstHalfPointers = Arrays.copyOfRange(tempPointers, 0, mid+1);
-        Key[] secondHalfKeys = Arrays.copyOfRange(tempKeys, mid+1, tempKeys.length);
         Node[] secondHalfPointers = Arrays.copyOfRange(tempPointers, mid+1, tempPointers.length);
 
-        // Set keys and pointers to nodes
-        node.setKeys(Arrays.copyOf(firstHalfKeys, keys.length));
+        // Set first half of the keys and pointers to the node, the key in the middle is moved to the parent
+        keys.clear(0, n);
+        KeyArray.copy(tempKeys, 0, keys, 0, mid);
         node.setPointers(Arrays.copyOf(firstHalfPointers, pointers.length));
         node.setDegree(firstHalfPointers.length);
 
         // Create a new node to store the split keys and pointers
-        InternalNode newNode = new InternalNode(secondHalfPointers.length, Arrays.copyOf(secondHalfKeys, keys.length),
+        KeyArray secondHalfKeys = new KeyArray(n);
+        KeyArray.copy(tempKeys, mid+1, secondHalfKeys, 0, n - mid);
+        InternalNode newNode = new InternalNode(secondHalfPointers.length, secondHalfKeys,
                 Arrays.copyOf(secondHalfPointers, pointers.length));
 
         // Set the new node as parent of moved nodes
@@ -569,41 +1253,63 @@ public class BPlusTree {
             newNode.getPointers()[i].setParent(newNode);
         }
 
+        // Recompute the subtree totals of both halves
+        if (covering) {
+            newNode.setAnnotations(new long[pointers.length], new double[pointers.length]);
+            refreshChildren(node);
+            refreshChildren(newNode);
+        }
+
         // Return pair of the smallest key in second node and pointer to second node
-        return new KeyNodePair(tempKeys[mid], newNode);
+        return new KeyNodePair(tempKeys.get(mid), newNode);
     }
 
     /**
      * Split full leaf node into two parts
      * @param node leaf node to be split
-     * @param entry entry to be added
+     * @param key key of entry to be added
+     * @param address packed record address of entry to be added
+     * @param rating averageRating of the record of entry to be added, stored only if the tree is covering
      * @return pair of the smallest key in second node and pointer to second node
      */
-    public KeyNodePair splitLeaf(LeafNode node, KeyValuePair entry) {
-        KeyValuePair[] kvPairs = node.getKvPairs();
-
-        // Create a temporary array to store the existing and to be added entry
-        KeyValuePair[] temp = Arrays.copyOf(kvPairs, kvPairs.length+1);
-
-        // Find midpoint to split node
-        int mid = (int) Math.ceil((n+1)/2.0);
-
-        // Find on which index the entry can be inserted to kvPairs in order to keep it sorted
-        int indexToInsert = Util.findIndexToInsert(temp, entry);
-
-        // Insert key-value pair
-        Util.insertAndShift(temp, entry, indexToInsert);
-
-        // Split key-value pair array into half
-        KeyValuePair[] firstHalf = Arrays.copyOfRange(temp, 0, mid);
-        KeyValuePair[] secondHalf = Arrays.copyOfRange(temp, mid, temp.length);
-
-        // Set key-value pairs to nodes
-        node.setKvPairs(Arrays.copyOf(firstHalf, kvPairs.length));
-        node.setDegree(firstHalf.length);
-
-        // Create a new node to store the split key-value pairs
-        LeafNode newLeaf = new LeafNode(secondHalf.length, Arrays.copyOf(secondHalf, kvPairs.length));
+    public KeyNodePair splitLeaf(LeafNode node, Key key, long address, float rating) {
+        KeyArray keys = node.getKeys();
+        long[] addresses = node.getAddresses();
+        int degree = node.getDegree();
+
+        // Create temporary arrays to store the existing and to be added entry
+        KeyArray tempKeys = new KeyArray(degree+1);
+        KeyArray.copy(keys, 0, tempKeys, 0, degree);
+        long[] tempAddresses = Arrays.copyOf(addresses, degree+1);
+        float[] tempRatings = covering ? Arrays.copyOf(node.getRatings(), degree+1) : null;
+
+        // Find on which index the entry can be inserted in order to keep it sorted
+        int indexToInsert = tempKeys.upperBound(key, degree);
+
+        // Insert entry
+        tempKeys.insert(indexToInsert, key);
+        Util.insertAndShift(tempAddresses, address, indexToInsert);
+        if (covering) Util.insertAndShift(tempRatings, rating, indexToInsert);
+
+        // Find midpoint to split node, compressed leaf nodes are split into halves of about the same size in bytes
+        int mid = compressedLeaves ? LeafNode.findEncodedSplit(tempKeys, 0, degree+1)
+                : (int) Math.ceil((maxKeysLeaf+1)/2.0);
+
+        // Set first half of the entries to the node
+        keys.clear(0, degree);
+        KeyArray.copy(tempKeys, 0, keys, 0, mid);
+        node.setAddresses(Arrays.copyOf(tempAddresses, addresses.length));
+        if (covering) node.setRatings(Arrays.copyOf(tempRatings, addresses.length));
+        node.setDegree(mid);
+
+        // Create a new node to store the second half of the entries
+        KeyArray secondHalfKeys = new KeyArray(maxKeysLeaf);
+        KeyArray.copy(tempKeys, mid, secondHalfKeys, 0, degree + 1 - mid);
+        long[] secondHalfAddresses = Arrays.copyOf(
+                Arrays.copyOfRange(tempAddresses, mid, tempAddresses.length), addresses.length);
+        float[] secondHalfRatings = covering ? Arrays.copyOf(
+                Arrays.copyOfRange(tempRatings, mid, tempRatings.length), addresses.length) : null;
+        LeafNode newLeaf = new LeafNode(degree + 1 - mid, secondHalfKeys, secondHalfAddresses, secondHalfRatings);
 
         // Modify sibling relations on leaf nodes
         LeafNode rightSibling = node.getRightSibling();
@@ -613,7 +1319,120 @@ public class BPlusTree {
         if (rightSibling != null) rightSibling.setLeftSibling(newLeaf);
 
         // Return pair of the smallest key in second node and pointer to second node
-        return new KeyNodePair(newLeaf.getKvPairs()[0].getKey(), newLeaf);
+        return new KeyNodePair(newLeaf.getKeys().get(0), newLeaf);
+    }
+
+    /**
+     * Add an entry to a leaf node with room for another key, unless the entry does not fit in a compressed leaf node
+     * @param leaf leaf node with fewer than the maximum number of keys
+     * @param key key of entry to be added
+     * @param address packed record address of entry to be added
+     * @param rating averageRating of the record of entry to be added, stored only if the tree is covering
+     * @return true if the entry was added, false if the leaf node must be split instead
+     */
+    private boolean addToLeaf(LeafNode leaf, Key key, long address, float rating) {
+        int index = leaf.addSorted(key, address, rating);
+        if (compressedLeaves && leaf.getEncodedSize() > maxLeafBytes) {
+            leaf.deleteByIndex(index);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Check if a leaf node has fewer entries than allowed for a node other than the root
+     * @param leaf leaf node
+     * @return true if the leaf node must be rebalanced
+     */
+    private boolean isUnderfull(LeafNode leaf) {
+        return compressedLeaves ? leaf.getEncodedSize() < minLeafBytes : leaf.getDegree() < minKeysLeaf;
+    }
+
+    /**
+     * Check if two adjacent leaf nodes should be merged instead of one borrowing entries from the other
+     * @param left left leaf node
+     * @param right right leaf node
+     * @return true if the entries of both nodes fit in one node
+     */
+    private boolean canMerge(LeafNode left, LeafNode right) {
+        if (!compressedLeaves) return left.getDegree() + right.getDegree() < 2 * minKeysLeaf;
+        if (left.getDegree() + right.getDegree() > maxKeysLeaf) return false;
+
+        // The first entry of the right node no longer starts a node, so it may share a prefix with its predecessor
+        int mergedBytes = left.getEncodedSize() + right.getEncodedSize() - LeafNode.ENCODED_HEADER_SIZE
+                - LeafNode.MAX_ENCODED_ENTRY_SIZE
+                + LeafNode.encodedEntrySize(left.getKeys(), left.getDegree() - 1, right.getKeys(), 0);
+        return mergedBytes <= maxLeafBytes;
+    }
+
+    /**
+     * Check if inserting an entry into a leaf node may split it
+     * @param leaf leaf node
+     * @return true if the leaf node is full
+     */
+    public boolean isFull(LeafNode leaf) {
+        if (leaf.getDegree() >= maxKeysLeaf) return true;
+        return compressedLeaves && leaf.getEncodedSize() + LeafNode.MAX_ENCODED_ENTRY_SIZE > maxLeafBytes;
+    }
+
+    /**
+     * Recompute the subtree totals of a child of an internal node, if the tree is covering
+     * @param parentNode internal node
+     * @param index index of pointer to child node
+     */
+    private void refreshChild(InternalNode parentNode, int index) {
+        if (!covering) return;
+
+        Node child = parentNode.getPointers()[index];
+        if (child instanceof LeafNode) {
+            LeafNode leaf = (LeafNode) child;
+            double sum = 0;
+            for (int i = 0; i < leaf.getDegree(); ++i) {
+                sum += leaf.getRatings()[i];
+            }
+            parentNode.setAnnotation(index, leaf.getDegree(), sum);
+        } else {
+            InternalNode curNode = (InternalNode) child;
+            parentNode.setAnnotation(index, curNode.getSubtreeCount(), curNode.getSubtreeSum());
+        }
+    }
+
+    /**
+     * Recompute the subtree totals of every child of an internal node, if the tree is covering
+     * @param node internal node
+     */
+    private void refreshChildren(InternalNode node) {
+        for (int i = 0; i < node.getDegree(); ++i) {
+            refreshChild(node, i);
+        }
+    }
+
+    /**
+     * Recompute the subtree totals of a node and all its ancestors, after entries of the node have changed
+     * @param node node whose entries have changed
+     */
+    private void refreshPath(Node node) {
+        if (!covering) return;
+
+        for (InternalNode parentNode = node.getParent(); parentNode != null; parentNode = parentNode.getParent()) {
+            refreshChild(parentNode, findIndexOfPointer(parentNode, node));
+            node = parentNode;
+        }
+    }
+
+    /**
+     * Allocate and compute the subtree totals of every internal node in a subtree, children first
+     * @param node root of subtree
+     */
+    private void annotate(Node node) {
+        if (!(node instanceof InternalNode)) return;
+
+        InternalNode curNode = (InternalNode) node;
+        curNode.setAnnotations(new long[n+1], new double[n+1]);
+        for (int i = 0; i < curNode.getDegree(); ++i) {
+            annotate(curNode.getPointers()[i]);
+        }
+        refreshChildren(curNode);
     }
 
     /**
@@ -623,7 +1442,8 @@ public class BPlusTree {
      * @return index of insertion
      */
     public int findIndexOfNode(InternalNode node, int keyValue) {
-        return findIndexOfNode(node, new Key(keyValue, new char[10]));
+        // Same as searching for the smallest key with the key value, without creating it
+        return node.getKeys().upperBound(keyValue, 0, 0, node.getDegree() - 1);
     }
 
     /**
@@ -633,12 +1453,7 @@ public class BPlusTree {
      * @return index of insertion
      */
     public int findIndexOfNode(InternalNode node, Key key) {
-        Key[] keys = node.getKeys();
-        int i;
-        for (i = 0; i < keys.length; ++i) {
-            if (key.compareTo(keys[i]) < 0) break;
-        }
-        return i;
+        return node.getKeys().upperBound(key, node.getDegree() - 1);
     }
 
     /**
@@ -660,6 +1475,70 @@ public class BPlusTree {
         return n;
     }
 
+    /**
+     * Get the maximum number of keys in a leaf node, which is the capacity of the arrays of every leaf node
+     * @param n maximum number of keys in a node
+     * @param compressedLeaves whether leaf nodes are compressed
+     * @return maximum number of keys in a leaf node
+     */
+    public static int getMaxKeysLeaf(int n, boolean compressedLeaves) {
+        return getMaxKeysLeaf(n, compressedLeaves, false);
+    }
+
+    /**
+     * Get the maximum number of keys in a leaf node, which is the capacity of the arrays of every leaf node
+     * @param n maximum number of keys in a node
+     * @param compressedLeaves whether leaf nodes are compressed
+     * @param covering whether leaf entries include the averageRating of their records
+     * @return maximum number of keys in a leaf node
+     */
+    public static int getMaxKeysLeaf(int n, boolean compressedLeaves, boolean covering) {
+        // A covering entry is larger, so fewer entries fit in the space of n uncompressed entries
+        if (covering) {
+            return (getUncompressedLeafBytes(n) - LeafNode.ENCODED_HEADER_SIZE)
+                    / (4 + Key.K2_LENGTH + LeafNode.ENCODED_POINTER_SIZE + LeafNode.INCLUDED_RATING_SIZE);
+        }
+        if (!compressedLeaves) return n;
+
+        // Every entry after the first one may be as small as the smallest encoded entry
+        return 1 + (getUncompressedLeafBytes(n) - LeafNode.ENCODED_HEADER_SIZE - LeafNode.MAX_ENCODED_ENTRY_SIZE)
+                / LeafNode.MIN_ENCODED_ENTRY_SIZE;
+    }
+
+    /**
+     * Get the size of a leaf node holding n uncompressed entries of (numVotes, tconst, record pointer),
+     * the same size as assumed by Util.getNFromBlockSize
+     * @param n maximum number of keys in a node
+     * @return size of the leaf node in bytes
+     */
+    static int getUncompressedLeafBytes(int n) {
+        return LeafNode.ENCODED_HEADER_SIZE + n * (4 + Key.K2_LENGTH + LeafNode.ENCODED_POINTER_SIZE);
+    }
+
+    public int getMaxKeysLeaf() {
+        return maxKeysLeaf;
+    }
+
+    public IndexAttribute getAttribute() {
+        return attribute;
+    }
+
+    public boolean hasCompressedLeaves() {
+        return compressedLeaves;
+    }
+
+    public boolean isCovering() {
+        return covering;
+    }
+
+    public int getMaxLeafBytes() {
+        return maxLeafBytes;
+    }
+
+    public int getMinLeafBytes() {
+        return minLeafBytes;
+    }
+
     public Node getRoot() {
         return root;
     }
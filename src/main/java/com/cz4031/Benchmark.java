@@ -0,0 +1,802 @@
+package com.cz4031;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Benchmarks comparing alternative implementations of the storage and index operations
+ */
+public class Benchmark {
+
+    /**
+     * Number of repetitions of each measured operation, the first repetition is used as warm-up
+     */
+    private static final int REPETITIONS = 5;
+
+    /**
+     * Number of key comparisons measured per repetition
+     */
+    private static final int NUM_COMPARISONS = 10_000_000;
+
+    /**
+     * Number of searches within a single node measured per repetition
+     */
+    private static final int NUM_NODE_SEARCHES = 2_000_000;
+
+    /**
+     * Number of point and range searches measured per repetition
+     */
+    private static final int NUM_LOOKUPS = 100_000;
+
+    /**
+     * Width of the key range of each measured range search (numVotes)
+     */
+    private static final int RANGE_WIDTH = 100;
+
+    /**
+     * Number of lookups by tconst answered by the B+ tree per repetition, since each reads every record with
+     * the same numVotes
+     */
+    private static final int NUM_TREE_LOOKUPS = 1000;
+
+    /**
+     * Number of lookups by tconst answered by a full scan per repetition, since each reads every block
+     */
+    private static final int NUM_SCAN_LOOKUPS = 20;
+
+    /**
+     * Number of records created in a file-backed storage per repetition, when measuring the write-ahead log
+     */
+    private static final int NUM_LOGGED_RECORDS = 10_000;
+
+    /**
+     * Number of records inserted into a clustered storage after clustering it
+     */
+    private static final int NUM_CLUSTERED_INSERTS = 20_000;
+
+    /**
+     * Maximum number of records moved by each step of a measured compaction, and pause between its steps
+     */
+    private static final int COMPACTION_MOVES_PER_STEP = 1000;
+    private static final long COMPACTION_PAUSE_MS = 1;
+
+    /**
+     * Fractions of the records matched by the measured scans, as ranges of numVotes up to the largest numVotes,
+     * since the smallest numVotes alone is shared by many records
+     */
+    private static final double[] SCAN_SELECTIVITIES = {0.0001, 0.001, 0.01, 0.1, 0.5, 1.0};
+
+    /**
+     * Duration of each concurrent throughput measurement in milliseconds
+     */
+    private static final int CONCURRENT_DURATION_MS = 1000;
+
+    public static void main(String[] args) {
+        String path = args.length > 0 ? args[0] : "data.tsv";
+        System.out.println("Running Benchmark");
+
+        benchmarkKeyCompare();
+
+        for (int blockSize : new int[]{100, 500, 4096}) {
+            Storage st = new Storage(blockSize, 19, 100 << 20);
+            st.initWithTSV(path);
+            st.buildIndex();
+            benchmarkLookup(st);
+            benchmarkTconstLookup(st);
+            benchmarkNodeSearch(st.getBPT().getN());
+        }
+
+        for (int blockSize : new int[]{100, 500}) {
+            System.out.println();
+            System.out.println("===============================================");
+            System.out.printf("BLOCK SIZE: %d bytes\n", blockSize);
+
+            benchmarkLoad(path, blockSize);
+            benchmarkWriteAheadLog(blockSize);
+            benchmarkClusteredStorage(path, blockSize);
+            benchmarkCompaction(path, blockSize);
+            benchmarkScan(path, blockSize);
+            benchmarkPlanner(path, blockSize);
+            benchmarkRecordCodec(path, blockSize);
+
+            Storage st = new Storage(blockSize, 19, 100 << 20);
+            st.initWithTSV(path);
+
+            benchmarkBuildIndex(st);
+            benchmarkIndexFootprint(st);
+            benchmarkCompressedLeaves(st);
+            benchmarkCoveringIndex(st);
+            benchmarkRangeAggregate(st);
+            benchmarkConcurrentSearch(st);
+        }
+    }
+
+    /**
+     * Compare the size of the index and the node accesses of the experiment queries, with and without
+     * compressed leaf nodes
+     * @param st storage with records
+     */
+    private static void benchmarkCompressedLeaves(Storage st) {
+        System.out.println("\nCOMPRESSED LEAF NODES");
+        for (boolean compressed : new boolean[]{false, true}) {
+            st.setCompressedLeaves(compressed);
+            st.buildIndex();
+            BPlusTree bpt = st.getBPT();
+
+            bpt.search(500);
+            int pointAccesses = st.getNumNodeAccess();
+            bpt.search(30000, 40000);
+            int rangeAccesses = st.getNumNodeAccess();
+            System.out.printf("%s: height %d, %d nodes, %d node accesses for numVotes = 500, "
+                            + "%d node accesses for 30000 <= numVotes <= 40000\n",
+                    compressed ? "Compressed" : "Uncompressed", bpt.getHeight(), bpt.getTotalNodes(),
+                    pointAccesses, rangeAccesses);
+        }
+
+        st.setCompressedLeaves(false);
+        st.buildIndex();
+    }
+
+    /**
+     * Compare the accesses and running time of the average rating of the experiment queries, with and without
+     * averageRating included in the leaf nodes
+     * @param st storage with records
+     */
+    private static void benchmarkCoveringIndex(Storage st) {
+        System.out.println("\nCOVERING INDEX");
+        for (boolean covering : new boolean[]{false, true}) {
+            st.setCoveringIndex(covering);
+            st.buildIndex();
+
+            double[] sink = new double[1];
+            double ms = time(() -> sink[0] += st.aggregateBPT(500, 500).getAverage()
+                    + st.aggregateBPT(30000, 40000).getAverage());
+            st.aggregateBPT(500, 500);
+            int pointNodes = st.getNumNodeAccess(), pointBlocks = st.getNumBlockAccess();
+            Aggregate range = st.aggregateBPT(30000, 40000);
+            System.out.printf("%s: %d nodes, numVotes = 500 accesses %d nodes and %d blocks, "
+                            + "30000 <= numVotes <= 40000 accesses %d nodes and %d blocks, %.3f ms for both (%s)\n",
+                    covering ? "Covering" : "Not covering", st.getBPT().getTotalNodes(), pointNodes, pointBlocks,
+                    st.getNumNodeAccess(), st.getNumBlockAccess(), ms, range);
+        }
+
+        st.setCoveringIndex(false);
+        st.buildIndex();
+    }
+
+    /**
+     * Compare the node accesses and running time of aggregates of averageRating computed by scanning the leaf
+     * nodes of a covering index, and from the subtree totals of its internal nodes
+     * @param st storage with records
+     */
+    private static void benchmarkRangeAggregate(Storage st) {
+        System.out.println("\nRANGE AGGREGATE");
+        st.setCoveringIndex(true);
+        st.buildIndex();
+        BPlusTree bpt = st.getBPT();
+
+        double[] sink = new double[1];
+        for (int[] range : new int[][]{{30000, 40000}, {1, 100000}, {0, Integer.MAX_VALUE}}) {
+            double scanMs = time(() -> sink[0] += bpt.aggregate(range[0], range[1]).getSum());
+            Aggregate scan = bpt.aggregate(range[0], range[1]);
+            int scanNodes = st.getNumNodeAccess();
+            double totalsMs = time(() -> sink[0] += bpt.rangeAggregate(range[0], range[1]).getSum());
+            Aggregate totals = bpt.rangeAggregate(range[0], range[1]);
+            System.out.printf("%d <= numVotes <= %d: leaf scan %d nodes in %.3f ms, subtree totals %d nodes "
+                            + "in %.3f ms (count %d, average %.4f)\n", range[0], range[1], scanNodes, scanMs,
+                    st.getNumNodeAccess(), totalsMs, totals.getCount(), totals.getAverage());
+            if (scan.getCount() != totals.getCount()) throw new IllegalStateException("Aggregates differ");
+        }
+
+        st.setCoveringIndex(false);
+        st.buildIndex();
+    }
+
+    /**
+     * Measure the latency of point searches and range searches in the index, without reading the records
+     * @param st storage with an index
+     */
+    private static void benchmarkLookup(Storage st) {
+        System.out.printf("\nLOOKUP LATENCY (block size %d bytes, n = %d)\n", st.getBlockSize(), st.getBPT().getN());
+
+        // Search keys are drawn from the stored records, so that most searches find entries
+        Random random = new Random(4031);
+        int[] keys = new int[NUM_LOOKUPS];
+        for (int i = 0; i < keys.length; ++i) {
+            keys[i] = 1 + random.nextInt(2000);
+        }
+
+        BPlusTree bpt = st.getBPT();
+        long[] sink = new long[1];
+        double pointMs = time(() -> {
+            for (int key : keys) {
+                sink[0] += bpt.search(key).size();
+            }
+        });
+        double rangeMs = time(() -> {
+            for (int key : keys) {
+                sink[0] += bpt.search(key, key + RANGE_WIDTH).size();
+            }
+        });
+        System.out.printf("Point search: %.0f ns\n", pointMs * 1e6 / NUM_LOOKUPS);
+        System.out.printf("Range search over %d values: %.2f us\n", RANGE_WIDTH, rangeMs * 1e3 / NUM_LOOKUPS);
+    }
+
+    /**
+     * Compare lookups of a record by tconst using the hash index, the B+ tree given the numVotes of the record,
+     * and a full scan
+     * @param st storage with records and an index on numVotes
+     */
+    private static void benchmarkTconstLookup(Storage st) {
+        System.out.printf("\nTCONST LOOKUP (block size %d bytes)\n", st.getBlockSize());
+        st.buildHashIndex();
+        HashIndex hashIndex = st.getHashIndex();
+        System.out.printf("Hash index: %d buckets, global depth %d, %.1f MB\n", hashIndex.getNumBuckets(),
+                hashIndex.getGlobalDepth(), hashIndex.getSizeInBytes() / 1e6);
+
+        // Look up stored records picked at random
+        Random random = new Random(4031);
+        String[] tconsts = new String[NUM_LOOKUPS];
+        int[] numVotes = new int[NUM_LOOKUPS];
+        int numRecords = st.getCodec().getRecordsPerBlock();
+        for (int i = 0; i < NUM_LOOKUPS; ) {
+            long address = RecordAddress.pack(random.nextInt(st.getNumBlocksUsed()), random.nextInt(numRecords));
+            Record record = st.readRecord(address);
+            if (record.isEmpty()) continue;
+            tconsts[i] = new String(record.getTconst());
+            numVotes[i++] = record.getNumVotes();
+        }
+
+        long[] sink = new long[1];
+        double hashMs = time(() -> {
+            for (String tconst : tconsts) {
+                sink[0] += st.searchHash(tconst).getNumVotes();
+            }
+        });
+        double treeMs = time(() -> {
+            for (int i = 0; i < NUM_TREE_LOOKUPS; ++i) {
+                for (Record record : st.searchBPT(numVotes[i])) {
+                    if (new String(record.getTconst()).equals(tconsts[i])) sink[0] += record.getNumVotes();
+                }
+            }
+        });
+        double scanMs = time(() -> {
+            for (int i = 0; i < NUM_SCAN_LOOKUPS; ++i) {
+                String tconst = tconsts[i];
+                sink[0] += st.scan(record -> new String(record.getTconst()).equals(tconst)).size();
+            }
+        });
+
+        // Count the average accesses of each kind of lookup
+        long hashNodes = 0, hashBlocks = 0, treeNodes = 0, treeBlocks = 0;
+        for (int i = 0; i < NUM_TREE_LOOKUPS; ++i) {
+            st.searchHash(tconsts[i]);
+            hashNodes += st.getNumNodeAccess();
+            hashBlocks += st.getNumBlockAccess();
+            st.searchBPT(numVotes[i]);
+            treeNodes += st.getNumNodeAccess();
+            treeBlocks += st.getNumBlockAccess();
+        }
+        st.dropHashIndex();
+
+        System.out.printf("Hash index: %.0f ns, %.1f index blocks and %.1f data blocks accessed\n",
+                hashMs * 1e6 / NUM_LOOKUPS, (double) hashNodes / NUM_TREE_LOOKUPS,
+                (double) hashBlocks / NUM_TREE_LOOKUPS);
+        System.out.printf("B+ tree given numVotes: %.1f us, %.1f nodes and %.1f data blocks accessed\n",
+                treeMs * 1e3 / NUM_TREE_LOOKUPS, (double) treeNodes / NUM_TREE_LOOKUPS,
+                (double) treeBlocks / NUM_TREE_LOOKUPS);
+        System.out.printf("Full scan: %.2f ms, %d data blocks accessed\n",
+                scanMs / NUM_SCAN_LOOKUPS, st.getNumBlocksUsed());
+    }
+
+    /**
+     * Compare loading the records of a TSV file one at a time against the parallel loader
+     * @param path path of TSV file
+     * @param blockSize size of one block
+     */
+    private static void benchmarkLoad(String path, int blockSize) {
+        System.out.println("\nLOAD TSV");
+
+        double sequentialMs = time(() -> new Storage(blockSize, 19, 100 << 20).initWithTSV(path));
+
+        int[] numRecords = new int[1];
+        double[] parallelMs = new double[Runtime.getRuntime().availableProcessors()];
+        for (int numThreads = 1; numThreads <= parallelMs.length; ++numThreads) {
+            int threads = numThreads;
+            parallelMs[numThreads - 1] = time(() -> {
+                try {
+                    numRecords[0] = new Storage(blockSize, 19, 100 << 20).loadTSV(path, threads);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
+        System.out.printf("initWithTSV: %.2f ms, %.0f rows/s\n", sequentialMs, numRecords[0] / sequentialMs * 1e3);
+        for (int numThreads = 1; numThreads <= parallelMs.length; ++numThreads) {
+            double ms = parallelMs[numThreads - 1];
+            System.out.printf("loadTSV, %d threads: %.2f ms, %.0f rows/s (%.2fx)\n", numThreads, ms,
+                    numRecords[0] / ms * 1e3, sequentialMs / ms);
+        }
+    }
+
+    /**
+     * Compare the throughput of creating records in a file-backed storage without a write-ahead log and with
+     * logs of different group sizes, then measure the replay speed of recovering from the log
+     * @param blockSize size of one block
+     */
+    private static void benchmarkWriteAheadLog(int blockSize) {
+        System.out.println("\nWRITE-AHEAD LOG");
+        try {
+            Path dir = Files.createTempDirectory("wal");
+            for (int groupSize : new int[]{1, 16, 256, 0}) {
+                Path file = dir.resolve("storage" + groupSize + ".db");
+                try (Storage st = Storage.open(file.toString(), blockSize, 19, 16 << 20)) {
+                    if (groupSize > 0) st.enableWriteAheadLog(groupSize);
+
+                    int[] next = new int[1];
+                    double ms = time(() -> {
+                        for (int i = 0; i < NUM_LOGGED_RECORDS; ++i, ++next[0]) {
+                            st.createRecord(String.format("tt%07d", next[0]), 5.0f, next[0]);
+                        }
+                        try {
+                            st.syncLog();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+
+                    if (groupSize == 0) {
+                        System.out.printf("No log: %.0f records/s\n", NUM_LOGGED_RECORDS / ms * 1e3);
+                        continue;
+                    }
+                    WriteAheadLog wal = st.getWriteAheadLog();
+                    System.out.printf("Group size %d: %.0f records/s, %.1f forces per 1000 records\n", groupSize,
+                            NUM_LOGGED_RECORDS / ms * 1e3, wal.getNumForces() * 1000.0 / next[0]);
+
+                    if (groupSize == 256) {
+                        // Recover a copy of the storage file from a copy of the log, as if it had crashed
+                        Path crashed = dir.resolve("crashed.db");
+                        Files.copy(file, crashed);
+                        long logBytes = Files.size(Files.copy(Paths.get(file + ".wal"), Paths.get(crashed + ".wal")));
+                        long start = System.nanoTime();
+                        Storage.open(crashed.toString(), blockSize, 19, 16 << 20).close();
+                        double recoveryMs = (System.nanoTime() - start) / 1e6;
+                        System.out.printf("Recovery: %d log records (%.1f MB) replayed in %.2f ms, %.0f MB/s\n",
+                                wal.getNumAppended(), logBytes / 1e6, recoveryMs, logBytes / 1e3 / recoveryMs);
+                    }
+                }
+            }
+
+            for (File file : dir.toFile().listFiles()) {
+                Files.delete(file.toPath());
+            }
+            Files.delete(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Compare the block accesses and running time of the experiment queries on records in arrival order through
+     * the index, and on records clustered by numVotes through the sparse index, then insert records into the
+     * clustered storage
+     * @param path path of TSV file
+     * @param blockSize size of one block
+     */
+    private static void benchmarkClusteredStorage(String path, int blockSize) {
+        System.out.println("\nCLUSTERED STORAGE");
+        Storage st = new Storage(blockSize, 19, 100 << 20);
+        st.initWithTSV(path);
+        st.buildIndex();
+
+        long[] sink = new long[1];
+        double arrivalMs = time(() -> sink[0] += st.searchBPT(500).size() + st.searchBPT(30000, 40000).size());
+        st.searchBPT(500);
+        int pointBlocks = st.getNumBlockAccess();
+        st.searchBPT(30000, 40000);
+        System.out.printf("Arrival order: %d blocks, numVotes = 500 reads %d blocks, 30000 <= numVotes <= 40000 "
+                + "reads %d blocks, %.3f ms for both\n", st.getNumBlocksUsed(), pointBlocks, st.getNumBlockAccess(),
+                arrivalMs);
+
+        st.cluster();
+        double clusteredMs = time(() -> sink[0] += st.searchClustered(500, 500).size()
+                + st.searchClustered(30000, 40000).size());
+        st.searchClustered(500, 500);
+        pointBlocks = st.getNumBlockAccess();
+        st.searchClustered(30000, 40000);
+        System.out.printf("Clustered: %d blocks, sparse index of %d nodes, numVotes = 500 reads %d blocks, "
+                        + "30000 <= numVotes <= 40000 reads %d blocks, %.3f ms for both\n", st.getNumBlocksUsed(),
+                st.getClusterIndex().getTotalNodes(), pointBlocks, st.getNumBlockAccess(), clusteredMs);
+
+        // New records fall into random blocks, splitting them once they are full
+        Random random = new Random(4031);
+        long start = System.nanoTime();
+        for (int i = 0; i < NUM_CLUSTERED_INSERTS; ++i) {
+            st.createRecord(String.format("tx%07d", i), 5.0f, 1 + random.nextInt(2000));
+        }
+        double insertMs = (System.nanoTime() - start) / 1e6;
+        st.searchClustered(30000, 40000);
+        System.out.printf("After %d inserts: %.0f records/s, %d blocks, 30000 <= numVotes <= 40000 reads %d blocks\n",
+                NUM_CLUSTERED_INSERTS, NUM_CLUSTERED_INSERTS / insertMs * 1e3, st.getNumBlocksUsed(),
+                st.getNumBlockAccess());
+    }
+
+    /**
+     * Compare the number of blocks, the loading time and the running time of a full scan and a range search, with
+     * the records serialized by the standard and the compact codec
+     * @param path path of data file
+     * @param blockSize size of one block
+     */
+    private static void benchmarkRecordCodec(String path, int blockSize) {
+        System.out.println("\nRECORD CODEC");
+        long[] sink = new long[1];
+        for (RecordCodec codec : new RecordCodec[]{RecordCodec.standard(blockSize, 19),
+                RecordCodec.compact(blockSize)}) {
+            double loadMs = time(() -> {
+                try {
+                    new Storage(codec, 100 << 20).loadTSV(path, 1);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            Storage st = new Storage(codec, 100 << 20);
+            try {
+                st.loadTSV(path, 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            st.buildIndex();
+
+            double scanMs = time(() -> sink[0] += st.scan(ScanPredicate.ALL).size());
+            double rangeMs = time(() -> sink[0] += st.searchBPT(1000, 50000).size());
+            int rangeBlocks = st.getNumBlockAccess();
+            System.out.printf("%d records per block, %d blocks (%.2f MB): load %.2f ms, full scan %.2f ms, "
+                            + "1000 <= numVotes <= 50000 %.2f ms reading %d blocks\n", codec.getRecordsPerBlock(),
+                    st.getNumBlocksUsed(), (double) st.getNumBlocksUsed() * blockSize / 1e6, loadMs, scanMs,
+                    rangeMs, rangeBlocks);
+        }
+    }
+
+    /**
+     * Compare the running time of ranges of numVotes answered by the query planner and always by the index, at
+     * varying selectivities, and show the estimated and actual accesses of the chosen plans
+     * @param path path of data file
+     * @param blockSize size of one block
+     */
+    private static void benchmarkPlanner(String path, int blockSize) {
+        System.out.println("\nQUERY PLANNER");
+        Storage st = new Storage(blockSize, 19, 100 << 20);
+        st.initWithTSV(path);
+        st.buildIndex();
+        st.buildIndex("rating", IndexAttribute.AVERAGE_RATING);
+        QueryPlanner planner = new QueryPlanner(st);
+
+        int[] numVotes = st.scan(ScanPredicate.ALL).stream().mapToInt(Record::getNumVotes).sorted().toArray();
+        long[] sink = new long[1];
+        for (double selectivity : SCAN_SELECTIVITIES) {
+            int lower = numVotes[numVotes.length - (int) Math.ceil(selectivity * numVotes.length)];
+            int upper = numVotes[numVotes.length - 1];
+            double plannedMs = time(() -> sink[0] += planner.search(lower, upper, 0.0f, 10.0f).size());
+            double indexMs = time(() -> sink[0] += st.searchBPT(lower, upper).size());
+            System.out.printf("%d <= numVotes <= %d: planner %.3f ms, index %.3f ms, %s\n", lower, upper,
+                    plannedMs, indexMs, planner.explain(lower, upper, 0.0f, 10.0f));
+        }
+        for (float[] ratings : new float[][]{{10.0f, 10.0f}, {9.0f, 10.0f}}) {
+            System.out.printf("%.1f <= averageRating <= %.1f: %s\n", ratings[0], ratings[1],
+                    planner.explain(0, Integer.MAX_VALUE, ratings[0], ratings[1]));
+        }
+        System.out.printf("1000 <= numVotes <= 2000 and 9.0 <= averageRating <= 10.0: %s\n",
+                planner.explain(1000, 2000, 9.0f, 10.0f));
+    }
+
+    /**
+     * Compare the running time of a range of numVotes answered by the index, by a scan decoding every record, and
+     * by the parallel scan with zone maps using 1 thread and every processor, at varying selectivities, with the
+     * records in arrival order and clustered
+     * @param path path of data file
+     * @param blockSize size of one block
+     */
+    private static void benchmarkScan(String path, int blockSize) {
+        System.out.println("\nPARALLEL SCAN");
+        Storage st = new Storage(blockSize, 19, 100 << 20);
+        st.initWithTSV(path);
+        st.buildIndex();
+
+        int[] numVotes = st.scan(ScanPredicate.ALL).stream().mapToInt(Record::getNumVotes).sorted().toArray();
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool sequential = new ForkJoinPool(1), parallel = new ForkJoinPool(numThreads);
+        long[] sink = new long[1];
+        for (boolean clustered : new boolean[]{false, true}) {
+            if (clustered) st.cluster();
+            System.out.printf("%s, %d blocks:\n", clustered ? "Clustered" : "Arrival order", st.getNumBlocksUsed());
+
+            for (double selectivity : SCAN_SELECTIVITIES) {
+                int lower = numVotes[numVotes.length - (int) Math.ceil(selectivity * numVotes.length)];
+                int upper = numVotes[numVotes.length - 1];
+                ScanPredicate predicate = ScanPredicate.numVotes(lower, upper);
+
+                double indexMs = time(() -> sink[0] += st.searchBPT(lower, upper, true).size());
+                double rowMs = time(() -> sink[0] += st.scan(
+                        record -> lower <= record.getNumVotes() && record.getNumVotes() <= upper).size());
+                double sequentialMs = time(() -> sink[0] += st.scan(predicate, sequential).size());
+                double parallelMs = time(() -> sink[0] += st.scan(predicate, parallel).size());
+                int numMatched = st.scan(predicate, parallel).size();
+                System.out.printf("  %s (%d records): index %.3f ms, row scan %.3f ms, zone map scan reads %d "
+                                + "blocks, %.3f ms with 1 thread, %.3f ms with %d threads\n", predicate.toString()
+                                .replaceAll(" and .*", ""), numMatched, indexMs, rowMs, st.getNumBlockAccess(),
+                        sequentialMs, parallelMs, numThreads);
+            }
+        }
+        sequential.shutdown();
+        parallel.shutdown();
+    }
+
+    /**
+     * Compare the blocks and running time of a full scan and a range search, before and after compacting a storage
+     * from which the records with an even numVotes were deleted
+     * @param path path of data file
+     * @param blockSize size of one block
+     */
+    private static void benchmarkCompaction(String path, int blockSize) {
+        System.out.println("\nCOMPACTION");
+        Storage st = new Storage(blockSize, 19, 100 << 20);
+        st.initWithTSV(path);
+        st.buildIndex();
+        st.buildHashIndex();
+        TreeSet<Integer> deleted = new TreeSet<>();
+        for (Record record : st.scan(record -> record.getNumVotes() % 2 == 0)) {
+            deleted.add(record.getNumVotes());
+        }
+        deleted.forEach(st::deleteBPT);
+
+        long[] sink = new long[1];
+        for (boolean compacted : new boolean[]{false, true}) {
+            if (compacted) {
+                try {
+                    System.out.println(st.compact(COMPACTION_MOVES_PER_STEP, COMPACTION_PAUSE_MS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+
+            double scanMs = time(() -> sink[0] += st.scan(record -> true).size());
+            double rangeMs = time(() -> sink[0] += st.searchBPT(30000, 40000).size());
+            st.searchBPT(30000, 40000);
+            System.out.printf("%s: %d records in %d blocks, full scan %.3f ms, 30000 <= numVotes <= 40000 reads "
+                            + "%d blocks in %.3f ms\n", compacted ? "Compacted" : "After deletes", st.getNumRecords(),
+                    st.getNumBlocksUsed(), scanMs, st.getNumBlockAccess(), rangeMs);
+        }
+    }
+
+    /**
+     * Compare building the index by inserting records one at a time against bulk loading sorted records
+     * @param st storage initialized with data
+     */
+    private static void benchmarkBuildIndex(Storage st) {
+        System.out.println("\nBUILD INDEX");
+
+        double insertionMs = time(st::buildIndexByInsertion);
+        System.out.printf("Sequential insertion: %.2f ms, %d nodes, height %d\n",
+                insertionMs, st.getBPT().getTotalNodes(), st.getBPT().getHeight());
+
+        double bulkLoadMs = time(st::buildIndex);
+        System.out.printf("Bulk loading: %.2f ms, %d nodes, height %d\n",
+                bulkLoadMs, st.getBPT().getTotalNodes(), st.getBPT().getHeight());
+
+        System.out.printf("Speedup: %.2fx\n", insertionMs / bulkLoadMs);
+    }
+
+    /**
+     * Measure the heap memory retained by the index
+     * @param st storage initialized with data
+     */
+    private static void benchmarkIndexFootprint(Storage st) {
+        System.out.println("\nINDEX FOOTPRINT");
+
+        st.buildIndex();
+        int numEntries = st.getBPT().search(Integer.MIN_VALUE, Integer.MAX_VALUE).size();
+        int numNodes = st.getBPT().getTotalNodes();
+        long withIndex = usedHeap();
+        st.dropIndex();
+        long withoutIndex = usedHeap();
+
+        long bytes = withIndex - withoutIndex;
+        System.out.printf("%d entries, %d nodes: %.1f MB, %.1f bytes/entry\n", numEntries, numNodes,
+                bytes / 1e6, bytes / (double) numEntries);
+        st.buildIndex();
+    }
+
+    /**
+     * Get the heap memory in use after garbage collection
+     * @return used heap memory in bytes
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Measure the throughput of point searches from an increasing number of reader threads, while a writer thread
+     * keeps inserting entries into the same tree
+     * @param st storage initialized with data
+     */
+    private static void benchmarkConcurrentSearch(Storage st) {
+        System.out.println("\nCONCURRENT SEARCH");
+
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        double baseline = 0;
+        for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+            // Rebuild the index so that every run starts from the same tree
+            st.buildIndex();
+            ConcurrentBPlusTree tree = new ConcurrentBPlusTree(st.getBPT(), st);
+
+            AtomicBoolean running = new AtomicBoolean(true);
+            LongAdder numSearches = new LongAdder();
+            LongAdder numInserts = new LongAdder();
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < numThreads; ++i) {
+                threads.add(new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (running.get()) {
+                        tree.search(1 + random.nextInt(2000));
+                        numSearches.increment();
+                    }
+                }));
+            }
+            threads.add(new Thread(() -> {
+                // Entries only need a key, the address is never read by the searches
+                Record record = new Record();
+                long address = RecordAddress.pack(0, 0);
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; running.get(); ++i) {
+                    record.setTconst(String.format("tx%08d", i).toCharArray());
+                    record.setNumVotes(1 + random.nextInt(2000));
+                    tree.insert(record, address);
+                    numInserts.increment();
+                }
+            }));
+
+            threads.forEach(Thread::start);
+            try {
+                Thread.sleep(CONCURRENT_DURATION_MS);
+                running.set(false);
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            double searchesPerSec = numSearches.sum() * 1000.0 / CONCURRENT_DURATION_MS;
+            if (numThreads == 1) baseline = searchesPerSec;
+            System.out.printf("%d reader threads: %.0f searches/s (%.2fx), %.0f inserts/s\n", numThreads,
+                    searchesPerSec, searchesPerSec / baseline, numInserts.sum() * 1000.0 / CONCURRENT_DURATION_MS);
+        }
+
+        // Remove the inserted entries
+        st.buildIndex();
+    }
+
+    /**
+     * Compare searching the keys of one node stored as an array of Key objects, compared one by one,
+     * against searching the keys stored as a KeyArray
+     * @param n number of keys in the node
+     */
+    private static void benchmarkNodeSearch(int n) {
+        Random random = new Random(4031);
+        Key[] keys = new Key[n];
+        for (int i = 0; i < n; ++i) {
+            keys[i] = new Key(10 * i, String.format("tt%07d", random.nextInt(10_000_000)).toCharArray());
+        }
+        KeyArray keyArray = new KeyArray(keys, n);
+        Key[] probes = new Key[1024];
+        for (int i = 0; i < probes.length; ++i) {
+            probes[i] = new Key(random.nextInt(10 * n + 10), "tt0000000".toCharArray());
+        }
+
+        int[] sink = new int[1];
+        double objectMs = time(() -> {
+            for (int i = 0; i < NUM_NODE_SEARCHES; ++i) {
+                Key probe = probes[i & 1023];
+                int j = 0;
+                while (j < n && probe.compareTo(keys[j]) >= 0) ++j;
+                sink[0] += j;
+            }
+        });
+        double arrayMs = time(() -> {
+            for (int i = 0; i < NUM_NODE_SEARCHES; ++i) {
+                sink[0] += keyArray.upperBound(probes[i & 1023], n);
+            }
+        });
+        System.out.printf("Node search (n = %d): Key objects %.1f ns, KeyArray %.1f ns\n", n,
+                objectMs * 1e6 / NUM_NODE_SEARCHES, arrayMs * 1e6 / NUM_NODE_SEARCHES);
+    }
+
+    /**
+     * Compare the throughput and allocation rate of comparing keys through their string representation
+     * against comparing the packed representation of the key
+     */
+    private static void benchmarkKeyCompare() {
+        System.out.println("\nKEY COMPARISON");
+
+        // Keys with few distinct numVotes values so that most comparisons are ties on numVotes
+        Random random = new Random(4031);
+        Key[] keys = new Key[1024];
+        char[][] tconsts = new char[keys.length][];
+        for (int i = 0; i < keys.length; ++i) {
+            tconsts[i] = String.format("tt%07d", random.nextInt(10_000_000)).toCharArray();
+            keys[i] = new Key(5 + random.nextInt(16), tconsts[i]);
+        }
+
+        int[] sink = new int[1];
+        Runnable stringCompare = () -> {
+            for (int i = 0; i < NUM_COMPARISONS; ++i) {
+                Key a = keys[i & 1023], b = keys[(i * 31 + 7) & 1023];
+                sink[0] += a.getK1() == b.getK1()
+                        ? Arrays.toString(tconsts[i & 1023]).compareTo(Arrays.toString(tconsts[(i * 31 + 7) & 1023]))
+                        : Integer.compare(a.getK1(), b.getK1());
+            }
+        };
+        Runnable packedCompare = () -> {
+            for (int i = 0; i < NUM_COMPARISONS; ++i) {
+                sink[0] += keys[i & 1023].compareTo(keys[(i * 31 + 7) & 1023]);
+            }
+        };
+
+        for (String name : new String[]{"String comparison", "Packed comparison"}) {
+            Runnable compare = name.startsWith("String") ? stringCompare : packedCompare;
+            long allocatedBefore = allocatedBytes();
+            double ms = time(compare);
+            long allocated = allocatedBytes() - allocatedBefore;
+            System.out.printf("%s: %.1f million comparisons/s, %.1f bytes allocated/comparison\n", name,
+                    NUM_COMPARISONS / ms / 1e3, allocated / (double) REPETITIONS / NUM_COMPARISONS);
+        }
+    }
+
+    /**
+     * Get the number of bytes allocated by the current thread, if supported by the JVM
+     * @return number of bytes allocated, or 0 if not supported
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    /**
+     * Measure the average running time of an operation, excluding the warm-up run
+     * @param operation operation to be measured
+     * @return average running time in milliseconds
+     */
+    private static double time(Runnable operation) {
+        long total = 0;
+        for (int i = 0; i < REPETITIONS; ++i) {
+            long start = System.nanoTime();
+            operation.run();
+            if (i > 0) total += System.nanoTime() - start;
+        }
+        return total / 1e6 / (REPETITIONS - 1);
+    }
+}
@@ -1,7 +1,6 @@
 package com.cz4031;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.util.StringJoiner;
 
 /**
@@ -15,72 +14,79 @@ public class Block {
     private Record[] records;
 
     /**
-     * Block size in bytes
+     * Codec serializing the records
      */
-    private int blockSize;
+    private RecordCodec codec;
 
     /**
-     * Construct a block with list of records and block size
+     * Construct a block with list of records and the codec serializing them
      * @param records array of records
-     * @param blockSize block size
+     * @param codec record codec
      */
-    public Block(Record[] records, int blockSize) {
+    public Block(Record[] records, RecordCodec codec) {
         this.records = records;
-        this.blockSize = blockSize;
+        this.codec = codec;
     }
 
     /**
      * Construct an empty block
-     * @param blockSize size of one block
-     * @param recordSize size of one record
+     * @param codec record codec
      * @return empty block object
      */
-    public static Block empty(int blockSize, int recordSize) {
-        Record[] records = new Record[blockSize/recordSize];
+    public static Block empty(RecordCodec codec) {
+        Record[] records = new Record[codec.getRecordsPerBlock()];
         for (int i = 0; i < records.length; ++i) {
             records[i] = Record.empty();
         }
-        return new Block(records, blockSize);
+        return new Block(records, codec);
+    }
+
+    /**
+     * Construct an empty block using the standard codec
+     * @param blockSize size of one block
+     * @param recordSize size of one record
+     * @return empty block object
+     */
+    public static Block empty(int blockSize, int recordSize) {
+        return empty(RecordCodec.standard(blockSize, recordSize));
     }
 
     /**
      * Construct a block from byte array
      * @param byteArr byte array containing serialized data of block
-     * @param recordSize size of one record
+     * @param codec record codec
      * @return deserialized block
      */
-    public static Block fromByteArray(byte[] byteArr, int recordSize) {
+    public static Block fromByteArray(byte[] byteArr, RecordCodec codec) {
         ByteBuffer buf = ByteBuffer.wrap(byteArr);
-        Block block = Block.empty(byteArr.length, recordSize);
+        Block block = Block.empty(codec);
 
         for (int i = 0; i < block.records.length; ++i) {
-            boolean empty = buf.get() == 1;
-
-            char[] tconst = new char[10];
-            for (int j = 0; j < tconst.length; ++j) {
-                tconst[j] = (char) buf.get();
-            }
-
-            float avgRating = buf.getFloat();
-            int numVotes = buf.getInt();
-
-            block.updateRecord(i, tconst, avgRating, numVotes, empty);
+            codec.read(buf, 0, i, block.records[i]);
         }
 
         return block;
     }
 
+    /**
+     * Construct a block from byte array serialized using the standard codec
+     * @param byteArr byte array containing serialized data of block
+     * @param recordSize size of one record
+     * @return deserialized block
+     */
+    public static Block fromByteArray(byte[] byteArr, int recordSize) {
+        return fromByteArray(byteArr, RecordCodec.standard(byteArr.length, recordSize));
+    }
+
     /**
      * Convert/serialize block to byte array
      * @return byte array containing serialized data of block
+     * @throws IllegalArgumentException if the codec cannot store the values of a record
      */
     public byte[] toByteArray() {
-        ByteBuffer buf = ByteBuffer.allocate(blockSize);
-        for (Record record : records) {
-            buf.put(record.isEmpty() ? (byte) 1 : (byte) 0);
-            buf.put(new String(record.getTconst()).getBytes(StandardCharsets.US_ASCII));
-            buf.putFloat(record.getAvgRating());
-            buf.putInt(record.getNumVotes());
+        ByteBuffer buf = ByteBuffer.allocate(codec.getBlockSize());
+        for (int i = 0; i < records.length; ++i) {
+            codec.write(buf, 0, i, records[i]);
         }
         return buf.array();
     }
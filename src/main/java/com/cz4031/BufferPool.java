@@ -0,0 +1,263 @@
+package com.cz4031;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class representing a buffer pool holding a fixed number of blocks in memory frames.
+ * A block must be pinned while it is being accessed, and pinned frames are never evicted.
+ * Modified frames are written back to "disk storage" when they are evicted or flushed.
+ */
+public class BufferPool {
+
+    /**
+     * Replacement policy used to choose a frame to evict
+     */
+    public enum Policy {
+        /**
+         * Evict the least recently used frame
+         */
+        LRU,
+
+        /**
+         * Evict the first frame without reference bit found by a clock hand, clearing the bits it passes
+         */
+        CLOCK
+    }
+
+    /**
+     * Block ID of a frame that does not hold any block
+     */
+    private static final int NO_BLOCK = -1;
+
+    private final ByteBuffer disk;
+    private final int blockSize;
+    private final Policy policy;
+
+    /**
+     * Data of block held by each frame
+     */
+    private final ByteBuffer[] frames;
+
+    /**
+     * ID of block held by each frame
+     */
+    private final int[] frameBlockID;
+
+    /**
+     * Number of users currently pinning each frame
+     */
+    private final int[] pinCount;
+
+    /**
+     * Indicates if the block in each frame has been modified since it was read
+     */
+    private final boolean[] dirty;
+
+    /**
+     * Time of last access of each frame, for LRU
+     */
+    private final long[] lastAccess;
+
+    /**
+     * Reference bit of each frame, for CLOCK
+     */
+    private final boolean[] referenced;
+
+    /**
+     * Index of frame holding each block in the pool
+     */
+    private final Map<Integer, Integer> pageTable;
+
+    private long clock;
+    private int clockHand;
+
+    private long numHits;
+    private long numMisses;
+
+    /**
+     * Logger to report hits and misses to
+     */
+    private AccessLogger accLog;
+
+    /**
+     * Construct a buffer pool
+     * @param disk buffer containing all blocks in "disk storage"
+     * @param blockSize size of one block
+     * @param numFrames number of blocks that can be held in memory
+     * @param policy replacement policy
+     * @param accLog logger to report hits and misses to
+     */
+    public BufferPool(ByteBuffer disk, int blockSize, int numFrames, Policy policy, AccessLogger accLog) {
+        if (numFrames <= 0) throw new IllegalArgumentException("Buffer pool must have at least 1 frame");
+
+        this.disk = disk;
+        this.blockSize = blockSize;
+        this.policy = policy;
+        this.accLog = accLog;
+
+        frames = new ByteBuffer[numFrames];
+        for (int i = 0; i < numFrames; ++i) {
+            frames[i] = ByteBuffer.allocate(blockSize);
+        }
+        frameBlockID = new int[numFrames];
+        Arrays.fill(frameBlockID, NO_BLOCK);
+        pinCount = new int[numFrames];
+        dirty = new boolean[numFrames];
+        lastAccess = new long[numFrames];
+        referenced = new boolean[numFrames];
+        pageTable = new HashMap<>();
+    }
+
+    /**
+     * Pin a block in the pool, reading it from "disk storage" if it is not held by any frame
+     * @param blockID ID of block to pin
+     * @return data of the block, valid until the block is unpinned
+     */
+    public ByteBuffer pin(int blockID) {
+        Integer frame = pageTable.get(blockID);
+        if (frame != null) {
+            ++numHits;
+            accLog.addBufferHit();
+        } else {
+            ++numMisses;
+            accLog.addBufferMiss();
+
+            frame = evict();
+            ByteBuffer src = disk.duplicate();
+            ((Buffer) src).position(blockID * blockSize).limit(blockID * blockSize + blockSize);
+            ((Buffer) frames[frame]).clear();
+            frames[frame].put(src);
+
+            frameBlockID[frame] = blockID;
+            pageTable.put(blockID, frame);
+        }
+
+        ++pinCount[frame];
+        lastAccess[frame] = ++clock;
+        referenced[frame] = true;
+        return frames[frame];
+    }
+
+    /**
+     * Copy the current data of a block without pinning it, so that the hits, misses and replacement state of the
+     * pool are left unchanged. The block is copied from its frame if the pool holds it, since the frame may have
+     * been modified, and from "disk storage" otherwise
+     * @param blockID ID of block to copy
+     * @param data array of one block to be overwritten with the data of the block
+     */
+    public void peek(int blockID, byte[] data) {
+        Integer frame = pageTable.get(blockID);
+        ByteBuffer src = frame != null ? frames[frame].duplicate() : disk.duplicate();
+        ((Buffer) src).clear();
+        if (frame == null) ((Buffer) src).position(blockID * blockSize);
+        src.get(data, 0, blockSize);
+    }
+
+    /**
+     * Unpin a block pinned by pin
+     * @param blockID ID of block to unpin
+     * @param modified indicates if the block has been modified while it was pinned
+     */
+    public void unpin(int blockID, boolean modified) {
+        Integer frame = pageTable.get(blockID);
+        if (frame == null || pinCount[frame] == 0) {
+            throw new IllegalStateException("Block " + blockID + " is not pinned");
+        }
+        --pinCount[frame];
+        dirty[frame] |= modified;
+    }
+
+    /**
+     * Write all modified blocks back to "disk storage"
+     */
+    public void flush() {
+        for (int frame = 0; frame < frames.length; ++frame) {
+            writeBack(frame);
+        }
+    }
+
+    /**
+     * Drop the frames holding released blocks without writing them back, so that the blocks can be filled again
+     * directly in "disk storage" without being hidden or overwritten by their old data
+     * @param fromBlockID ID of the first released block, every block from it onwards is dropped
+     */
+    public void discard(int fromBlockID) {
+        for (int frame = 0; frame < frames.length; ++frame) {
+            if (frameBlockID[frame] < fromBlockID) continue;
+            if (pinCount[frame] > 0) {
+                throw new IllegalStateException("Block " + frameBlockID[frame] + " is pinned");
+            }
+            pageTable.remove(frameBlockID[frame]);
+            frameBlockID[frame] = NO_BLOCK;
+            dirty[frame] = false;
+        }
+    }
+
+    /**
+     * Choose an unpinned frame according to the replacement policy and free it
+     * @return index of the free frame
+     */
+    private int evict() {
+        int victim = NO_BLOCK;
+        if (policy == Policy.LRU) {
+            for (int frame = 0; frame < frames.length; ++frame) {
+                if (pinCount[frame] == 0 && (victim == NO_BLOCK || lastAccess[frame] < lastAccess[victim])) {
+                    victim = frame;
+                }
+            }
+        } else {
+            // Two sweeps are enough to clear the reference bit of every unpinned frame
+            for (int i = 0; i < 2 * frames.length && victim == NO_BLOCK; ++i) {
+                int frame = clockHand;
+                clockHand = (clockHand + 1) % frames.length;
+                if (pinCount[frame] > 0) continue;
+                if (referenced[frame]) {
+                    referenced[frame] = false;
+                } else {
+                    victim = frame;
+                }
+            }
+        }
+        if (victim == NO_BLOCK) {
+            throw new IllegalStateException("All frames in buffer pool are pinned");
+        }
+
+        writeBack(victim);
+        if (frameBlockID[victim] != NO_BLOCK) {
+            pageTable.remove(frameBlockID[victim]);
+            frameBlockID[victim] = NO_BLOCK;
+        }
+        return victim;
+    }
+
+    /**
+     * Write a frame back to "disk storage" if it has been modified
+     * @param frame index of frame
+     */
+    private void writeBack(int frame) {
+        if (!dirty[frame]) return;
+
+        ByteBuffer dst = disk.duplicate();
+        ((Buffer) dst).position(frameBlockID[frame] * blockSize);
+        ByteBuffer src = frames[frame].duplicate();
+        ((Buffer) src).clear();
+        dst.put(src);
+        dirty[frame] = false;
+    }
+
+    public int getNumFrames() {
+        return frames.length;
+    }
+
+    public long getNumHits() {
+        return numHits;
+    }
+
+    public long getNumMisses() {
+        return numMisses;
+    }
+}
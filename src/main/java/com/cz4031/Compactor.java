@@ -0,0 +1,198 @@
+package com.cz4031;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class representing an online compaction of a storage, which moves the records of the last blocks into the free
+ * slots left by deletions in the first blocks, then releases the emptied blocks at the end of the storage.
+ * <p>
+ * Compaction proceeds in steps moving a bounded number of records, so that it can be throttled and queries can run
+ * between the steps. The addresses of the records moved by a step are rewritten in every built index in one batch
+ * at the end of the step. A clustered storage is compacted by clustering it again in a single step, since moving
+ * records into arbitrary free slots would break the order of its blocks.
+ */
+public class Compactor {
+
+    /**
+     * Storage to compact
+     */
+    private final Storage st;
+
+    /**
+     * Number of blocks used before compaction
+     */
+    private final int numBlocksBefore;
+
+    /**
+     * First block which may have a free slot, blocks before it are full
+     */
+    private int dst;
+
+    /**
+     * Whether every record has been moved as far forward as possible
+     */
+    private boolean done;
+
+    /**
+     * Number of records moved, and number of steps taken
+     */
+    private long numMoved;
+    private int numSteps;
+
+    /**
+     * Time spent in steps, and times of the start of the first step and the end of the last step
+     */
+    private long busyNanos;
+    private long startNanos;
+    private long endNanos;
+
+    /**
+     * Construct a compaction of a storage, no record is moved until a step is taken
+     * @param st storage to compact
+     */
+    public Compactor(Storage st) {
+        this.st = st;
+        numBlocksBefore = st.getNumBlocksUsed();
+    }
+
+    /**
+     * Compact the storage to completion
+     * @param movesPerStep maximum number of records moved by a step
+     * @param pauseMillis pause between steps in milliseconds, 0 to run the steps back to back
+     * @return this compaction, for its statistics
+     * @throws InterruptedException if the thread is interrupted during a pause
+     */
+    public Compactor run(int movesPerStep, long pauseMillis) throws InterruptedException {
+        while (step(movesPerStep)) {
+            if (pauseMillis > 0) Thread.sleep(pauseMillis);
+        }
+        return this;
+    }
+
+    /**
+     * Move up to a number of records from the last non-empty block to the first block with a free slot, rewrite
+     * their addresses in the indexes, and release the empty blocks at the end
+     * @param maxMoves maximum number of records to move, at least 1
+     * @return true if more records can be moved
+     */
+    public boolean step(int maxMoves) {
+        if (done) return false;
+
+        long start = System.nanoTime();
+        if (numSteps++ == 0) startNanos = start;
+
+        if (st.isClustered()) {
+            long numRecords = st.getNumRecords();
+            st.cluster(st.getClusterFillFactor());
+            numMoved += numRecords;
+            done = true;
+            endNanos = System.nanoTime();
+            busyNanos += endNanos - start;
+            return false;
+        }
+
+        FreeSpaceMap freeSpace = st.getFreeSpace();
+        RecordCodec codec = st.getCodec();
+        int recordsPerBlock = codec.getRecordsPerBlock();
+        List<Record> records = new ArrayList<>();
+        LongList from = new LongList(), to = new LongList();
+
+        int tail = st.getNumBlocksUsed() - 1;
+        while (records.size() < maxMoves) {
+            while (tail >= 0 && freeSpace.getNumUsed(tail) == 0) --tail;
+            while (dst < tail && freeSpace.getNumUsed(dst) == recordsPerBlock) ++dst;
+            if (dst >= tail) break;
+
+            // Move as many records of the last block as fit into the free slots of the first block, reading and
+            // writing each block once
+            Block src = Block.fromByteArray(st.readBlock(tail), codec);
+            Block target = Block.fromByteArray(st.readBlock(dst), codec);
+            for (int recordID = 0; recordID < recordsPerBlock && records.size() < maxMoves
+                    && freeSpace.getNumUsed(dst) < recordsPerBlock; ++recordID) {
+                if (freeSpace.isFree(tail, recordID)) continue;
+
+                int newRecordID = freeSpace.allocate(dst);
+                Record record = src.readRecord(recordID);
+                target.updateRecord(newRecordID, record.getTconst(), record.getAvgRating(), record.getNumVotes(),
+                        false);
+                src.deleteRecord(recordID);
+                freeSpace.free(tail, recordID);
+
+                records.add(record);
+                from.add(RecordAddress.pack(tail, recordID));
+                to.add(RecordAddress.pack(dst, newRecordID));
+            }
+
+            // Write the target first, so that a moved record is always stored in at least one block
+            st.updateBlock(dst, target.toByteArray());
+            st.updateBlock(tail, src.toByteArray());
+        }
+
+        // Rewrite the addresses of the moved records in the indexes as one batch
+        for (int i = 0; i < records.size(); ++i) {
+            st.relocate(records.get(i), from.get(i), to.get(i));
+        }
+        numMoved += records.size();
+
+        while (tail >= 0 && freeSpace.getNumUsed(tail) == 0) --tail;
+        st.truncateBlocks(tail + 1);
+        while (dst < tail && freeSpace.getNumUsed(dst) == recordsPerBlock) ++dst;
+        done = dst >= tail;
+
+        endNanos = System.nanoTime();
+        busyNanos += endNanos - start;
+        return !done;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    public long getNumMoved() {
+        return numMoved;
+    }
+
+    public int getNumSteps() {
+        return numSteps;
+    }
+
+    /**
+     * Get the number of blocks released since the compaction was constructed
+     * @return number of blocks used before compaction minus number of blocks used now
+     */
+    public int getNumBlocksReclaimed() {
+        return numBlocksBefore - st.getNumBlocksUsed();
+    }
+
+    /**
+     * Get the space released since the compaction was constructed
+     * @return size of the released blocks in bytes
+     */
+    public long getBytesReclaimed() {
+        return (long) getNumBlocksReclaimed() * st.getBlockSize();
+    }
+
+    /**
+     * Get the time spent moving records and rewriting addresses, excluding pauses between steps
+     * @return time in milliseconds
+     */
+    public double getBusyMillis() {
+        return busyNanos / 1e6;
+    }
+
+    /**
+     * Get the time from the start of the first step to the end of the last step, including pauses between steps
+     * @return time in milliseconds, 0 if no step has been taken
+     */
+    public double getElapsedMillis() {
+        return (endNanos - startNanos) / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("moved %d records in %d steps, reclaimed %d blocks (%d bytes), %.2f ms busy, "
+                + "%.2f ms elapsed", numMoved, numSteps, getNumBlocksReclaimed(), getBytesReclaimed(),
+                getBusyMillis(), getElapsedMillis());
+    }
+}
@@ -0,0 +1,236 @@
+package com.cz4031;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Class representing a thread-safe view of a B+ tree, allowing many concurrent searches while a writer updates it.
+ * <p>
+ * Searches use latch crabbing: the latch of the next node (a child or the right sibling of a leaf node) is acquired
+ * before the latch of the current node is released, so a node is never read while it is being modified.
+ * Writers are serialized. An insertion only write-latches the nodes it modifies: the leaf node, its right sibling
+ * if the leaf node is split, and the ancestors up to the first one that is not full. A deletion may restructure
+ * many nodes while rebalancing, so it excludes all searches instead.
+ * <p>
+ * Node accesses are logged separately for each thread.
+ */
+public class ConcurrentBPlusTree {
+
+    /**
+     * Underlying B+ tree, must not be modified other than through this view
+     */
+    private final BPlusTree bpt;
+
+    /**
+     * Latch on the whole tree, shared by searches and insertions and held exclusively by deletions
+     */
+    private final ReentrantReadWriteLock treeLatch;
+
+    /**
+     * Lock serializing insertions and deletions
+     */
+    private final ReentrantLock writerLock;
+
+    /**
+     * Access logger of each thread
+     */
+    private final ThreadLocal<AccessLogger> accLog;
+
+    /**
+     * Construct a thread-safe view of a B+ tree
+     * @param bpt B+ tree
+     * @param st storage containing the records indexed by the tree
+     */
+    public ConcurrentBPlusTree(BPlusTree bpt, Storage st) {
+        this.bpt = bpt;
+        this.treeLatch = new ReentrantReadWriteLock();
+        this.writerLock = new ReentrantLock();
+        this.accLog = ThreadLocal.withInitial(() -> new AccessLogger(st));
+    }
+
+    /**
+     * Search for records with the specified value
+     * @param searchKey search key (numVotes)
+     * @return a list of packed record addresses with a key value equal to the search key
+     */
+    public LongList search(int searchKey) {
+        return search(searchKey, searchKey);
+    }
+
+    /**
+     * Search for records with the value within the lower and upper bounds
+     * @param lower lower bound of the search key, inclusive (numVotes)
+     * @param upper upper bound of the search key, inclusive (numVotes)
+     * @return a list of packed record addresses with a key value between the lower and upper bounds
+     */
+    public LongList search(int lower, int upper) {
+        // Reset logs of the current thread for experiment
+        AccessLogger log = accLog.get();
+        log.reset();
+
+        LongList result = new LongList();
+        treeLatch.readLock().lock();
+        try {
+            Node node = latchRoot();
+            if (node == null) return result;
+
+            // Traverse to the leftmost leaf node possibly containing the lower bound
+            while (node instanceof InternalNode) {
+                log.addNode(node);
+                InternalNode curNode = (InternalNode) node;
+                Node child = curNode.getPointers()[bpt.findIndexOfNode(curNode, lower)];
+                child.getLatch().readLock().lock();
+                curNode.getLatch().readLock().unlock();
+                node = child;
+            }
+
+            LeafNode leafNode = (LeafNode) node;
+            while (leafNode != null) {
+                log.addNode(leafNode);
+
+                // Add to result if current key value is within lower and upper bounds
+                // Finish search if it is higher than the upper bound
+                boolean finished = false;
+                KeyArray keys = leafNode.getKeys();
+                for (int i = 0; i < leafNode.getDegree(); ++i) {
+                    int curK1 = keys.getK1(i);
+                    if (upper < curK1) {
+                        finished = true;
+                        break;
+                    }
+                    if (lower <= curK1) result.add(leafNode.getAddresses()[i]);
+                }
+
+                // Iterate to right sibling of leaf node
+                LeafNode next = finished ? null : leafNode.getRightSibling();
+                if (next != null) next.getLatch().readLock().lock();
+                leafNode.getLatch().readLock().unlock();
+                leafNode = next;
+            }
+        } finally {
+            treeLatch.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Insert to B+ tree with numVotes and tconst as key
+     * @param record record to be inserted
+     * @param address packed address of record to be inserted
+     */
+    public void insert(Record record, long address) {
+        writerLock.lock();
+        try {
+            if (bpt.getRoot() == null) {
+                // There is no node to latch before the root node is created
+                treeLatch.writeLock().lock();
+                try {
+                    bpt.insert(record, address);
+                } finally {
+                    treeLatch.writeLock().unlock();
+                }
+                return;
+            }
+
+            treeLatch.readLock().lock();
+            List<Node> latched = latchInsertPath(new Key(bpt.getAttribute().keyOf(record), record.getTconst()));
+            try {
+                bpt.insert(record, address);
+            } finally {
+                for (Node node : latched) {
+                    node.getLatch().writeLock().unlock();
+                }
+                treeLatch.readLock().unlock();
+            }
+        } finally {
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * Delete all entries having the specified key as its primary key, and the records they point to
+     * @param deleteKey key to delete
+     */
+    public void delete(int deleteKey) {
+        writerLock.lock();
+        treeLatch.writeLock().lock();
+        try {
+            bpt.delete(deleteKey);
+        } finally {
+            treeLatch.writeLock().unlock();
+            writerLock.unlock();
+        }
+    }
+
+    /**
+     * Read-latch the root node, retrying if the root node is replaced while waiting for its latch
+     * @return latched root node, null if the tree is empty
+     */
+    private Node latchRoot() {
+        while (true) {
+            Node root = bpt.getRoot();
+            if (root == null) return null;
+
+            root.getLatch().readLock().lock();
+            if (root == bpt.getRoot()) return root;
+            root.getLatch().readLock().unlock();
+        }
+    }
+
+    /**
+     * Write-latch all nodes modified by inserting an entry
+     * @param key key of entry to be inserted
+     * @return latched nodes, in the order they were latched
+     */
+    private List<Node> latchInsertPath(Key key) {
+        // Only the current writer modifies the tree, so the path can be found without latches
+        List<Node> path = new ArrayList<>();
+        Node node = bpt.getRoot();
+        while (node instanceof InternalNode) {
+            path.add(node);
+            InternalNode curNode = (InternalNode) node;
+            node = curNode.getPointers()[bpt.findIndexOfNode(curNode, key)];
+        }
+        path.add(node);
+
+        // A full node is split and adds an entry to its parent, so every ancestor up to the first one that
+        // is not full is modified. The root node is replaced if every node on the path is full. A covering
+        // tree updates the subtree totals of every ancestor, so the whole path is modified
+        int top = path.size() - 1;
+        while (top > 0 && (bpt.isCovering() || isFull(path.get(top)))) --top;
+        List<Node> latched = new ArrayList<>(path.subList(top, path.size()));
+
+        // Splitting a leaf node also updates the left sibling of its right sibling
+        LeafNode leafNode = (LeafNode) node;
+        if (isFull(leafNode) && leafNode.getRightSibling() != null) latched.add(leafNode.getRightSibling());
+
+        // Latch top-down and left to right, the same order as searches, so that they cannot deadlock
+        for (Node latchedNode : latched) {
+            latchedNode.getLatch().writeLock().lock();
+        }
+        return latched;
+    }
+
+    /**
+     * Check if inserting into a node would split it
+     * @param node node to check
+     * @return true if the node is full
+     */
+    private boolean isFull(Node node) {
+        return node instanceof LeafNode ? bpt.isFull((LeafNode) node) : node.getDegree() >= bpt.getN() + 1;
+    }
+
+    /**
+     * Get the access logger of the current thread, holding the accesses of its last search
+     * @return access logger of the current thread
+     */
+    public AccessLogger getAccessLog() {
+        return accLog.get();
+    }
+
+    public BPlusTree getBPT() {
+        return bpt;
+    }
+}
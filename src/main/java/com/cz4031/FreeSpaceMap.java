@@ -0,0 +1,250 @@
+package com.cz4031;
+
+import java.util.Arrays;
+
+/**
+ * Class tracking the free record slots of every block in storage, without allocating an object per slot.
+ * The occupancy of each block is stored as a bitmap, and blocks with a free slot are kept in two stacks of block IDs:
+ * one of partially filled blocks and one of empty blocks. Partially filled blocks are preferred when allocating a slot,
+ * so that slots freed by deletions are reused before empty blocks and new blocks.
+ * <p>
+ * A block can be left in a stack after it stops matching it, such entries are discarded when they reach the top,
+ * which keeps every operation O(1) amortized.
+ */
+public class FreeSpaceMap {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Maximum number of records in a block
+     */
+    private final int recordsPerBlock;
+
+    /**
+     * Number of 64-bit words in the bitmap of a block
+     */
+    private final int wordsPerBlock;
+
+    /**
+     * Occupancy bitmap of all blocks, a set bit indicates that the slot holds a record
+     */
+    private long[] occupied;
+
+    /**
+     * Number of records held by each block
+     */
+    private int[] numUsed;
+
+    /**
+     * Stack of partially filled blocks, and whether each block is in it
+     */
+    private int[] partialStack;
+    private int partialSize;
+    private boolean[] inPartial;
+
+    /**
+     * Stack of empty blocks, and whether each block is in it
+     */
+    private int[] emptyStack;
+    private int emptySize;
+    private boolean[] inEmpty;
+
+    private int numBlocks;
+    private long numFree;
+
+    /**
+     * Construct a free-space map without any block
+     * @param recordsPerBlock maximum number of records in a block
+     */
+    public FreeSpaceMap(int recordsPerBlock) {
+        this.recordsPerBlock = recordsPerBlock;
+        this.wordsPerBlock = (recordsPerBlock + 63) / 64;
+
+        occupied = new long[INITIAL_CAPACITY * wordsPerBlock];
+        numUsed = new int[INITIAL_CAPACITY];
+        partialStack = new int[INITIAL_CAPACITY];
+        inPartial = new boolean[INITIAL_CAPACITY];
+        emptyStack = new int[INITIAL_CAPACITY];
+        inEmpty = new boolean[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Add a new block with all slots free, after the last block
+     * @param blockID ID of the new block, equal to the number of blocks added so far
+     */
+    public void addBlock(int blockID) {
+        if (blockID != numBlocks) throw new IllegalArgumentException("Blocks must be added in order of block ID");
+        if (numBlocks == numUsed.length) grow();
+
+        ++numBlocks;
+        numFree += recordsPerBlock;
+        emptyStack[emptySize++] = blockID;
+        inEmpty[blockID] = true;
+    }
+
+    /**
+     * Find a block with a free slot, preferring partially filled blocks over empty blocks
+     * @return ID of the block, or -1 if every block is full
+     */
+    public int findBlock() {
+        // Discard blocks which are no longer partially filled
+        while (partialSize > 0) {
+            int blockID = partialStack[partialSize - 1];
+            if (numUsed[blockID] > 0 && numUsed[blockID] < recordsPerBlock) return blockID;
+            inPartial[blockID] = false;
+            --partialSize;
+        }
+
+        // Discard blocks which are no longer empty
+        while (emptySize > 0) {
+            int blockID = emptyStack[emptySize - 1];
+            if (numUsed[blockID] == 0) return blockID;
+            inEmpty[blockID] = false;
+            --emptySize;
+        }
+        return -1;
+    }
+
+    /**
+     * Allocate the first free slot of a block
+     * @param blockID ID of a block with a free slot, as returned by findBlock
+     * @return record ID of the allocated slot
+     */
+    public int allocate(int blockID) {
+        int base = blockID * wordsPerBlock;
+        for (int i = 0; i < wordsPerBlock; ++i) {
+            long free = ~occupied[base + i];
+            if (free != 0) {
+                int recordID = i * 64 + Long.numberOfTrailingZeros(free);
+                if (recordID >= recordsPerBlock) break;
+                markUsed(blockID, recordID);
+                return recordID;
+            }
+        }
+        throw new IllegalStateException("Block " + blockID + " is full");
+    }
+
+    /**
+     * Mark a free slot as holding a record
+     * @param blockID ID of block
+     * @param recordID ID of record relative to the block
+     */
+    public void markUsed(int blockID, int recordID) {
+        int word = blockID * wordsPerBlock + recordID / 64;
+        long bit = 1L << (recordID % 64);
+        if ((occupied[word] & bit) != 0) return;
+
+        occupied[word] |= bit;
+        ++numUsed[blockID];
+        --numFree;
+        if (numUsed[blockID] < recordsPerBlock) pushPartial(blockID);
+    }
+
+    /**
+     * Mark a slot as free
+     * @param blockID ID of block
+     * @param recordID ID of record relative to the block
+     */
+    public void free(int blockID, int recordID) {
+        int word = blockID * wordsPerBlock + recordID / 64;
+        long bit = 1L << (recordID % 64);
+        if ((occupied[word] & bit) == 0) return;
+
+        occupied[word] &= ~bit;
+        --numUsed[blockID];
+        ++numFree;
+        if (numUsed[blockID] > 0) {
+            pushPartial(blockID);
+        } else if (!inEmpty[blockID]) {
+            emptyStack[emptySize++] = blockID;
+            inEmpty[blockID] = true;
+        }
+    }
+
+    /**
+     * Check if a slot is free
+     * @param blockID ID of block
+     * @param recordID ID of record relative to the block
+     * @return true if the slot does not hold a record
+     */
+    public boolean isFree(int blockID, int recordID) {
+        return (occupied[blockID * wordsPerBlock + recordID / 64] & (1L << (recordID % 64))) == 0;
+    }
+
+    /**
+     * Get the number of slots of a block holding a record
+     * @param blockID ID of block
+     * @return number of used slots
+     */
+    public int getNumUsed(int blockID) {
+        return numUsed[blockID];
+    }
+
+    /**
+     * Remove the empty blocks after the first blocks, such as the blocks released by compaction
+     * @param numBlocks number of blocks to keep
+     * @throws IllegalArgumentException if a removed block holds a record
+     */
+    public void truncate(int numBlocks) {
+        for (int blockID = numBlocks; blockID < this.numBlocks; ++blockID) {
+            if (numUsed[blockID] > 0) throw new IllegalArgumentException("Block " + blockID + " is not empty");
+        }
+        numFree -= (long) (this.numBlocks - numBlocks) * recordsPerBlock;
+        Arrays.fill(inPartial, numBlocks, this.numBlocks, false);
+        Arrays.fill(inEmpty, numBlocks, this.numBlocks, false);
+        this.numBlocks = numBlocks;
+
+        // Drop the removed blocks from the stacks, keeping the order of the other blocks
+        int size = 0;
+        for (int i = 0; i < partialSize; ++i) {
+            if (partialStack[i] < numBlocks) partialStack[size++] = partialStack[i];
+        }
+        partialSize = size;
+        size = 0;
+        for (int i = 0; i < emptySize; ++i) {
+            if (emptyStack[i] < numBlocks) emptyStack[size++] = emptyStack[i];
+        }
+        emptySize = size;
+    }
+
+    /**
+     * Remove all blocks
+     */
+    public void clear() {
+        Arrays.fill(occupied, 0, numBlocks * wordsPerBlock, 0);
+        Arrays.fill(numUsed, 0, numBlocks, 0);
+        Arrays.fill(inPartial, 0, numBlocks, false);
+        Arrays.fill(inEmpty, 0, numBlocks, false);
+        partialSize = 0;
+        emptySize = 0;
+        numBlocks = 0;
+        numFree = 0;
+    }
+
+    private void pushPartial(int blockID) {
+        if (inPartial[blockID]) return;
+        partialStack[partialSize++] = blockID;
+        inPartial[blockID] = true;
+    }
+
+    /**
+     * Double the number of blocks that can be tracked
+     */
+    private void grow() {
+        int capacity = numUsed.length * 2;
+        occupied = Arrays.copyOf(occupied, capacity * wordsPerBlock);
+        numUsed = Arrays.copyOf(numUsed, capacity);
+        partialStack = Arrays.copyOf(partialStack, capacity);
+        inPartial = Arrays.copyOf(inPartial, capacity);
+        emptyStack = Arrays.copyOf(emptyStack, capacity);
+        inEmpty = Arrays.copyOf(inEmpty, capacity);
+    }
+
+    public int getNumBlocks() {
+        return numBlocks;
+    }
+
+    public long getNumFree() {
+        return numFree;
+    }
+}
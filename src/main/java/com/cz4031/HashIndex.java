@@ -0,0 +1,351 @@
+package com.cz4031;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Class representing a unique hash index on tconst using extendible hashing, mapping each tconst to the packed
+ * address of its record.
+ * <p>
+ * Entries are stored in buckets the size of a block, laid out one after another in a single off-heap buffer.
+ * A bucket starts with its local depth and number of entries (2 bytes each), followed by its entries, each being
+ * the packed tconst (10 bytes, packed as in Key) and the packed record address (8 bytes).
+ * The directory maps the lowest global depth bits of the hash of a tconst to a bucket. A full bucket is split in
+ * two by the next bit of the hash, doubling the directory if the bucket is referenced by only one directory entry,
+ * so a lookup always reads exactly one bucket. Buckets emptied by deletions are kept for reuse, like empty record
+ * slots.
+ */
+public class HashIndex {
+
+    /**
+     * Address returned by search when the tconst is not in the index
+     */
+    public static final long NOT_FOUND = -1;
+
+    /**
+     * Size of the header of a bucket: local depth and number of entries
+     */
+    private static final int HEADER_SIZE = 4;
+
+    /**
+     * Size of an entry: packed tconst and packed record address
+     */
+    private static final int ENTRY_SIZE = Key.K2_LENGTH + 8;
+
+    /**
+     * Largest global depth, limiting the directory to 2^30 entries
+     */
+    private static final int MAX_DEPTH = 30;
+
+    /**
+     * Size of a bucket, same as the size of one block
+     */
+    private final int bucketSize;
+
+    /**
+     * Maximum number of entries in a bucket
+     */
+    private final int bucketCapacity;
+
+    /**
+     * Buckets, bucket i starts at offset i * bucketSize
+     */
+    private ByteBuffer buckets;
+
+    /**
+     * Number of buckets in use
+     */
+    private int numBuckets;
+
+    /**
+     * Number of bits of the hash used to index the directory
+     */
+    private int globalDepth;
+
+    /**
+     * Bucket index of each directory entry
+     */
+    private int[] directory;
+
+    /**
+     * Number of entries
+     */
+    private long size;
+
+    /**
+     * Storage, for logging purposes
+     */
+    private final Storage st;
+
+    /**
+     * Construct an empty hash index
+     * @param blockSize size of one bucket
+     * @param st storage containing the records indexed by the hash index
+     */
+    public HashIndex(int blockSize, Storage st) {
+        this.bucketSize = blockSize;
+        this.bucketCapacity = (blockSize - HEADER_SIZE) / ENTRY_SIZE;
+        if (bucketCapacity < 1) {
+            throw new IllegalArgumentException("Block size " + blockSize + " cannot hold a hash index entry");
+        }
+        this.st = st;
+        this.buckets = ByteBuffer.allocateDirect(bucketSize);
+        this.numBuckets = 1;
+        this.globalDepth = 0;
+        this.directory = new int[]{0};
+    }
+
+    /**
+     * Search for the record with a tconst
+     * @param tconst tconst of record
+     * @return packed address of the record, or NOT_FOUND if no record has the tconst
+     */
+    public long search(char[] tconst) {
+        Key key = new Key(0, tconst);
+        int bucket = directory[slot(hash(key))];
+        st.logBucketAccess();
+        int i = indexOf(bucket, key);
+        return i < 0 ? NOT_FOUND : buckets.getLong(entryOffset(bucket, i) + Key.K2_LENGTH);
+    }
+
+    /**
+     * Check if the index has an entry for a tconst, without logging the access
+     * @param tconst tconst of record
+     * @return true if a record with the tconst is indexed
+     */
+    public boolean contains(char[] tconst) {
+        Key key = new Key(0, tconst);
+        return indexOf(directory[slot(hash(key))], key) >= 0;
+    }
+
+    /**
+     * Insert an entry, splitting buckets until the bucket of the tconst has space
+     * @param tconst tconst of record
+     * @param address packed address of record
+     * @throws IllegalArgumentException if the tconst is already in the index
+     */
+    public void insert(char[] tconst, long address) {
+        Key key = new Key(0, tconst);
+        long hash = hash(key);
+        int bucket = directory[slot(hash)];
+        if (indexOf(bucket, key) >= 0) {
+            throw new IllegalArgumentException("Duplicate tconst " + new String(tconst).trim());
+        }
+
+        while (count(bucket) == bucketCapacity) {
+            split(bucket);
+            bucket = directory[slot(hash)];
+        }
+
+        int count = count(bucket);
+        int offset = entryOffset(bucket, count);
+        buckets.putLong(offset, key.getK2High());
+        buckets.putChar(offset + 8, (char) key.getK2Low());
+        buckets.putLong(offset + Key.K2_LENGTH, address);
+        buckets.putShort(bucketOffset(bucket) + 2, (short) (count + 1));
+        ++size;
+    }
+
+    /**
+     * Replace the address of the entry of a tconst, used when its record is moved to another slot
+     * @param tconst tconst of record
+     * @param address new packed address of record
+     * @return true if an entry was updated
+     */
+    public boolean update(char[] tconst, long address) {
+        Key key = new Key(0, tconst);
+        int bucket = directory[slot(hash(key))];
+        int i = indexOf(bucket, key);
+        if (i < 0) return false;
+
+        buckets.putLong(entryOffset(bucket, i) + Key.K2_LENGTH, address);
+        return true;
+    }
+
+    /**
+     * Delete the entry of a tconst
+     * @param tconst tconst of record
+     * @return true if an entry was deleted
+     */
+    public boolean delete(char[] tconst) {
+        Key key = new Key(0, tconst);
+        int bucket = directory[slot(hash(key))];
+        int i = indexOf(bucket, key);
+        if (i < 0) return false;
+
+        // Entries are unordered, so the last entry fills the gap
+        int last = count(bucket) - 1;
+        copyEntry(bucket, last, bucket, i);
+        buckets.putShort(bucketOffset(bucket) + 2, (short) last);
+        --size;
+        return true;
+    }
+
+    /**
+     * Split a full bucket by the next bit of the hash, doubling the directory if needed
+     * @param bucket index of bucket to split
+     */
+    private void split(int bucket) {
+        int localDepth = buckets.getShort(bucketOffset(bucket));
+        if (localDepth == globalDepth) {
+            if (globalDepth == MAX_DEPTH) throw new IllegalStateException("Hash index directory is full");
+
+            // The new half of the directory points to the same buckets as the old half
+            directory = Arrays.copyOf(directory, directory.length * 2);
+            System.arraycopy(directory, 0, directory, directory.length / 2, directory.length / 2);
+            ++globalDepth;
+        }
+
+        int sibling = allocateBucket();
+        buckets.putShort(bucketOffset(bucket), (short) (localDepth + 1));
+        buckets.putShort(bucketOffset(sibling), (short) (localDepth + 1));
+
+        // Move the entries with the new bit set to the new bucket
+        int bit = 1 << localDepth;
+        int kept = 0, moved = 0, count = count(bucket);
+        for (int i = 0; i < count; ++i) {
+            if ((slot(hash(bucket, i)) & bit) != 0) {
+                copyEntry(bucket, i, sibling, moved++);
+            } else {
+                copyEntry(bucket, i, bucket, kept++);
+            }
+        }
+        buckets.putShort(bucketOffset(bucket) + 2, (short) kept);
+        buckets.putShort(bucketOffset(sibling) + 2, (short) moved);
+
+        for (int i = 0; i < directory.length; ++i) {
+            if (directory[i] == bucket && (i & bit) != 0) directory[i] = sibling;
+        }
+    }
+
+    /**
+     * Append an empty bucket, growing the buffer if it is full
+     * @return index of the new bucket
+     */
+    private int allocateBucket() {
+        if ((long) (numBuckets + 1) * bucketSize > buckets.capacity()) {
+            long capacity = Math.min((long) buckets.capacity() * 2, Integer.MAX_VALUE / bucketSize * bucketSize);
+            if (capacity < (long) (numBuckets + 1) * bucketSize) {
+                throw new IllegalStateException("Hash index buffer is full");
+            }
+            ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity);
+            ByteBuffer used = buckets.duplicate();
+            used.position(0).limit(numBuckets * bucketSize);
+            grown.put(used);
+            buckets = grown;
+        }
+
+        int bucket = numBuckets++;
+        buckets.putInt(bucketOffset(bucket), 0);
+        return bucket;
+    }
+
+    /**
+     * Find the position of a tconst in a bucket
+     * @param bucket index of bucket
+     * @param key key holding the packed tconst
+     * @return index of the entry in the bucket, or -1 if the tconst is not in the bucket
+     */
+    private int indexOf(int bucket, Key key) {
+        int count = count(bucket);
+        for (int i = 0; i < count; ++i) {
+            int offset = entryOffset(bucket, i);
+            if (buckets.getLong(offset) == key.getK2High() && buckets.getChar(offset + 8) == key.getK2Low()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Copy an entry between positions, possibly in the same bucket
+     * @param srcBucket index of source bucket
+     * @param src index of entry in the source bucket
+     * @param dstBucket index of destination bucket
+     * @param dst index of entry in the destination bucket
+     */
+    private void copyEntry(int srcBucket, int src, int dstBucket, int dst) {
+        int from = entryOffset(srcBucket, src), to = entryOffset(dstBucket, dst);
+        if (from == to) return;
+        buckets.putLong(to, buckets.getLong(from));
+        buckets.putChar(to + 8, buckets.getChar(from + 8));
+        buckets.putLong(to + Key.K2_LENGTH, buckets.getLong(from + Key.K2_LENGTH));
+    }
+
+    private int count(int bucket) {
+        return buckets.getShort(bucketOffset(bucket) + 2);
+    }
+
+    private int bucketOffset(int bucket) {
+        return bucket * bucketSize;
+    }
+
+    private int entryOffset(int bucket, int i) {
+        return bucket * bucketSize + HEADER_SIZE + i * ENTRY_SIZE;
+    }
+
+    /**
+     * Get the directory entry of a hash
+     * @param hash hash of a tconst
+     * @return index into the directory
+     */
+    private int slot(long hash) {
+        return (int) hash & (directory.length - 1);
+    }
+
+    /**
+     * Hash the tconst of an entry
+     * @param bucket index of bucket
+     * @param i index of entry in the bucket
+     * @return hash of the tconst
+     */
+    private long hash(int bucket, int i) {
+        int offset = entryOffset(bucket, i);
+        return hash(buckets.getLong(offset), buckets.getChar(offset + 8));
+    }
+
+    private static long hash(Key key) {
+        return hash(key.getK2High(), key.getK2Low());
+    }
+
+    /**
+     * Hash a packed tconst. IDs differ mostly in their last characters, so the bits are mixed (using the
+     * finalizer of MurmurHash3) to make the low bits used by the directory depend on every character
+     * @param k2High first 8 characters of tconst, packed as in Key
+     * @param k2Low last 2 characters of tconst, packed as in Key
+     * @return hash of the tconst
+     */
+    private static long hash(long k2High, int k2Low) {
+        long h = k2High * 0x9E3779B97F4A7C15L + k2Low;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Get the number of entries
+     * @return number of indexed records
+     */
+    public long size() {
+        return size;
+    }
+
+    public int getNumBuckets() {
+        return numBuckets;
+    }
+
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    /**
+     * Get the memory used by the buckets in use and the directory
+     * @return size in bytes
+     */
+    public long getSizeInBytes() {
+        return (long) numBuckets * bucketSize + 4L * directory.length;
+    }
+}
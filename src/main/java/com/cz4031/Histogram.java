@@ -0,0 +1,165 @@
+package com.cz4031;
+
+import java.util.Arrays;
+
+/**
+ * Class representing an equi-depth histogram of the values of an attribute, as the int keys of IndexAttribute.
+ * <p>
+ * The sorted values are split into buckets holding the same number of values, each bucket storing its smallest
+ * and largest value and its count. A value shared by many records spans several buckets, so that frequent values
+ * are estimated accurately. Within a bucket, values are assumed to be spread evenly between its bounds.
+ * <p>
+ * Values added or removed afterwards update the count of their bucket without moving the bounds of the buckets, so
+ * the buckets drift away from equal depth. The histogram becomes stale once the number of changes exceeds a fraction
+ * of the number of values it was built from, and should then be rebuilt.
+ */
+public class Histogram {
+
+    /**
+     * Fraction of the values the histogram was built from that can be added or removed before it is stale, and
+     * minimum number of changes, so that a histogram built from few values is not rebuilt on every change
+     */
+    private static final double STALE_FRACTION = 0.2;
+    private static final int MIN_STALE_CHANGES = 100;
+
+    /**
+     * Smallest and largest value of each bucket, inclusive, in ascending order
+     */
+    private final int[] lows;
+    private final int[] highs;
+
+    /**
+     * Number of values in each bucket
+     */
+    private final long[] counts;
+
+    /**
+     * Number of values in all buckets
+     */
+    private long total;
+
+    /**
+     * Number of values added or removed since the histogram was built, and number of changes making it stale
+     */
+    private long numChanges;
+    private final long staleChanges;
+
+    private Histogram(int[] lows, int[] highs, long[] counts, long total) {
+        this.lows = lows;
+        this.highs = highs;
+        this.counts = counts;
+        this.total = total;
+        staleChanges = Math.max(MIN_STALE_CHANGES, (long) (total * STALE_FRACTION));
+    }
+
+    /**
+     * Build a histogram from sorted values
+     * @param sorted values in ascending order
+     * @param numBuckets maximum number of buckets, fewer are used if there are fewer values
+     * @return histogram of the values
+     */
+    public static Histogram build(int[] sorted, int numBuckets) {
+        int n = Math.min(numBuckets, sorted.length);
+        int[] lows = new int[n];
+        int[] highs = new int[n];
+        long[] counts = new long[n];
+        for (int i = 0; i < n; ++i) {
+            int start = (int) ((long) i * sorted.length / n), end = (int) ((long) (i + 1) * sorted.length / n);
+            lows[i] = sorted[start];
+            highs[i] = sorted[end - 1];
+            counts[i] = end - start;
+        }
+        return new Histogram(lows, highs, counts, sorted.length);
+    }
+
+    /**
+     * Add a value to the last bucket starting at or before it, extending the bucket if the value is beyond it, or
+     * to the first bucket if the value is before every bucket
+     * @param value added value
+     */
+    public void add(int value) {
+        ++numChanges;
+        if (counts.length == 0) return;
+
+        // A value shared by several buckets is added to the last one, which holds no other value if it is frequent
+        int low = 0, high = lows.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lows[mid] <= value) low = mid + 1; else high = mid;
+        }
+        int i = Math.max(0, low - 1);
+        lows[i] = Math.min(lows[i], value);
+        highs[i] = Math.max(highs[i], value);
+        ++counts[i];
+        ++total;
+    }
+
+    /**
+     * Remove a value from the first bucket covering it with a non-zero count, no-op if there is none
+     * @param value removed value
+     */
+    public void remove(int value) {
+        ++numChanges;
+        for (int i = findBucket(value); i < counts.length && lows[i] <= value; ++i) {
+            if (counts[i] > 0) {
+                --counts[i];
+                --total;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Estimate the fraction of values within bounds
+     * @param lower lower bound, inclusive
+     * @param upper upper bound, inclusive
+     * @return estimated fraction between 0 and 1, 0 if the histogram is empty
+     */
+    public double estimateSelectivity(int lower, int upper) {
+        if (total == 0 || lower > upper) return 0;
+
+        double estimate = 0;
+        for (int i = findBucket(lower); i < counts.length && lows[i] <= upper; ++i) {
+            long from = Math.max(lower, lows[i]), to = Math.min(upper, highs[i]);
+            if (from > to) continue;
+            estimate += counts[i] * (double) (to - from + 1) / ((long) highs[i] - lows[i] + 1);
+        }
+        return Math.min(1, estimate / total);
+    }
+
+    /**
+     * Find the first bucket whose largest value is at least a value
+     * @param value value to find
+     * @return index of the bucket, or the number of buckets if the value is larger than every bucket
+     */
+    private int findBucket(int value) {
+        int low = 0, high = highs.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (highs[mid] < value) low = mid + 1; else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Check whether enough values were added or removed since the histogram was built that it should be rebuilt
+     * @return true if the histogram is stale
+     */
+    public boolean isStale() {
+        return numChanges > staleChanges;
+    }
+
+    public int getNumBuckets() {
+        return counts.length;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d buckets of %d values, bounds %s", counts.length, total,
+                counts.length == 0 ? "[]" : Arrays.toString(new int[]{lows[0], highs[highs.length - 1]}));
+    }
+}
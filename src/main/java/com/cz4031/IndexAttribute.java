@@ -0,0 +1,42 @@
+package com.cz4031;
+
+/**
+ * Attribute of a record that a B+ tree can be built on. The tree stores every attribute as the primary
+ * indexed attribute of its keys, an int that follows the order of the attribute, with tconst as the
+ * secondary indexed attribute
+ */
+public enum IndexAttribute {
+
+    NUM_VOTES {
+        @Override
+        public int keyOf(Record record) {
+            return record.getNumVotes();
+        }
+    },
+
+    AVERAGE_RATING {
+        @Override
+        public int keyOf(Record record) {
+            return ratingKey(record.getAvgRating());
+        }
+    };
+
+    /**
+     * Get the value of the attribute of a record as the primary indexed attribute of a key
+     * @param record record
+     * @return int value following the order of the attribute
+     */
+    public abstract int keyOf(Record record);
+
+    /**
+     * Map a rating to an int such that comparing the ints gives the same order as comparing the ratings
+     * @param rating average rating
+     * @return int value following the order of ratings
+     */
+    public static int ratingKey(float rating) {
+        // The bits of a non-negative float already follow its order as an int, negative floats are stored as
+        // sign and magnitude, so their magnitude bits are flipped to reverse their order
+        int bits = Float.floatToIntBits(rating);
+        return bits >= 0 ? bits : bits ^ Integer.MAX_VALUE;
+    }
+}
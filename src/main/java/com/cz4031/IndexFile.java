@@ -0,0 +1,397 @@
+package com.cz4031;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Class storing the nodes of a B+ tree in a file, where each node is serialized into a fixed-size page.
+ * The file starts with a header, followed by the pages in breadth-first order of the tree so that the root
+ * is always the first page. Pointers to other nodes are stored as page IDs.
+ * <p>
+ * Leaf page: type, degree, left sibling page ID, right sibling page ID, then entries of
+ * (numVotes, tconst, packed record address), up to the maximum number of keys in a leaf node.
+ * Entries of covering leaf nodes are followed by the averageRating of their records.
+ * Compressed leaf page: type, degree, right sibling page ID, then the entries in the encoding modelled by
+ * LeafNode.encodedSize. Each run of entries with the same numVotes starts with numVotes and the number of entries
+ * in the run. Each entry stores the number of leading characters of tconst shared with the previous entry of its
+ * run, the rest of tconst, and the record pointer as the slot number of the record in storage.
+ * Internal page: type, degree, n keys of (numVotes, tconst), then n+1 child page IDs.
+ * <p>
+ * A compressed leaf node is at most the size of n uncompressed entries, so it fits in the page of an internal
+ * node, and a tree with compressed leaf nodes uses smaller pages than a tree without.
+ */
+public class IndexFile {
+
+    private static final int HEADER_SIZE = 32;
+    private static final int HEADER_MAGIC = 0x42505431;
+
+    private static final byte LEAF_PAGE = 0;
+    private static final byte INTERNAL_PAGE = 1;
+
+    /**
+     * Page ID representing a missing sibling
+     */
+    private static final int NULL_PAGE = -1;
+
+    private static final int KEY_SIZE = 4 + Key.K2_LENGTH;
+    private static final int ADDRESS_SIZE = 8;
+    private static final int PAGE_ID_SIZE = 4;
+    private static final int RATING_SIZE = 4;
+
+    /**
+     * Flags of the leaf format in the header
+     */
+    private static final int COMPRESSED_FLAG = 1;
+    private static final int COVERING_FLAG = 2;
+
+    /**
+     * Get the size of a page holding either a leaf or an internal node
+     * @param n maximum number of keys in a node
+     * @param compressedLeaves whether leaf nodes are compressed
+     * @return page size in bytes
+     */
+    public static int getPageSize(int n, boolean compressedLeaves) {
+        return getPageSize(n, compressedLeaves, false);
+    }
+
+    /**
+     * Get the size of a page holding either a leaf or an internal node
+     * @param n maximum number of keys in a node
+     * @param compressedLeaves whether leaf nodes are compressed
+     * @param covering whether leaf entries include averageRating
+     * @return page size in bytes
+     */
+    public static int getPageSize(int n, boolean compressedLeaves, boolean covering) {
+        int leafSize;
+        if (compressedLeaves) {
+            // A compressed leaf node is stored encoded, in at most the size of n uncompressed entries, including its
+            // right sibling pointer
+            leafSize = BPlusTree.getUncompressedLeafBytes(n);
+        } else {
+            int maxKeysLeaf = BPlusTree.getMaxKeysLeaf(n, false, covering);
+            leafSize = 2 * PAGE_ID_SIZE + maxKeysLeaf * (KEY_SIZE + ADDRESS_SIZE + (covering ? RATING_SIZE : 0));
+        }
+        int internalSize = n * KEY_SIZE + (n + 1) * PAGE_ID_SIZE;
+        return 1 + 4 + Math.max(leafSize, internalSize);
+    }
+
+    /**
+     * Write all nodes of a B+ tree to a file, replacing the file if it exists
+     * @param bpt B+ tree to be written
+     * @param path path of index file
+     * @param recordsPerBlock maximum number of records in a block of the storage, used to encode the record
+     *                        pointers of compressed leaf nodes as slot numbers
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(BPlusTree bpt, String path, int recordsPerBlock) throws IOException {
+        int pageSize = getPageSize(bpt.getN(), bpt.hasCompressedLeaves(), bpt.isCovering());
+
+        // Assign page IDs in breadth-first order
+        Map<Node, Integer> pageIDs = new IdentityHashMap<>();
+        Queue<Node> queue = new LinkedList<>();
+        if (bpt.getRoot() != null) queue.add(bpt.getRoot());
+        while (!queue.isEmpty()) {
+            Node node = queue.remove();
+            pageIDs.put(node, pageIDs.size());
+            if (node instanceof InternalNode) {
+                Node[] pointers = ((InternalNode) node).getPointers();
+                for (int i = 0; i < node.getDegree(); ++i) {
+                    queue.add(pointers[i]);
+                }
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long fileSize = HEADER_SIZE + (long) pageIDs.size() * pageSize;
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+
+            buf.putInt(0, HEADER_MAGIC);
+            buf.putInt(4, bpt.getN());
+            buf.putInt(8, pageIDs.size());
+            buf.putInt(12, bpt.getHeight());
+            buf.putInt(16, bpt.getTotalNodes());
+            buf.putInt(20, pageSize);
+            buf.putInt(24, (bpt.hasCompressedLeaves() ? COMPRESSED_FLAG : 0) | (bpt.isCovering() ? COVERING_FLAG : 0));
+            buf.putInt(28, recordsPerBlock);
+
+            for (Map.Entry<Node, Integer> entry : pageIDs.entrySet()) {
+                int offset = HEADER_SIZE + entry.getValue() * pageSize;
+                if (entry.getKey() instanceof LeafNode && bpt.hasCompressedLeaves()) {
+                    writeCompressedLeaf(buf, offset, (LeafNode) entry.getKey(), pageIDs, recordsPerBlock,
+                            bpt.getMaxLeafBytes());
+                } else if (entry.getKey() instanceof LeafNode) {
+                    writeLeaf(buf, offset, (LeafNode) entry.getKey(), pageIDs);
+                } else {
+                    writeInternal(buf, offset, (InternalNode) entry.getKey(), pageIDs);
+                }
+            }
+            buf.force();
+        }
+    }
+
+    /**
+     * Read a B+ tree from an index file
+     * @param path path of index file
+     * @param st storage, for logging purposes
+     * @return B+ tree stored in the file
+     * @throws IOException if the file cannot be read or is not an index file
+     */
+    public static BPlusTree read(String path, Storage st) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Index file is too small");
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            int n = buf.getInt(4);
+            int numPages = buf.getInt(8);
+            int height = buf.getInt(12);
+            int totalNodes = buf.getInt(16);
+            int pageSize = buf.getInt(20);
+            boolean compressedLeaves = (buf.getInt(24) & COMPRESSED_FLAG) != 0;
+            boolean covering = (buf.getInt(24) & COVERING_FLAG) != 0;
+            int recordsPerBlock = buf.getInt(28);
+            if (buf.getInt(0) != HEADER_MAGIC || pageSize != getPageSize(n, compressedLeaves, covering)
+                    || channel.size() != HEADER_SIZE + (long) numPages * pageSize) {
+                throw new IOException("Invalid index file");
+            }
+
+            // Deserialize every page, then resolve the page IDs of children and siblings into nodes
+            Node[] nodes = new Node[numPages];
+            int[][] links = new int[numPages][];
+            for (int pageID = 0; pageID < numPages; ++pageID) {
+                int offset = HEADER_SIZE + pageID * pageSize;
+                if (buf.get(offset) == LEAF_PAGE) {
+                    LeafNode leaf = new LeafNode(BPlusTree.getMaxKeysLeaf(n, compressedLeaves, covering), covering);
+                    links[pageID] = compressedLeaves ? readCompressedLeaf(buf, offset, leaf, recordsPerBlock)
+                            : readLeaf(buf, offset, leaf);
+                    nodes[pageID] = leaf;
+                } else {
+                    InternalNode node = new InternalNode(n);
+                    links[pageID] = readInternal(buf, offset, node);
+                    nodes[pageID] = node;
+                }
+            }
+
+            for (int pageID = 0; pageID < numPages; ++pageID) {
+                if (nodes[pageID] instanceof LeafNode) {
+                    LeafNode leaf = (LeafNode) nodes[pageID];
+                    if (links[pageID][0] != NULL_PAGE) leaf.setLeftSibling((LeafNode) nodes[links[pageID][0]]);
+                    if (links[pageID][1] != NULL_PAGE) {
+                        // Compressed leaf pages do not store the left sibling, it is restored from the right sibling
+                        LeafNode right = (LeafNode) nodes[links[pageID][1]];
+                        leaf.setRightSibling(right);
+                        right.setLeftSibling(leaf);
+                    }
+                } else {
+                    InternalNode node = (InternalNode) nodes[pageID];
+                    for (int i = 0; i < node.getDegree(); ++i) {
+                        node.getPointers()[i] = nodes[links[pageID][i]];
+                        node.getPointers()[i].setParent(node);
+                    }
+                }
+            }
+
+            return new BPlusTree(n, st, compressedLeaves, covering, numPages > 0 ? nodes[0] : null, height,
+                    totalNodes);
+        }
+    }
+
+    /**
+     * Serialize a leaf node into a page
+     * @param buf buffer containing the pages
+     * @param offset position of the page in the buffer
+     * @param leaf leaf node to be serialized
+     * @param pageIDs page ID of each node in the tree
+     */
+    private static void writeLeaf(ByteBuffer buf, int offset, LeafNode leaf, Map<Node, Integer> pageIDs) {
+        buf.put(offset, LEAF_PAGE);
+        buf.putInt(offset + 1, leaf.getDegree());
+        buf.putInt(offset + 5, leaf.getLeftSibling() != null ? pageIDs.get(leaf.getLeftSibling()) : NULL_PAGE);
+        buf.putInt(offset + 9, leaf.getRightSibling() != null ? pageIDs.get(leaf.getRightSibling()) : NULL_PAGE);
+
+        int pos = offset + 13;
+        for (int i = 0; i < leaf.getDegree(); ++i) {
+            writeKey(buf, pos, leaf.getKeys().get(i));
+            buf.putLong(pos + KEY_SIZE, leaf.getAddresses()[i]);
+            pos += KEY_SIZE + ADDRESS_SIZE;
+            if (leaf.isCovering()) {
+                buf.putFloat(pos, leaf.getRatings()[i]);
+                pos += RATING_SIZE;
+            }
+        }
+    }
+
+    /**
+     * Deserialize a page into a leaf node
+     * @param buf buffer containing the pages
+     * @param offset position of the page in the buffer
+     * @param leaf empty leaf node to store the entries into
+     * @return page IDs of the left and right siblings
+     */
+    private static int[] readLeaf(ByteBuffer buf, int offset, LeafNode leaf) {
+        leaf.setDegree(buf.getInt(offset + 1));
+
+        int pos = offset + 13;
+        for (int i = 0; i < leaf.getDegree(); ++i) {
+            leaf.getKeys().set(i, readKey(buf, pos));
+            leaf.getAddresses()[i] = buf.getLong(pos + KEY_SIZE);
+            pos += KEY_SIZE + ADDRESS_SIZE;
+            if (leaf.isCovering()) {
+                leaf.getRatings()[i] = buf.getFloat(pos);
+                pos += RATING_SIZE;
+            }
+        }
+        return new int[]{buf.getInt(offset + 5), buf.getInt(offset + 9)};
+    }
+
+    /**
+     * Serialize a compressed leaf node into a page, in the encoding modelled by LeafNode.encodedSize
+     * @param buf buffer containing the pages
+     * @param offset position of the page in the buffer
+     * @param leaf leaf node to be serialized
+     * @param pageIDs page ID of each node in the tree
+     * @param recordsPerBlock maximum number of records in a block, to convert record addresses to slot numbers
+     * @param maxLeafBytes maximum size of an encoded leaf node
+     * @throws IllegalStateException if the leaf node is larger than a compressed leaf node may be
+     */
+    private static void writeCompressedLeaf(ByteBuffer buf, int offset, LeafNode leaf, Map<Node, Integer> pageIDs,
+                                            int recordsPerBlock, int maxLeafBytes) {
+        if (leaf.getEncodedSize() > maxLeafBytes) {
+            throw new IllegalStateException("Leaf node of " + leaf.getEncodedSize() + " bytes does not fit in a page");
+        }
+        buf.put(offset, LEAF_PAGE);
+        buf.putInt(offset + 1, leaf.getDegree());
+        buf.putInt(offset + 5, leaf.getRightSibling() != null ? pageIDs.get(leaf.getRightSibling()) : NULL_PAGE);
+
+        KeyArray keys = leaf.getKeys();
+        int pos = offset + 5 + LeafNode.ENCODED_HEADER_SIZE;
+        for (int i = 0; i < leaf.getDegree(); ++i) {
+            int shared = 0;
+            if (i == 0 || keys.getK1(i - 1) != keys.getK1(i)) {
+                int runEnd = i + 1;
+                while (runEnd < leaf.getDegree() && keys.getK1(runEnd) == keys.getK1(i)) ++runEnd;
+                buf.putInt(pos, keys.getK1(i));
+                buf.putShort(pos + 4, (short) (runEnd - i));
+                pos += LeafNode.ENCODED_RUN_SIZE;
+            } else {
+                shared = Math.min(KeyArray.sharedPrefix(keys, i - 1, keys, i), Key.K2_LENGTH - 1);
+            }
+
+            char[] k2 = keys.get(i).getK2();
+            buf.put(pos++, (byte) shared);
+            for (int j = shared; j < k2.length; ++j) {
+                buf.put(pos++, (byte) k2[j]);
+            }
+            long address = leaf.getAddresses()[i];
+            buf.putInt(pos, RecordAddress.blockID(address) * recordsPerBlock + RecordAddress.recordID(address));
+            pos += LeafNode.ENCODED_POINTER_SIZE;
+        }
+    }
+
+    /**
+     * Deserialize a compressed leaf page into a leaf node
+     * @param buf buffer containing the pages
+     * @param offset position of the page in the buffer
+     * @param leaf empty leaf node to store the entries into
+     * @param recordsPerBlock maximum number of records in a block, to convert slot numbers to record addresses
+     * @return page IDs of the left sibling, which is not stored, and the right sibling
+     */
+    private static int[] readCompressedLeaf(ByteBuffer buf, int offset, LeafNode leaf, int recordsPerBlock) {
+        leaf.setDegree(buf.getInt(offset + 1));
+
+        int pos = offset + 5 + LeafNode.ENCODED_HEADER_SIZE;
+        int numVotes = 0, runLeft = 0;
+        char[] prev = new char[Key.K2_LENGTH];
+        for (int i = 0; i < leaf.getDegree(); ++i) {
+            if (runLeft == 0) {
+                numVotes = buf.getInt(pos);
+                runLeft = buf.getShort(pos + 4) & 0xFFFF;
+                pos += LeafNode.ENCODED_RUN_SIZE;
+            }
+            --runLeft;
+
+            char[] k2 = new char[Key.K2_LENGTH];
+            int shared = buf.get(pos++);
+            System.arraycopy(prev, 0, k2, 0, shared);
+            for (int j = shared; j < k2.length; ++j) {
+                k2[j] = (char) (buf.get(pos++) & 0xFF);
+            }
+            leaf.getKeys().set(i, new Key(numVotes, k2));
+            prev = k2;
+
+            int slot = buf.getInt(pos);
+            leaf.getAddresses()[i] = RecordAddress.pack(slot / recordsPerBlock, slot % recordsPerBlock);
+            pos += LeafNode.ENCODED_POINTER_SIZE;
+        }
+        return new int[]{NULL_PAGE, buf.getInt(offset + 5)};
+    }
+
+    /**
+     * Serialize an internal node into a page
+     * @param buf buffer containing the pages
+     * @param offset position of the page in the buffer
+     * @param node internal node to be serialized
+     * @param pageIDs page ID of each node in the tree
+     */
+    private static void writeInternal(ByteBuffer buf, int offset, InternalNode node, Map<Node, Integer> pageIDs) {
+        int n = node.getKeys().capacity();
+        buf.put(offset, INTERNAL_PAGE);
+        buf.putInt(offset + 1, node.getDegree());
+
+        for (int i = 0; i < node.getDegree() - 1; ++i) {
+            writeKey(buf, offset + 5 + i * KEY_SIZE, node.getKeys().get(i));
+        }
+        int pointerOffset = offset + 5 + n * KEY_SIZE;
+        for (int i = 0; i < node.getDegree(); ++i) {
+            buf.putInt(pointerOffset + i * PAGE_ID_SIZE, pageIDs.get(node.getPointers()[i]));
+        }
+    }
+
+    /**
+     * Deserialize a page into an internal node, without resolving its children
+     * @param buf buffer containing the pages
+     * @param offset position of the page in the buffer
+     * @param node empty internal node to store the keys into
+     * @return page IDs of the children
+     */
+    private static int[] readInternal(ByteBuffer buf, int offset, InternalNode node) {
+        int n = node.getKeys().capacity();
+        node.setDegree(buf.getInt(offset + 1));
+
+        for (int i = 0; i < node.getDegree() - 1; ++i) {
+            node.getKeys().set(i, readKey(buf, offset + 5 + i * KEY_SIZE));
+        }
+        int[] children = new int[node.getDegree()];
+        int pointerOffset = offset + 5 + n * KEY_SIZE;
+        for (int i = 0; i < children.length; ++i) {
+            children[i] = buf.getInt(pointerOffset + i * PAGE_ID_SIZE);
+        }
+        return children;
+    }
+
+    private static void writeKey(ByteBuffer buf, int offset, Key key) {
+        buf.putInt(offset, key.getK1());
+        char[] k2 = key.getK2();
+        for (int i = 0; i < k2.length; ++i) {
+            buf.put(offset + 4 + i, (byte) k2[i]);
+        }
+    }
+
+    private static Key readKey(ByteBuffer buf, int offset) {
+        char[] k2 = new char[Key.K2_LENGTH];
+        for (int i = 0; i < k2.length; ++i) {
+            k2[i] = (char) (buf.get(offset + 4 + i) & 0xFF);
+        }
+        return new Key(buf.getInt(offset), k2);
+    }
+}
@@ -1,6 +1,8 @@
 package com.cz4031;
 
 import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Class representing internal node (non-leaf node) in a B+ tree
@@ -14,46 +16,73 @@ public class InternalNode implements Node {
     private int degree;
 
     /**
-     * Array of keys
+     * Keys separating the child nodes, one fewer than the pointers
      */
-    private Key[] keys;
+    private KeyArray keys;
 
     /**
      * Array of pointers to child node
      */
     private Node[] pointers;
 
+    /**
+     * Number of entries in the subtree of each child, parallel to the pointers, if the tree covers averageRating,
+     * otherwise null
+     */
+    private long[] counts;
+
+    /**
+     * Sum of averageRating of the entries in the subtree of each child, parallel to the pointers, if the tree
+     * covers averageRating, otherwise null
+     */
+    private double[] sums;
+
     /**
      * Parent node
      */
     private InternalNode parent;
 
+    /**
+     * Latch for concurrent access through ConcurrentBPlusTree
+     */
+    private final ReadWriteLock latch = new ReentrantReadWriteLock();
+
     /**
      * Construct an empty internal node specified with maximum number of keys
      * @param n maximum number of keys in a node
      */
     public InternalNode(int n) {
-        this(0, new Key[n], new Node[n+1], null);
+        this(n, false);
+    }
+
+    /**
+     * Construct an empty internal node, optionally annotating its children with their subtree totals
+     * @param n maximum number of keys in a node
+     * @param annotated whether the count and sum of averageRating of the subtree of each child are kept
+     */
+    public InternalNode(int n, boolean annotated) {
+        this(0, new KeyArray(n), new Node[n+1], null);
+        if (annotated) setAnnotations(new long[n+1], new double[n+1]);
     }
 
     /**
      * Construct an internal node with current degree, array of keys and pointers
      * @param degree current degree of node
-     * @param keys array of keys
+     * @param keys keys
      * @param pointers array of pointers
      */
-    public InternalNode(int degree, Key[] keys, Node[] pointers) {
+    public InternalNode(int degree, KeyArray keys, Node[] pointers) {
         this(degree, keys, pointers, null);
     }
 
     /**
      * Construct an internal node with current degree, array of keys and pointers, and parent node
      * @param degree current degree of node
-     * @param keys array of keys
+     * @param keys keys
      * @param pointers array of pointers
      * @param parent parent node
      */
-    public InternalNode(int degree, Key[] keys, Node[] pointers, InternalNode parent) {
+    public InternalNode(int degree, KeyArray keys, Node[] pointers, InternalNode parent) {
         this.degree = degree;
         this.keys = keys;
         this.pointers = pointers;
@@ -65,9 +94,10 @@ public class InternalNode implements Node {
      * @param knPair key and node to be inserted
      */
     public void addSorted(KeyNodePair knPair) {
-        int index = Util.findIndexToInsert(keys, knPair.getKey());
-        Util.insertAndShift(keys, knPair.getKey(), index);
+        int index = keys.upperBound(knPair.getKey(), degree - 1);
+        keys.insert(index, knPair.getKey());
         Util.insertAndShift(pointers, knPair.getNode(), index+1);
+        shiftAnnotations(index+1);
         ++degree;
     }
 
@@ -77,7 +107,7 @@ public class InternalNode implements Node {
      * @param pos position to add the key
      */
     public void addKey(Key key, int pos) {
-        Util.insertAndShift(keys, key, pos);
+        keys.insert(pos, key);
     }
 
     /**
@@ -87,17 +117,28 @@ public class InternalNode implements Node {
      */
     public void addPointer(Node pointer, int pos) {
         Util.insertAndShift(pointers, pointer, pos);
+        shiftAnnotations(pos);
         ++degree;
     }
 
+    /**
+     * Make room for the annotation of a pointer inserted at a position, the annotation is left empty
+     * @param pos position of the inserted pointer
+     */
+    private void shiftAnnotations(int pos) {
+        if (counts == null) return;
+        Util.insertAndShift(counts, 0, pos);
+        Util.insertAndShift(sums, 0, pos);
+    }
+
     /**
      * Delete a key at the specified position
      * @param pos position of key to be deleted
      * @return deleted key
      */
     public Key deleteKey(int pos) {
-        Key key = keys[pos];
-        Util.deleteAndShift(keys, pos);
+        Key key = keys.get(pos);
+        keys.delete(pos, pos + 1);
         return key;
     }
 
@@ -109,6 +150,10 @@ public class InternalNode implements Node {
     public Node deletePointer(int pos) {
         Node pointer = pointers[pos];
         Util.deleteAndShift(pointers, pos);
+        if (counts != null) {
+            Util.deleteAndShift(counts, pos);
+            Util.deleteAndShift(sums, pos);
+        }
         --degree;
         return pointer;
     }
@@ -117,8 +162,12 @@ public class InternalNode implements Node {
      * Delete all keys and pointers in the node
      */
     public void deleteAll() {
-        Arrays.fill(keys, null);
+        keys.clear(0, keys.capacity());
         Arrays.fill(pointers, null);
+        if (counts != null) {
+            Arrays.fill(counts, 0);
+            Arrays.fill(sums, 0);
+        }
         degree = 0;
     }
 
@@ -132,11 +181,11 @@ public class InternalNode implements Node {
         this.degree = degree;
     }
 
-    public Key[] getKeys() {
+    public KeyArray getKeys() {
         return keys;
     }
 
-    public void setKeys(Key[] keys) {
+    public void setKeys(KeyArray keys) {
         this.keys = keys;
     }
 
@@ -148,6 +197,74 @@ public class InternalNode implements Node {
         this.pointers = pointers;
     }
 
+    public long[] getCounts() {
+        return counts;
+    }
+
+    public double[] getSums() {
+        return sums;
+    }
+
+    /**
+     * Replace the subtree totals of the children
+     * @param counts number of entries in the subtree of each child, parallel to the pointers
+     * @param sums sum of averageRating in the subtree of each child, parallel to the pointers
+     */
+    public void setAnnotations(long[] counts, double[] sums) {
+        this.counts = counts;
+        this.sums = sums;
+    }
+
+    /**
+     * Set the subtree totals of a child
+     * @param pos position of the pointer to the child
+     * @param count number of entries in the subtree
+     * @param sum sum of averageRating in the subtree
+     */
+    public void setAnnotation(int pos, long count, double sum) {
+        counts[pos] = count;
+        sums[pos] = sum;
+    }
+
+    /**
+     * Add entries to the subtree totals of a child
+     * @param pos position of the pointer to the child
+     * @param count number of entries added
+     * @param sum sum of averageRating of the entries added
+     */
+    public void addAnnotation(int pos, long count, double sum) {
+        counts[pos] += count;
+        sums[pos] += sum;
+    }
+
+    /**
+     * Get the number of entries in the subtree of the node
+     * @return sum of the counts of the children
+     */
+    public long getSubtreeCount() {
+        long count = 0;
+        for (int i = 0; i < degree; ++i) {
+            count += counts[i];
+        }
+        return count;
+    }
+
+    /**
+     * Get the sum of averageRating in the subtree of the node
+     * @return sum of the sums of the children
+     */
+    public double getSubtreeSum() {
+        double sum = 0;
+        for (int i = 0; i < degree; ++i) {
+            sum += sums[i];
+        }
+        return sum;
+    }
+
+    public boolean isAnnotated() {
+        return counts != null;
+    }
+
     public InternalNode getParent() {
         return parent;
     }
@@ -156,11 +273,16 @@ public class InternalNode implements Node {
         this.parent = parent;
     }
 
+    @Override
+    public ReadWriteLock getLatch() {
+        return latch;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
-        for (Key k : keys) {
-            if (k == null) break;
+        for (int i = 0; i < degree - 1; ++i) {
+            Key k = keys.get(i);
             sb.append("(");
             sb.append(k.getK1());
             sb.append(", ");
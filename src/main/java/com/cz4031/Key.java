@@ -1,21 +1,38 @@
 package com.cz4031;
 
-import java.util.Arrays;
-
 /**
  * Class representing key of a node in a B+ tree
  */
 public class Key implements Comparable<Key> {
 
+    /**
+     * Number of characters of the secondary indexed attribute (tconst)
+     */
+    public static final int K2_LENGTH = 10;
+
     /**
      * Primary indexed attribute (numVotes)
      */
     private int k1;
 
     /**
-     * Secondary indexed attribute (tconst)
+     * First 8 characters of the secondary indexed attribute (tconst), packed as one byte per character
+     * so that unsigned comparison of the packed value follows the order of the characters
      */
-    private char[] k2;
+    private long k2High;
+
+    /**
+     * Last 2 characters of the secondary indexed attribute (tconst), packed the same way as k2High
+     */
+    private int k2Low;
+
+    /**
+     * Construct a key that is smaller than any other key with the same primary indexed attribute
+     * @param k1 primary indexed attribute
+     */
+    public Key(int k1) {
+        this.k1 = k1;
+    }
 
     /**
      * Construct a key
@@ -24,7 +41,19 @@ public class Key implements Comparable<Key> {
      */
     public Key(int k1, char[] k2) {
         this.k1 = k1;
-        this.k2 = k2;
+        setK2(k2);
+    }
+
+    /**
+     * Construct a key from its packed attributes
+     * @param k1 primary indexed attribute
+     * @param k2High first 8 characters of the secondary indexed attribute, packed
+     * @param k2Low last 2 characters of the secondary indexed attribute, packed
+     */
+    Key(int k1, long k2High, int k2Low) {
+        this.k1 = k1;
+        this.k2High = k2High;
+        this.k2Low = k2Low;
     }
 
     public int getK1() {
@@ -36,18 +65,47 @@ public class Key implements Comparable<Key> {
     }
 
     public char[] getK2() {
+        char[] k2 = new char[K2_LENGTH];
+        for (int i = 0; i < 8; ++i) {
+            k2[i] = (char) ((k2High >>> (56 - 8 * i)) & 0xFF);
+        }
+        k2[8] = (char) ((k2Low >>> 8) & 0xFF);
+        k2[9] = (char) (k2Low & 0xFF);
         return k2;
     }
 
     public void setK2(char[] k2) {
-        this.k2 = k2;
+        k2High = 0;
+        for (int i = 0; i < 8; ++i) {
+            k2High = (k2High << 8) | charAt(k2, i);
+        }
+        k2Low = (charAt(k2, 8) << 8) | charAt(k2, 9);
+    }
+
+    public long getK2High() {
+        return k2High;
+    }
+
+    public int getK2Low() {
+        return k2Low;
+    }
+
+    /**
+     * Get a character of the secondary indexed attribute as an unsigned byte, characters beyond the end are 0
+     * @param k2 secondary indexed attribute
+     * @param i index of character
+     * @return character as an unsigned byte
+     */
+    private static int charAt(char[] k2, int i) {
+        return i < k2.length ? k2[i] & 0xFF : 0;
     }
 
     @Override
     public int compareTo(Key k) {
         if (k == null) return -1;
         if (this.k1 == k.k1) {
-            return Arrays.toString(this.k2).compareTo(Arrays.toString(k.k2));
+            int cmp = Long.compareUnsigned(this.k2High, k.k2High);
+            return cmp != 0 ? cmp : Integer.compare(this.k2Low, k.k2Low);
         }
         return Integer.compare(this.k1, k.k1);
     }
@@ -0,0 +1,225 @@
+package com.cz4031;
+
+import java.util.Arrays;
+
+/**
+ * Class storing the keys of a node as parallel arrays of primitives instead of an array of Key objects.
+ * The primary indexed attribute of consecutive keys is contiguous in memory, so searching a node scans a single
+ * int array without following a reference per key, and a node holds no object per key.
+ * <p>
+ * Like the arrays of Key objects it replaces, the array has a fixed capacity, and inserting at a position shifts
+ * the following keys towards the end, dropping the last one.
+ */
+public class KeyArray {
+
+    /**
+     * Largest number of keys searched by scanning every key, where a full scan is cheaper than halving the range
+     */
+    private static final int LINEAR_SEARCH_MAX = 8;
+
+    /**
+     * Primary indexed attribute (numVotes) of each key
+     */
+    private final int[] k1;
+
+    /**
+     * First 8 characters of the secondary indexed attribute (tconst) of each key, packed as in Key
+     */
+    private final long[] k2High;
+
+    /**
+     * Last 2 characters of the secondary indexed attribute (tconst) of each key, packed as in Key
+     */
+    private final char[] k2Low;
+
+    /**
+     * Construct an array of keys
+     * @param capacity maximum number of keys
+     */
+    public KeyArray(int capacity) {
+        this.k1 = new int[capacity];
+        this.k2High = new long[capacity];
+        this.k2Low = new char[capacity];
+    }
+
+    /**
+     * Construct an array of keys holding a copy of an array of Key objects
+     * @param keys keys to copy, from the start of the array
+     * @param capacity maximum number of keys, at least the number of keys to copy
+     */
+    public KeyArray(Key[] keys, int capacity) {
+        this(capacity);
+        for (int i = 0; i < keys.length; ++i) {
+            set(i, keys[i]);
+        }
+    }
+
+    public int capacity() {
+        return k1.length;
+    }
+
+    /**
+     * Get the primary indexed attribute of a key, without creating a Key object
+     * @param i index of key
+     * @return primary indexed attribute (numVotes)
+     */
+    public int getK1(int i) {
+        return k1[i];
+    }
+
+    /**
+     * Get a key as a Key object
+     * @param i index of key
+     * @return copy of the key
+     */
+    public Key get(int i) {
+        return new Key(k1[i], k2High[i], k2Low[i]);
+    }
+
+    /**
+     * Replace a key
+     * @param i index of key
+     * @param key new key
+     */
+    public void set(int i, Key key) {
+        k1[i] = key.getK1();
+        k2High[i] = key.getK2High();
+        k2Low[i] = (char) key.getK2Low();
+    }
+
+    /**
+     * Insert a key at a position, shifting the following keys and dropping the last key
+     * @param pos position to insert
+     * @param key key to be inserted
+     */
+    public void insert(int pos, Key key) {
+        int length = k1.length - pos - 1;
+        System.arraycopy(k1, pos, k1, pos + 1, length);
+        System.arraycopy(k2High, pos, k2High, pos + 1, length);
+        System.arraycopy(k2Low, pos, k2Low, pos + 1, length);
+        set(pos, key);
+    }
+
+    /**
+     * Delete the keys in a range of positions, shifting the following keys towards the start
+     * @param from first position to delete, inclusive
+     * @param to last position to delete, exclusive
+     */
+    public void delete(int from, int to) {
+        int length = k1.length - to;
+        System.arraycopy(k1, to, k1, from, length);
+        System.arraycopy(k2High, to, k2High, from, length);
+        System.arraycopy(k2Low, to, k2Low, from, length);
+        clear(k1.length - (to - from), k1.length);
+    }
+
+    /**
+     * Swap a key with a key of another array
+     * @param i index of key in this array
+     * @param other other array, may be this array
+     * @param j index of key in the other array
+     */
+    public void swap(int i, KeyArray other, int j) {
+        Key temp = get(i);
+        set(i, other.get(j));
+        other.set(j, temp);
+    }
+
+    /**
+     * Reset the keys in a range of positions to zero
+     * @param from first position, inclusive
+     * @param to last position, exclusive
+     */
+    public void clear(int from, int to) {
+        Arrays.fill(k1, from, to, 0);
+        Arrays.fill(k2High, from, to, 0);
+        Arrays.fill(k2Low, from, to, (char) 0);
+    }
+
+    /**
+     * Copy keys between arrays, like System.arraycopy
+     * @param src source array
+     * @param srcPos starting position in the source array
+     * @param dst destination array
+     * @param dstPos starting position in the destination array
+     * @param length number of keys to copy
+     */
+    public static void copy(KeyArray src, int srcPos, KeyArray dst, int dstPos, int length) {
+        System.arraycopy(src.k1, srcPos, dst.k1, dstPos, length);
+        System.arraycopy(src.k2High, srcPos, dst.k2High, dstPos, length);
+        System.arraycopy(src.k2Low, srcPos, dst.k2Low, dstPos, length);
+    }
+
+    /**
+     * Count the leading characters shared by the secondary indexed attributes of two keys
+     * @param a array of the first key
+     * @param i index of the first key
+     * @param b array of the second key
+     * @param j index of the second key
+     * @return length of the common prefix of the two secondary indexed attributes (tconst)
+     */
+    public static int sharedPrefix(KeyArray a, int i, KeyArray b, int j) {
+        // Characters are packed one per byte from the most significant byte, so the first differing character
+        // is the first differing byte
+        long high = a.k2High[i] ^ b.k2High[j];
+        if (high != 0) return Long.numberOfLeadingZeros(high) / 8;
+        int low = a.k2Low[i] ^ b.k2Low[j];
+        return low != 0 ? 8 + (Integer.numberOfLeadingZeros(low) - 16) / 8 : Key.K2_LENGTH;
+    }
+
+    /**
+     * Count the keys with a primary indexed attribute smaller than a value, which is the position of the first
+     * key with at least that value since the keys are sorted. The search has no data-dependent branch: small
+     * nodes are scanned in full, larger nodes are searched by halving the range with a conditional move
+     * @param value value of primary indexed attribute (numVotes)
+     * @param count number of keys to search, from the start of the array
+     * @return number of keys smaller than the value
+     */
+    public int countLess(int value, int count) {
+        if (count <= LINEAR_SEARCH_MAX) {
+            int less = 0;
+            for (int i = 0; i < count; ++i) {
+                less += k1[i] < value ? 1 : 0;
+            }
+            return less;
+        }
+
+        int base = 0;
+        for (int length = count; length > 1; length -= length >>> 1) {
+            int half = length >>> 1;
+            base = k1[base + half] < value ? base + half : base;
+        }
+        return base + (k1[base] < value ? 1 : 0);
+    }
+
+    /**
+     * Count the keys smaller than or equal to a key, which is the position to insert the key while keeping
+     * the keys sorted, after any equal key
+     * @param key key to search
+     * @param count number of keys to search, from the start of the array
+     * @return number of keys smaller than or equal to the key
+     */
+    public int upperBound(Key key, int count) {
+        return upperBound(key.getK1(), key.getK2High(), key.getK2Low(), count);
+    }
+
+    /**
+     * Count the keys smaller than or equal to a key given by its packed attributes
+     * @param keyK1 primary indexed attribute of key
+     * @param keyK2High first 8 characters of the secondary indexed attribute of key, packed as in Key
+     * @param keyK2Low last 2 characters of the secondary indexed attribute of key, packed as in Key
+     * @param count number of keys to search, from the start of the array
+     * @return number of keys smaller than or equal to the key
+     */
+    public int upperBound(int keyK1, long keyK2High, int keyK2Low, int count) {
+        int i = countLess(keyK1, count);
+
+        // Only keys with the same primary indexed attribute need to compare the secondary indexed attribute
+        while (i < count && k1[i] == keyK1) {
+            int cmp = Long.compareUnsigned(k2High[i], keyK2High);
+            if (cmp > 0 || (cmp == 0 && k2Low[i] > keyK2Low)) break;
+            ++i;
+        }
+        return i;
+    }
+}
@@ -1,7 +1,7 @@
 package com.cz4031;
 
 /**
- * Class representing key-value pair in the leaf node of a B+ tree
+ * Class representing key-value pair of an entry in a B+ tree, used to sort entries before bulk loading them
  */
 public class KeyValuePair implements Comparable<KeyValuePair> {
 
@@ -11,18 +11,34 @@ public class KeyValuePair implements Comparable<KeyValuePair> {
     private Key key;
 
     /**
-     * Value (record address)
+     * Value (packed record address)
      */
-    private RecordAddress recordAddress;
+    private long address;
+
+    /**
+     * averageRating of the record, included in the entry if the B+ tree is covering
+     */
+    private float rating;
 
     /**
      * Construct a key-value pair
      * @param key key
-     * @param recordAddress value (record address)
+     * @param address value (packed record address)
+     */
+    public KeyValuePair(Key key, long address) {
+        this(key, address, 0);
+    }
+
+    /**
+     * Construct a key-value pair with the averageRating of the record
+     * @param key key
+     * @param address value (packed record address)
+     * @param rating averageRating of the record
      */
-    public KeyValuePair(Key key, RecordAddress recordAddress) {
+    public KeyValuePair(Key key, long address, float rating) {
         this.key = key;
-        this.recordAddress = recordAddress;
+        this.address = address;
+        this.rating = rating;
     }
 
     public Key getKey() {
@@ -33,12 +49,20 @@ public class KeyValuePair implements Comparable<KeyValuePair> {
         this.key = key;
     }
 
-    public RecordAddress getRecordAddress() {
-        return recordAddress;
+    public long getAddress() {
+        return address;
+    }
+
+    public void setAddress(long address) {
+        this.address = address;
+    }
+
+    public float getRating() {
+        return rating;
     }
 
-    public void setRecordAddress(RecordAddress recordAddress) {
-        this.recordAddress = recordAddress;
+    public void setRating(float rating) {
+        this.rating = rating;
     }
 
     public int compareTo(KeyValuePair k) {
@@ -1,6 +1,8 @@
 package com.cz4031;
 
 import java.util.Arrays;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Class representing a leaf node in a B+ tree
@@ -8,15 +10,58 @@ import java.util.Arrays;
  */
 public class LeafNode implements Node {
 
+    /**
+     * Size of an encoded leaf node without entries: pointer to the right sibling
+     */
+    public static final int ENCODED_HEADER_SIZE = 4;
+
+    /**
+     * Size of the header of a run of entries with the same numVotes in an encoded leaf node: numVotes and the
+     * number of entries in the run
+     */
+    public static final int ENCODED_RUN_SIZE = 4 + 2;
+
+    /**
+     * Size of the record pointer of an entry in an encoded leaf node
+     */
+    public static final int ENCODED_POINTER_SIZE = 4;
+
+    /**
+     * Size of the averageRating included in each entry of a covering leaf node
+     */
+    public static final int INCLUDED_RATING_SIZE = 4;
+
+    /**
+     * Largest size of an encoded entry: an entry starting a run, with the whole tconst
+     */
+    public static final int MAX_ENCODED_ENTRY_SIZE = ENCODED_RUN_SIZE + 1 + Key.K2_LENGTH + ENCODED_POINTER_SIZE;
+
+    /**
+     * Smallest size of an encoded entry: an entry sharing all but the last character of tconst with the previous
+     * entry of its run
+     */
+    public static final int MIN_ENCODED_ENTRY_SIZE = 1 + 1 + ENCODED_POINTER_SIZE;
+
     /**
      * Current number of entries in the node
      */
     private int degree;
 
     /**
-     * Array of key-value pairs representing an entry
+     * Keys, sorted in ascending order
+     */
+    private KeyArray keys;
+
+    /**
+     * Array of packed addresses of the records, parallel to the keys
      */
-    private KeyValuePair[] kvPairs;
+    private long[] addresses;
+
+    /**
+     * Array of averageRating of the records, parallel to the keys, if the leaf node covers averageRating,
+     * otherwise null
+     */
+    private float[] ratings;
 
     /**
      * Parent node
@@ -33,86 +78,201 @@ public class LeafNode implements Node {
      */
     private LeafNode rightSibling;
 
+    /**
+     * Latch for concurrent access through ConcurrentBPlusTree
+     */
+    private final ReadWriteLock latch = new ReentrantReadWriteLock();
+
     /**
      * Construct an empty leaf node specified with maximum number of keys
      * @param n maximum number of keys in a node
      */
     public LeafNode(int n) {
-        this(0, new KeyValuePair[n], null, null, null);
+        this(n, false);
+    }
+
+    /**
+     * Construct an empty leaf node, optionally covering averageRating
+     * @param n maximum number of keys in a node
+     * @param covering whether the entries include the averageRating of their records
+     */
+    public LeafNode(int n, boolean covering) {
+        this(0, new KeyArray(n), new long[n], covering ? new float[n] : null);
+    }
+
+    /**
+     * Construct a leaf node with current degree and arrays of entries
+     * @param degree current degree of node
+     * @param keys keys
+     * @param addresses array of packed record addresses, parallel to the keys
+     */
+    public LeafNode(int degree, KeyArray keys, long[] addresses) {
+        this(degree, keys, addresses, null);
     }
 
     /**
-     * Construct a leaf node with current degree and array of key-value pairs
+     * Construct a leaf node with current degree and arrays of entries, including averageRating
      * @param degree current degree of node
-     * @param kvPairs array of key-value pairs
+     * @param keys keys
+     * @param addresses array of packed record addresses, parallel to the keys
+     * @param ratings array of averageRating of the records, parallel to the keys, null if not covering
      */
-    public LeafNode(int degree, KeyValuePair[] kvPairs) {
-        this(degree, kvPairs, null, null, null);
+    public LeafNode(int degree, KeyArray keys, long[] addresses, float[] ratings) {
+        this(degree, keys, addresses, null, null, null);
+        this.ratings = ratings;
     }
 
     /**
      * Construct a leaf node with all attributes
      * @param degree current degree
-     * @param kvPairs array representing key-value pairs of the node
+     * @param keys keys
+     * @param addresses array of packed record addresses, parallel to the keys
      * @param parent parent node
      * @param leftSibling left sibling node
      * @param rightSibling right sibling node
      */
-    public LeafNode(int degree, KeyValuePair[] kvPairs, InternalNode parent, LeafNode leftSibling, LeafNode rightSibling) {
+    public LeafNode(int degree, KeyArray keys, long[] addresses, InternalNode parent, LeafNode leftSibling,
+                    LeafNode rightSibling) {
         this.degree = degree;
-        this.kvPairs = kvPairs;
+        this.keys = keys;
+        this.addresses = addresses;
         this.parent = parent;
         this.leftSibling = leftSibling;
         this.rightSibling = rightSibling;
     }
 
     /**
-     * Insert entry to leaf node while keeping the key-value pairs sorted
-     * @param entry key-value pair to be inserted
+     * Insert entry to leaf node while keeping the entries sorted
+     * @param key key of entry to be inserted
+     * @param address packed record address of entry to be inserted
+     * @param rating averageRating of the record, ignored if the leaf node is not covering
+     * @return index of the inserted entry
      */
-    public void addSorted(KeyValuePair entry) {
-        int index = Util.findIndexToInsert(kvPairs, entry);
-        Util.insertAndShift(kvPairs, entry, index);
+    public int addSorted(Key key, long address, float rating) {
+        int index = keys.upperBound(key, degree);
+        keys.insert(index, key);
+        Util.insertAndShift(addresses, address, index);
+        if (ratings != null) Util.insertAndShift(ratings, rating, index);
         ++degree;
+        return index;
     }
 
     /**
-     * Delete an entry that matches the key value
+     * Delete all entries that match the key value
      * @param deleteKey key to delete
-     * @return the deleted entry if found, otherwise null
+     * @return packed record addresses of the deleted entries, empty if none are found
      */
-    public KeyValuePair delete(int deleteKey) {
-        for (int i = 0; i < degree; ++i) {
-            if (kvPairs[i].getKey().getK1() == deleteKey) {
-                KeyValuePair kvToDelete = kvPairs[i];
-                Util.deleteAndShift(kvPairs, i);
-                --degree;
-                return kvToDelete;
-            }
-        }
-        return null;
+    public long[] deleteByKey(int deleteKey) {
+        // Entries are sorted, so matching entries are contiguous
+        int start = keys.countLess(deleteKey, degree);
+        int end = start;
+        while (end < degree && keys.getK1(end) == deleteKey) ++end;
+
+        long[] deleted = Arrays.copyOfRange(addresses, start, end);
+        keys.delete(start, end);
+        System.arraycopy(addresses, end, addresses, start, degree - end);
+        if (ratings != null) System.arraycopy(ratings, end, ratings, start, degree - end);
+        degree -= deleted.length;
+        return deleted;
     }
 
     /**
      * Delete an entry by its index in the node
      * @param index index of entry to be deleted
-     * @return deleted entry
      */
-    public KeyValuePair deleteByIndex(int index) {
-        KeyValuePair toDelete = kvPairs[index];
-        Util.deleteAndShift(kvPairs, index);
+    public void deleteByIndex(int index) {
+        keys.delete(index, index + 1);
+        Util.deleteAndShift(addresses, index);
+        if (ratings != null) Util.deleteAndShift(ratings, index);
         --degree;
-        return toDelete;
     }
 
     /**
      * Delete all entries in the node
      */
     public void deleteAll() {
-        Arrays.fill(kvPairs, null);
+        keys.clear(0, degree);
         degree = 0;
     }
 
+    /**
+     * Get the size of the node in the compressed leaf encoding, see encodedSize
+     * @return size of the encoded node in bytes
+     */
+    public int getEncodedSize() {
+        return encodedSize(keys, 0, degree);
+    }
+
+    /**
+     * Get the size of a range of entries encoded as one compressed leaf node.
+     * Entries with the same numVotes form a run, which stores numVotes once. Each entry stores the number of
+     * leading characters of tconst shared with the previous entry of its run, the rest of tconst, and the
+     * record pointer. At least one character of tconst is stored, so that every entry has a distinct size
+     * @param keys keys of the entries
+     * @param from index of the first entry, inclusive
+     * @param to index of the last entry, exclusive
+     * @return size of the encoded node in bytes
+     */
+    public static int encodedSize(KeyArray keys, int from, int to) {
+        int size = ENCODED_HEADER_SIZE;
+        for (int i = from; i < to; ++i) {
+            size += encodedEntrySize(keys, i, from);
+        }
+        return size;
+    }
+
+    /**
+     * Get the size of an encoded entry, which depends on the previous entry in the same node
+     * @param keys keys of the entries
+     * @param i index of the entry
+     * @param first index of the first entry in the node
+     * @return size of the encoded entry in bytes
+     */
+    public static int encodedEntrySize(KeyArray keys, int i, int first) {
+        return i == first ? MAX_ENCODED_ENTRY_SIZE : encodedEntrySize(keys, i - 1, keys, i);
+    }
+
+    /**
+     * Get the size of an encoded entry following another entry
+     * @param prevKeys keys containing the previous entry
+     * @param prev index of the previous entry
+     * @param keys keys containing the entry
+     * @param i index of the entry
+     * @return size of the encoded entry in bytes
+     */
+    public static int encodedEntrySize(KeyArray prevKeys, int prev, KeyArray keys, int i) {
+        if (prevKeys.getK1(prev) != keys.getK1(i)) return MAX_ENCODED_ENTRY_SIZE;
+        int shared = Math.min(KeyArray.sharedPrefix(prevKeys, prev, keys, i), Key.K2_LENGTH - 1);
+        return 1 + Key.K2_LENGTH - shared + ENCODED_POINTER_SIZE;
+    }
+
+    /**
+     * Find where to split a range of entries into two encoded leaf nodes of about the same size
+     * @param keys keys of the entries
+     * @param from index of the first entry, inclusive
+     * @param to index of the last entry, exclusive, at least 2 entries after the first entry
+     * @return index of the first entry of the second node
+     */
+    public static int findEncodedSplit(KeyArray keys, int from, int to) {
+        int total = encodedSize(keys, from, to);
+
+        // Moving the split point to the right grows the first node by the size of the entry and shrinks the second
+        // node, whose first entry is stored in full
+        int best = from + 1, bestSize = Integer.MAX_VALUE;
+        int firstSize = ENCODED_HEADER_SIZE + MAX_ENCODED_ENTRY_SIZE;
+        for (int mid = from + 1; mid < to; ++mid) {
+            int entrySize = encodedEntrySize(keys, mid, from);
+            int secondSize = total - firstSize + ENCODED_HEADER_SIZE + MAX_ENCODED_ENTRY_SIZE - entrySize;
+            int largerSize = Math.max(firstSize, secondSize);
+            if (largerSize < bestSize) {
+                best = mid;
+                bestSize = largerSize;
+            }
+            firstSize += entrySize;
+        }
+        return best;
+    }
+
     @Override
     public int getDegree() {
         return degree;
@@ -123,12 +283,41 @@ public class LeafNode implements Node {
         this.degree = degree;
     }
 
-    public KeyValuePair[] getKvPairs() {
-        return kvPairs;
+    public KeyArray getKeys() {
+        return keys;
+    }
+
+    public void setKeys(KeyArray keys) {
+        this.keys = keys;
+    }
+
+    public long[] getAddresses() {
+        return addresses;
+    }
+
+    public void setAddresses(long[] addresses) {
+        this.addresses = addresses;
+    }
+
+    public float[] getRatings() {
+        return ratings;
+    }
+
+    public void setRatings(float[] ratings) {
+        this.ratings = ratings;
+    }
+
+    /**
+     * Get the averageRating included in an entry
+     * @param i index of entry
+     * @return averageRating of the record, 0 if the leaf node is not covering
+     */
+    public float getRating(int i) {
+        return ratings != null ? ratings[i] : 0;
     }
 
-    public void setKvPairs(KeyValuePair[] kvPairs) {
-        this.kvPairs = kvPairs;
+    public boolean isCovering() {
+        return ratings != null;
     }
 
     public LeafNode getRightSibling() {
@@ -155,14 +344,19 @@ public class LeafNode implements Node {
         this.parent = parent;
     }
 
+    @Override
+    public ReadWriteLock getLatch() {
+        return latch;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < degree; ++i) {
             sb.append("(");
-            sb.append(kvPairs[i].getKey().getK1());
+            sb.append(keys.getK1(i));
             sb.append(", ");
-            sb.append(String.valueOf(kvPairs[i].getKey().getK2()).trim());
+            sb.append(String.valueOf(keys.get(i).getK2()).trim());
             sb.append(")  ");
         }
         return sb.toString();
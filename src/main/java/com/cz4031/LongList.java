@@ -0,0 +1,76 @@
+package com.cz4031;
+
+import java.util.Arrays;
+import java.util.stream.LongStream;
+
+/**
+ * Class representing a growable list of primitive longs, used to return packed record addresses without boxing
+ */
+public class LongList {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Array of values, only the first size values are valid
+     */
+    private long[] values;
+
+    /**
+     * Number of values in the list
+     */
+    private int size;
+
+    /**
+     * Construct an empty list
+     */
+    public LongList() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Construct an empty list with the specified initial capacity
+     * @param capacity number of values that can be added before the list grows
+     */
+    public LongList(int capacity) {
+        values = new long[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Add a value to the end of the list
+     * @param value value to be added
+     */
+    public void add(long value) {
+        if (size == values.length) values = Arrays.copyOf(values, size * 2);
+        values[size++] = value;
+    }
+
+    /**
+     * Get a value by its index
+     * @param index index of value
+     * @return value at the index
+     */
+    public long get(int index) {
+        if (index >= size) throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Copy the values into a new array
+     * @return array of values
+     */
+    public long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    public LongStream stream() {
+        return Arrays.stream(values, 0, size);
+    }
+}
@@ -1,5 +1,6 @@
 package com.cz4031;
 
+import java.io.IOException;
 import java.util.List;
 
 public class Main {
@@ -13,7 +14,13 @@ public class Main {
             System.out.printf("BLOCK SIZE: %d bytes\n", blockSize);
 
             Storage st = new Storage(blockSize, 19, 100 << 20);
-            st.initWithTSV("data.tsv");
+            try {
+                st.loadTSV("data.tsv", Runtime.getRuntime().availableProcessors());
+            } catch (IOException e) {
+                System.out.println("Error while reading file");
+                e.printStackTrace();
+                return;
+            }
 
             // Experiment 1
             System.out.println("EXPERIMENT 1");
@@ -1,5 +1,7 @@
 package com.cz4031;
 
+import java.util.concurrent.locks.ReadWriteLock;
+
 /**
  * Interface representing a node in a B+ tree
  */
@@ -13,5 +15,11 @@ public interface Node {
 
     void setParent(InternalNode parent);
 
+    /**
+     * Get the latch protecting the content of the node from concurrent access
+     * @return read-write latch of the node
+     */
+    ReadWriteLock getLatch();
+
     String toString();
 }
@@ -0,0 +1,377 @@
+package com.cz4031;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class choosing how to answer a conjunctive query on numVotes and averageRating, using the indexes built on
+ * the storage.
+ * <p>
+ * The cost of a plan is the estimated number of blocks and nodes it reads. A full scan checks the zone map and reads
+ * the blocks whose zone overlaps the predicates. An index plan descends the tree and reads the leaf nodes holding the
+ * matching entries. An index scan then reads the record of each entry in key order, one block read per entry, while a
+ * block-batched index plan groups the entries by block and reads the distinct blocks holding their records.
+ * Intersecting both indexes reads the entries of both ranges, but only the blocks of records matching both predicates.
+ * The distinct blocks are estimated assuming records are placed at random, but no more than the blocks whose zone
+ * overlaps the predicate, which is lower when the records are stored in order of the attribute.
+ * <p>
+ * Selectivities are estimated from the histograms of the storage, or from the position of the bounds in the trees
+ * if the histograms have not been built.
+ */
+public class QueryPlanner {
+
+    /**
+     * Way of answering a query
+     */
+    public enum Plan {
+        FULL_SCAN,
+        NUM_VOTES_INDEX_SCAN,
+        NUM_VOTES_INDEX,
+        AVERAGE_RATING_INDEX_SCAN,
+        AVERAGE_RATING_INDEX,
+        INDEX_INTERSECTION
+    }
+
+    /**
+     * Cost of sorting and grouping the addresses of a block-batched index plan, charged as block reads, so that
+     * an index scan is preferred when batching saves less than one block read
+     */
+    private static final double BATCH_COST = 1;
+
+    /**
+     * Size of the zone of a block in the zone map, the bounds of numVotes and averageRating. A full scan checks
+     * the zone of every block, charged as the blocks needed to store the zones
+     */
+    private static final int ZONE_SIZE = 16;
+
+    /**
+     * Storage containing the records and indexes
+     */
+    private final Storage st;
+
+    /**
+     * Plan chosen for the last query
+     */
+    private Plan lastPlan;
+
+    /**
+     * Estimated number of matching records, and of blocks and nodes read, by the plan chosen for the last query
+     */
+    private double estimatedRecords;
+    private double estimatedBlocks;
+    private double estimatedNodes;
+
+    /**
+     * Construct a query planner
+     * @param st storage containing the records and indexes
+     */
+    public QueryPlanner(Storage st) {
+        this.st = st;
+    }
+
+    /**
+     * Search for records with numVotes and averageRating within bounds
+     * @param minVotes lower bound of numVotes, inclusive
+     * @param maxVotes upper bound of numVotes, inclusive
+     * @param minRating lower bound of averageRating, inclusive
+     * @param maxRating upper bound of averageRating, inclusive
+     * @return list of records matching both predicates, in key order for an index scan, otherwise in the order
+     * they are stored
+     */
+    public List<Record> search(int minVotes, int maxVotes, float minRating, float maxRating) {
+        // Reset logs for experiment
+        st.resetLog();
+
+        int minRatingKey = IndexAttribute.ratingKey(minRating);
+        int maxRatingKey = IndexAttribute.ratingKey(maxRating);
+        BPlusTree votesIndex = st.findIndex(IndexAttribute.NUM_VOTES);
+        BPlusTree ratingIndex = st.findIndex(IndexAttribute.AVERAGE_RATING);
+        lastPlan = choosePlan(votesIndex, minVotes, maxVotes, ratingIndex, minRating, maxRating);
+
+        LongList addresses;
+        switch (lastPlan) {
+            case NUM_VOTES_INDEX_SCAN:
+                return readInKeyOrder(votesIndex.searchInternal(votesIndex.getRoot(), minVotes, maxVotes),
+                        minVotes, maxVotes, minRating, maxRating);
+            case AVERAGE_RATING_INDEX_SCAN:
+                return readInKeyOrder(ratingIndex.searchInternal(ratingIndex.getRoot(), minRatingKey, maxRatingKey),
+                        minVotes, maxVotes, minRating, maxRating);
+            case NUM_VOTES_INDEX:
+                addresses = votesIndex.searchInternal(votesIndex.getRoot(), minVotes, maxVotes);
+                break;
+            case AVERAGE_RATING_INDEX:
+                addresses = ratingIndex.searchInternal(ratingIndex.getRoot(), minRatingKey, maxRatingKey);
+                break;
+            case INDEX_INTERSECTION:
+                addresses = intersect(votesIndex.searchInternal(votesIndex.getRoot(), minVotes, maxVotes),
+                        ratingIndex.searchInternal(ratingIndex.getRoot(), minRatingKey, maxRatingKey));
+                break;
+            default:
+                return st.scan(new ScanPredicate(minVotes, maxVotes, minRating, maxRating));
+        }
+
+        // A single index only checks its own predicate, so the records are filtered by the other one
+        List<Record> result = new ArrayList<>();
+        for (Record record : st.readRecords(addresses, true)) {
+            if (matches(record, minVotes, maxVotes, minRating, maxRating)) result.add(record);
+        }
+        return result;
+    }
+
+    /**
+     * Search for records with numVotes and averageRating within bounds, and report the estimates of the chosen plan
+     * against the accesses it made
+     * @param minVotes lower bound of numVotes, inclusive
+     * @param maxVotes upper bound of numVotes, inclusive
+     * @param minRating lower bound of averageRating, inclusive
+     * @param maxRating upper bound of averageRating, inclusive
+     * @return estimated and actual number of matching records, and of blocks and nodes read
+     */
+    public Explain explain(int minVotes, int maxVotes, float minRating, float maxRating) {
+        int numRecords = search(minVotes, maxVotes, minRating, maxRating).size();
+        return new Explain(lastPlan, estimatedRecords, estimatedBlocks, estimatedNodes,
+                numRecords, st.getNumBlockAccess(), st.getNumNodeAccess());
+    }
+
+    /**
+     * Choose the plan with the lowest estimated cost, and keep its estimates
+     * @param votesIndex index on numVotes, null if there is none
+     * @param minVotes lower bound of numVotes, inclusive
+     * @param maxVotes upper bound of numVotes, inclusive
+     * @param ratingIndex index on averageRating, null if there is none
+     * @param minRating lower bound of averageRating, inclusive
+     * @param maxRating upper bound of averageRating, inclusive
+     * @return cheapest plan
+     */
+    private Plan choosePlan(BPlusTree votesIndex, int minVotes, int maxVotes,
+                            BPlusTree ratingIndex, float minRating, float maxRating) {
+        double numRecords = st.getNumRecords();
+        double numBlocks = st.getNumBlocksUsed();
+        double votesSel = estimateSelectivity(IndexAttribute.NUM_VOTES, votesIndex, minVotes, maxVotes);
+        double ratingSel = estimateSelectivity(IndexAttribute.AVERAGE_RATING, ratingIndex,
+                IndexAttribute.ratingKey(minRating), IndexAttribute.ratingKey(maxRating));
+
+        // The attributes are assumed to be independent
+        estimatedRecords = votesSel * ratingSel * numRecords;
+        Plan best = Plan.FULL_SCAN;
+        estimatedBlocks = st.countBlocks(new ScanPredicate(minVotes, maxVotes, minRating, maxRating));
+        estimatedNodes = 0;
+        double bestCost = estimatedBlocks + numBlocks * ZONE_SIZE / st.getBlockSize();
+        double scanBlocks = estimatedBlocks;
+
+        double votesNodes = 0, ratingNodes = 0;
+        if (votesIndex != null) {
+            double numEntries = votesSel * numRecords;
+            votesNodes = indexCost(votesIndex, numEntries);
+            if (votesNodes + numEntries < bestCost) {
+                best = Plan.NUM_VOTES_INDEX_SCAN;
+                bestCost = setEstimates(numEntries, votesNodes);
+            }
+            double blocks = Math.min(distinctBlocks(numEntries, numBlocks),
+                    st.countBlocks(ScanPredicate.numVotes(minVotes, maxVotes)));
+            if (votesNodes + blocks + BATCH_COST < bestCost) {
+                best = Plan.NUM_VOTES_INDEX;
+                bestCost = setEstimates(blocks, votesNodes) + BATCH_COST;
+            }
+        }
+        if (ratingIndex != null) {
+            double numEntries = ratingSel * numRecords;
+            ratingNodes = indexCost(ratingIndex, numEntries);
+            if (ratingNodes + numEntries < bestCost) {
+                best = Plan.AVERAGE_RATING_INDEX_SCAN;
+                bestCost = setEstimates(numEntries, ratingNodes);
+            }
+            double blocks = Math.min(distinctBlocks(numEntries, numBlocks),
+                    st.countBlocks(ScanPredicate.averageRating(minRating, maxRating)));
+            if (ratingNodes + blocks + BATCH_COST < bestCost) {
+                best = Plan.AVERAGE_RATING_INDEX;
+                bestCost = setEstimates(blocks, ratingNodes) + BATCH_COST;
+            }
+        }
+        if (votesIndex != null && ratingIndex != null) {
+            double blocks = Math.min(distinctBlocks(estimatedRecords, numBlocks), scanBlocks);
+            if (votesNodes + ratingNodes + blocks + BATCH_COST < bestCost) {
+                best = Plan.INDEX_INTERSECTION;
+                setEstimates(blocks, votesNodes + ratingNodes);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Keep the estimated accesses of the cheapest plan found so far
+     * @param blocks estimated number of block reads
+     * @param nodes estimated number of node reads
+     * @return estimated cost of the plan, excluding the cost of batching
+     */
+    private double setEstimates(double blocks, double nodes) {
+        estimatedBlocks = blocks;
+        estimatedNodes = nodes;
+        return blocks + nodes;
+    }
+
+    /**
+     * Estimate the fraction of records with an attribute within bounds, from the histogram of the attribute if
+     * it is built, otherwise from its index
+     * @param attribute attribute of the records
+     * @param index index on the attribute, null if there is none
+     * @param lower lower bound as a key value, inclusive
+     * @param upper upper bound as a key value, inclusive
+     * @return estimated selectivity, 1 if there is neither a histogram nor an index
+     */
+    private double estimateSelectivity(IndexAttribute attribute, BPlusTree index, int lower, int upper) {
+        Histogram histogram = st.getHistogram(attribute);
+        if (histogram != null) return histogram.estimateSelectivity(lower, upper);
+        return index != null ? index.estimateSelectivity(lower, upper) : 1;
+    }
+
+    /**
+     * Estimate the number of nodes read to find the entries matching a range
+     * @param index index to search
+     * @param numEntries estimated number of matching entries
+     * @return estimated number of node accesses
+     */
+    private static double indexCost(BPlusTree index, double numEntries) {
+        return index.getHeight() + numEntries / index.getMaxKeysLeaf();
+    }
+
+    /**
+     * Estimate the number of distinct blocks holding records picked at random, using Cardenas' formula
+     * @param numRecords number of records
+     * @param numBlocks number of blocks
+     * @return expected number of distinct blocks
+     */
+    private static double distinctBlocks(double numRecords, double numBlocks) {
+        if (numBlocks == 0) return 0;
+        return numBlocks * (1 - Math.pow(1 - 1 / numBlocks, numRecords));
+    }
+
+    /**
+     * Read the records of an index range one at a time in key order, keeping those matching both predicates
+     * @param addresses packed record addresses in key order
+     * @param minVotes lower bound of numVotes, inclusive
+     * @param maxVotes upper bound of numVotes, inclusive
+     * @param minRating lower bound of averageRating, inclusive
+     * @param maxRating upper bound of averageRating, inclusive
+     * @return list of matching records, in key order
+     */
+    private List<Record> readInKeyOrder(LongList addresses, int minVotes, int maxVotes,
+                                        float minRating, float maxRating) {
+        List<Record> result = new ArrayList<>();
+        for (int i = 0; i < addresses.size(); ++i) {
+            Record record = st.readRecord(addresses.get(i));
+            if (matches(record, minVotes, maxVotes, minRating, maxRating)) result.add(record);
+        }
+        return result;
+    }
+
+    /**
+     * Find the addresses found by both indexes
+     * @param a packed record addresses
+     * @param b packed record addresses
+     * @return packed record addresses in both lists, in ascending order
+     */
+    private static LongList intersect(LongList a, LongList b) {
+        long[] sortedA = a.toArray();
+        long[] sortedB = b.toArray();
+        Arrays.sort(sortedA);
+        Arrays.sort(sortedB);
+
+        LongList result = new LongList();
+        for (int i = 0, j = 0; i < sortedA.length && j < sortedB.length; ) {
+            if (sortedA[i] < sortedB[j]) {
+                ++i;
+            } else if (sortedA[i] > sortedB[j]) {
+                ++j;
+            } else {
+                result.add(sortedA[i]);
+                ++i;
+                ++j;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check if a record satisfies both predicates
+     * @param record record to check
+     * @param minVotes lower bound of numVotes, inclusive
+     * @param maxVotes upper bound of numVotes, inclusive
+     * @param minRating lower bound of averageRating, inclusive
+     * @param maxRating upper bound of averageRating, inclusive
+     * @return true if the record matches
+     */
+    private static boolean matches(Record record, int minVotes, int maxVotes, float minRating, float maxRating) {
+        return minVotes <= record.getNumVotes() && record.getNumVotes() <= maxVotes
+                && minRating <= record.getAvgRating() && record.getAvgRating() <= maxRating;
+    }
+
+    /**
+     * Estimated and actual accesses of a query
+     */
+    public static class Explain {
+
+        private final Plan plan;
+        private final double estimatedRecords;
+        private final double estimatedBlocks;
+        private final double estimatedNodes;
+        private final int actualRecords;
+        private final int actualBlocks;
+        private final int actualNodes;
+
+        Explain(Plan plan, double estimatedRecords, double estimatedBlocks, double estimatedNodes,
+                int actualRecords, int actualBlocks, int actualNodes) {
+            this.plan = plan;
+            this.estimatedRecords = estimatedRecords;
+            this.estimatedBlocks = estimatedBlocks;
+            this.estimatedNodes = estimatedNodes;
+            this.actualRecords = actualRecords;
+            this.actualBlocks = actualBlocks;
+            this.actualNodes = actualNodes;
+        }
+
+        public Plan getPlan() {
+            return plan;
+        }
+
+        public double getEstimatedRecords() {
+            return estimatedRecords;
+        }
+
+        public double getEstimatedBlocks() {
+            return estimatedBlocks;
+        }
+
+        public double getEstimatedNodes() {
+            return estimatedNodes;
+        }
+
+        public int getActualRecords() {
+            return actualRecords;
+        }
+
+        public int getActualBlocks() {
+            return actualBlocks;
+        }
+
+        public int getActualNodes() {
+            return actualNodes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: estimated %.0f records, %.0f blocks, %.0f nodes; actual %d records, "
+                            + "%d blocks, %d nodes", plan, estimatedRecords, estimatedBlocks, estimatedNodes,
+                    actualRecords, actualBlocks, actualNodes);
+        }
+    }
+
+    /**
+     * Get the plan chosen for the last query
+     * @return plan of the last query, null if no query was run
+     */
+    public Plan getLastPlan() {
+        return lastPlan;
+    }
+}
@@ -0,0 +1,111 @@
+package com.cz4031;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Class representing a lazy cursor over the packed record addresses of the entries of a B+ tree with a key value
+ * within a range.
+ * The cursor descends to the leaf node possibly containing the lower bound once, then walks the leaf nodes
+ * through their right siblings as entries are consumed, so only the current leaf node is referenced.
+ */
+public class RangeCursor implements PrimitiveIterator.OfLong {
+
+    /**
+     * Current leaf node, null if the cursor is exhausted
+     */
+    private LeafNode leaf;
+
+    /**
+     * Index of the next entry in the current leaf node
+     */
+    private int index;
+
+    /**
+     * Lower bound of the key value, inclusive (numVotes)
+     */
+    private final int lower;
+
+    /**
+     * Upper bound of the key value, inclusive (numVotes)
+     */
+    private final int upper;
+
+    /**
+     * Storage, for logging purposes
+     */
+    private final Storage st;
+
+    /**
+     * Construct a cursor positioned before the first entry with a key value not lower than the lower bound
+     * @param bpt B+ tree to iterate
+     * @param lower lower bound of the key value, inclusive (numVotes)
+     * @param upper upper bound of the key value, inclusive (numVotes)
+     * @param st storage, for logging purposes
+     */
+    public RangeCursor(BPlusTree bpt, int lower, int upper, Storage st) {
+        this.lower = lower;
+        this.upper = upper;
+        this.st = st;
+
+        // Traverse to the leftmost leaf node possibly containing the lower bound
+        Node node = bpt.getRoot();
+        while (node instanceof InternalNode) {
+            st.logNodeAccess(node);
+            InternalNode curNode = (InternalNode) node;
+            node = curNode.getPointers()[bpt.findIndexOfNode(curNode, lower)];
+        }
+        leaf = (LeafNode) node;
+        if (leaf != null) st.logNodeAccess(leaf);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (leaf != null) {
+            if (index < leaf.getDegree()) {
+                int curK1 = leaf.getKeys().getK1(index);
+                if (curK1 > upper) {
+                    // Finish iteration once a key value is higher than the upper bound
+                    leaf = null;
+                } else if (curK1 < lower) {
+                    ++index;
+                } else {
+                    return true;
+                }
+            } else {
+                // Iterate to right sibling of leaf node
+                leaf = leaf.getRightSibling();
+                index = 0;
+                if (leaf != null) st.logNodeAccess(leaf);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long nextLong() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return leaf.getAddresses()[index++];
+    }
+
+    /**
+     * Skip entries without returning them
+     * @param n maximum number of entries to skip
+     * @return number of entries skipped, lower than n if the cursor is exhausted
+     */
+    public long skip(long n) {
+        long skipped = 0;
+        while (skipped < n && hasNext()) {
+            // Skip the rest of the current leaf node at once if it is within the range
+            int remaining = leaf.getDegree() - index;
+            if (remaining <= n - skipped && leaf.getKeys().getK1(leaf.getDegree() - 1) <= upper) {
+                skipped += remaining;
+                index = leaf.getDegree();
+            } else {
+                ++index;
+                ++skipped;
+            }
+        }
+        return skipped;
+    }
+}
@@ -1,7 +1,9 @@
 package com.cz4031;
 
 /**
- * Class representing the logical address of a record
+ * Class representing the logical address of a record.
+ * The index stores addresses packed into a long instead, with the block ID in the upper 32 bits and the record ID
+ * in the lower 32 bits, so that no object is needed per indexed record
  */
 public class RecordAddress {
 
@@ -25,6 +27,51 @@ public class RecordAddress {
         this.recordID = recordID;
     }
 
+    /**
+     * Pack a record address into a long
+     * @param blockID block id
+     * @param recordID record id
+     * @return packed address
+     */
+    public static long pack(int blockID, int recordID) {
+        return ((long) blockID << 32) | (recordID & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Get the block id of a packed address
+     * @param address packed address
+     * @return block id
+     */
+    public static int blockID(long address) {
+        return (int) (address >>> 32);
+    }
+
+    /**
+     * Get the record id of a packed address
+     * @param address packed address
+     * @return record id
+     */
+    public static int recordID(long address) {
+        return (int) address;
+    }
+
+    /**
+     * Unpack a packed address
+     * @param address packed address
+     * @return record address
+     */
+    public static RecordAddress unpack(long address) {
+        return new RecordAddress(blockID(address), recordID(address));
+    }
+
+    /**
+     * Pack this address into a long
+     * @return packed address
+     */
+    public long pack() {
+        return pack(blockID, recordID);
+    }
+
     public int getBlockID() {
         return blockID;
     }
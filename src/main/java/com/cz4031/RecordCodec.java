@@ -0,0 +1,406 @@
+package com.cz4031;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class defining how the records of a block are serialized. A storage uses one codec for all its blocks, and every
+ * record is located by the position of its block in a buffer and its record ID within the block.
+ * <p>
+ * The standard codec stores each record as a 1-byte empty flag, the 10 characters of tconst as ASCII bytes,
+ * averageRating as a float and numVotes as an int (19 bytes). The compact codec stores tconst as the int value of
+ * its digits, averageRating as a byte scaled by 10 and numVotes as an int (9 bytes), with the empty flags of the
+ * block in a bitmap at the start of the block, so that a block holds about twice as many records.
+ */
+public abstract class RecordCodec {
+
+    /**
+     * Size of one block
+     */
+    private final int blockSize;
+
+    /**
+     * Size of one record, excluding its share of the bitmap
+     */
+    private final int recordSize;
+
+    /**
+     * Maximum number of records in a block
+     */
+    private final int recordsPerBlock;
+
+    private RecordCodec(int blockSize, int recordSize, int recordsPerBlock) {
+        if (recordsPerBlock < 1) throw new IllegalArgumentException("Block size is too small to hold a record");
+        this.blockSize = blockSize;
+        this.recordSize = recordSize;
+        this.recordsPerBlock = recordsPerBlock;
+    }
+
+    /**
+     * Construct the standard codec, storing each record in 19 bytes
+     * @param blockSize size of one block
+     * @param recordSize size of one record, at least 19, any bytes after the first 19 are left unused
+     * @return standard codec
+     */
+    public static RecordCodec standard(int blockSize, int recordSize) {
+        if (recordSize < Standard.SIZE) {
+            throw new IllegalArgumentException("Record size must be at least " + Standard.SIZE);
+        }
+        return new Standard(blockSize, recordSize);
+    }
+
+    /**
+     * Construct the compact codec, storing each record in 9 bytes and a bit. Only records whose tconst is "tt"
+     * followed by at least 7 digits, without leading zeros beyond 7 digits, and whose averageRating has one decimal
+     * place between 0 and 12.7 can be stored
+     * @param blockSize size of one block
+     * @return compact codec
+     */
+    public static RecordCodec compact(int blockSize) {
+        return new Compact(blockSize);
+    }
+
+    /**
+     * Mark every slot of a block as empty
+     * @param buf buffer containing the block
+     * @param blockOffset position of the block in the buffer
+     */
+    public abstract void clearBlock(ByteBuffer buf, int blockOffset);
+
+    /**
+     * Check whether a slot is empty
+     * @param buf buffer containing the block
+     * @param blockOffset position of the block in the buffer
+     * @param recordID ID of record relative to the block
+     * @return true if the slot holds no record
+     */
+    public abstract boolean isEmpty(ByteBuffer buf, int blockOffset, int recordID);
+
+    /**
+     * Mark a slot as empty or holding a record, without changing its values
+     * @param buf buffer containing the block
+     * @param blockOffset position of the block in the buffer
+     * @param recordID ID of record relative to the block
+     * @param empty empty flag
+     */
+    public abstract void setEmpty(ByteBuffer buf, int blockOffset, int recordID, boolean empty);
+
+    /**
+     * Decode the numVotes of a record, without decoding the rest of the record
+     * @param buf buffer containing the block
+     * @param blockOffset position of the block in the buffer
+     * @param recordID ID of record relative to the block
+     * @return numVotes
+     */
+    public abstract int getNumVotes(ByteBuffer buf, int blockOffset, int recordID);
+
+    /**
+     * Decode the averageRating of a record, without decoding the rest of the record
+     * @param buf buffer containing the block
+     * @param blockOffset position of the block in the buffer
+     * @param recordID ID of record relative to the block
+     * @return averageRating
+     */
+    public abstract float getAvgRating(ByteBuffer buf, int blockOffset, int recordID);
+
+    /**
+     * Decode the tconst of a record
+     * @param buf buffer containing the block
+     * @param blockOffset position of the block in the buffer
+     * @param recordID ID of record relative to the block
+     * @param tconst array to be overwritten with tconst, padded with zeroes
+     */
+    protected abstract void readTconst(ByteBuffer buf, int blockOffset, int recordID, char[] tconst);
+
+    /**
+     * Encode the values of a record into a slot, without changing its empty flag
+     * @param buf buffer containing the block
+     * @param blockOffset position of the block in the buffer
+     * @param recordID ID of record relative to the block
+     * @param tconst tconst, padded with zeroes
+     * @param avgRating averageRating
+     * @param numVotes numVotes
+     * @throws IllegalArgumentException if the codec cannot store the values
+     */
+    public abstract void writeValues(ByteBuffer buf, int blockOffset, int recordID, char[] tconst, float avgRating,
+                                     int numVotes);
+
+    /**
+     * Check that the codec can store the values of a record, without writing them, so that a record can be
+     * rejected before a slot is allocated for it
+     * @param tconst tconst, padded with zeroes
+     * @param avgRating averageRating
+     * @throws IllegalArgumentException if the codec cannot store the values
+     */
+    public void checkValues(char[] tconst, float avgRating) {
+    }
+
+    /**
+     * Decode a single record, without decoding the rest of the block
+     * @param buf buffer containing the block
+     * @param blockOffset position of the block in the buffer
+     * @param recordID ID of record relative to the block
+     * @param record record to be overwritten with the decoded values, its tconst array is reused
+     * @return the given record
+     */
+    public Record read(ByteBuffer buf, int blockOffset, int recordID, Record record) {
+        record.setEmpty(isEmpty(buf, blockOffset, recordID));
+        readTconst(buf, blockOffset, recordID, record.getTconst());
+        record.setAvgRating(getAvgRating(buf, blockOffset, recordID));
+        record.setNumVotes(getNumVotes(buf, blockOffset, recordID));
+        return record;
+    }
+
+    /**
+     * Encode a record into a slot, the values of an empty record are not stored
+     * @param buf buffer containing the block
+     * @param blockOffset position of the block in the buffer
+     * @param recordID ID of record relative to the block
+     * @param record record to encode
+     * @throws IllegalArgumentException if the codec cannot store the values of a non-empty record
+     */
+    public void write(ByteBuffer buf, int blockOffset, int recordID, Record record) {
+        if (!record.isEmpty()) {
+            writeValues(buf, blockOffset, recordID, record.getTconst(), record.getAvgRating(), record.getNumVotes());
+        }
+        setEmpty(buf, blockOffset, recordID, record.isEmpty());
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    public int getRecordsPerBlock() {
+        return recordsPerBlock;
+    }
+
+    /**
+     * Codec storing the empty flag and the values of each record in consecutive slots
+     */
+    private static final class Standard extends RecordCodec {
+
+        /**
+         * Size of the serialized values, and their positions relative to the start of a slot
+         */
+        private static final int SIZE = 19;
+        private static final int TCONST_OFFSET = 1;
+        private static final int RATING_OFFSET = TCONST_OFFSET + Key.K2_LENGTH;
+        private static final int NUM_VOTES_OFFSET = RATING_OFFSET + 4;
+
+        private Standard(int blockSize, int recordSize) {
+            super(blockSize, recordSize, blockSize / recordSize);
+        }
+
+        private int offset(int blockOffset, int recordID) {
+            return blockOffset + recordID * getRecordSize();
+        }
+
+        @Override
+        public void clearBlock(ByteBuffer buf, int blockOffset) {
+            for (int recordID = 0; recordID < getRecordsPerBlock(); ++recordID) {
+                buf.put(offset(blockOffset, recordID), (byte) 1);
+            }
+        }
+
+        @Override
+        public boolean isEmpty(ByteBuffer buf, int blockOffset, int recordID) {
+            return buf.get(offset(blockOffset, recordID)) == 1;
+        }
+
+        @Override
+        public void setEmpty(ByteBuffer buf, int blockOffset, int recordID, boolean empty) {
+            buf.put(offset(blockOffset, recordID), empty ? (byte) 1 : (byte) 0);
+        }
+
+        @Override
+        public int getNumVotes(ByteBuffer buf, int blockOffset, int recordID) {
+            return buf.getInt(offset(blockOffset, recordID) + NUM_VOTES_OFFSET);
+        }
+
+        @Override
+        public float getAvgRating(ByteBuffer buf, int blockOffset, int recordID) {
+            return buf.getFloat(offset(blockOffset, recordID) + RATING_OFFSET);
+        }
+
+        @Override
+        protected void readTconst(ByteBuffer buf, int blockOffset, int recordID, char[] tconst) {
+            int offset = offset(blockOffset, recordID) + TCONST_OFFSET;
+            for (int i = 0; i < tconst.length; ++i) {
+                tconst[i] = (char) buf.get(offset + i);
+            }
+        }
+
+        @Override
+        public void writeValues(ByteBuffer buf, int blockOffset, int recordID, char[] tconst, float avgRating,
+                                int numVotes) {
+            int offset = offset(blockOffset, recordID);
+            for (int i = 0; i < Key.K2_LENGTH; ++i) {
+                char c = i < tconst.length ? tconst[i] : 0;
+                buf.put(offset + TCONST_OFFSET + i, c < 0x80 ? (byte) c : (byte) '?');
+            }
+            buf.putFloat(offset + RATING_OFFSET, avgRating);
+            buf.putInt(offset + NUM_VOTES_OFFSET, numVotes);
+        }
+
+        @Override
+        public void write(ByteBuffer buf, int blockOffset, int recordID, Record record) {
+            // The values of an empty record are kept, as every value can be stored
+            writeValues(buf, blockOffset, recordID, record.getTconst(), record.getAvgRating(), record.getNumVotes());
+            setEmpty(buf, blockOffset, recordID, record.isEmpty());
+        }
+    }
+
+    /**
+     * Codec storing the empty flags of a block in a bitmap at its start, followed by the numeric values of each record
+     */
+    private static final class Compact extends RecordCodec {
+
+        /**
+         * Size of the serialized values, and their positions relative to the start of a slot
+         */
+        private static final int SIZE = 9;
+        private static final int TCONST_OFFSET = 0;
+        private static final int NUM_VOTES_OFFSET = 4;
+        private static final int RATING_OFFSET = 8;
+
+        /**
+         * Prefix of every tconst, and minimum number of digits after it
+         */
+        private static final String PREFIX = "tt";
+        private static final int MIN_DIGITS = 7;
+
+        /**
+         * Size of the bitmap at the start of each block, a set bit indicates that the slot holds a record
+         */
+        private final int bitmapSize;
+
+        private Compact(int blockSize) {
+            super(blockSize, SIZE, recordsPerBlock(blockSize));
+            bitmapSize = (getRecordsPerBlock() + 7) / 8;
+        }
+
+        /**
+         * Find the largest number of records fitting in a block together with their bitmap
+         * @param blockSize size of one block
+         * @return number of records
+         */
+        private static int recordsPerBlock(int blockSize) {
+            int n = blockSize / SIZE;
+            while (n > 0 && (n + 7) / 8 + n * SIZE > blockSize) --n;
+            return n;
+        }
+
+        private int offset(int blockOffset, int recordID) {
+            return blockOffset + bitmapSize + recordID * SIZE;
+        }
+
+        @Override
+        public void clearBlock(ByteBuffer buf, int blockOffset) {
+            for (int i = 0; i < bitmapSize; ++i) {
+                buf.put(blockOffset + i, (byte) 0);
+            }
+        }
+
+        @Override
+        public boolean isEmpty(ByteBuffer buf, int blockOffset, int recordID) {
+            return (buf.get(blockOffset + (recordID >>> 3)) & (1 << (recordID & 7))) == 0;
+        }
+
+        @Override
+        public void setEmpty(ByteBuffer buf, int blockOffset, int recordID, boolean empty) {
+            int position = blockOffset + (recordID >>> 3), mask = 1 << (recordID & 7);
+            byte bits = buf.get(position);
+            buf.put(position, (byte) (empty ? bits & ~mask : bits | mask));
+        }
+
+        @Override
+        public int getNumVotes(ByteBuffer buf, int blockOffset, int recordID) {
+            return buf.getInt(offset(blockOffset, recordID) + NUM_VOTES_OFFSET);
+        }
+
+        @Override
+        public float getAvgRating(ByteBuffer buf, int blockOffset, int recordID) {
+            // Dividing two exact values is correctly rounded, so the result is the same as parsing the rating
+            return buf.get(offset(blockOffset, recordID) + RATING_OFFSET) / 10.0f;
+        }
+
+        @Override
+        protected void readTconst(ByteBuffer buf, int blockOffset, int recordID, char[] tconst) {
+            int number = buf.getInt(offset(blockOffset, recordID) + TCONST_OFFSET);
+            int numDigits = MIN_DIGITS;
+            for (int rest = number / 10_000_000; rest > 0; rest /= 10) ++numDigits;
+            int length = PREFIX.length() + numDigits;
+
+            tconst[0] = PREFIX.charAt(0);
+            tconst[1] = PREFIX.charAt(1);
+            for (int i = length - 1; i >= PREFIX.length(); --i) {
+                tconst[i] = (char) ('0' + number % 10);
+                number /= 10;
+            }
+            for (int i = length; i < tconst.length; ++i) {
+                tconst[i] = 0;
+            }
+        }
+
+        @Override
+        public void writeValues(ByteBuffer buf, int blockOffset, int recordID, char[] tconst, float avgRating,
+                                int numVotes) {
+            int offset = offset(blockOffset, recordID);
+            buf.putInt(offset + TCONST_OFFSET, encodeTconst(tconst));
+            buf.putInt(offset + NUM_VOTES_OFFSET, numVotes);
+            buf.put(offset + RATING_OFFSET, encodeRating(avgRating));
+        }
+
+        @Override
+        public void checkValues(char[] tconst, float avgRating) {
+            encodeTconst(tconst);
+            encodeRating(avgRating);
+        }
+
+        /**
+         * Encode tconst as the value of its digits
+         * @param tconst tconst, padded with zeroes
+         * @return value of the digits after the prefix
+         * @throws IllegalArgumentException if decoding the value would not give back tconst
+         */
+        private static int encodeTconst(char[] tconst) {
+            int length = 0;
+            while (length < tconst.length && tconst[length] != 0) ++length;
+            int numDigits = length - PREFIX.length();
+            if (numDigits < MIN_DIGITS || tconst[0] != PREFIX.charAt(0) || tconst[1] != PREFIX.charAt(1)
+                    || (numDigits > MIN_DIGITS && tconst[PREFIX.length()] == '0')) {
+                throw new IllegalArgumentException("Cannot encode tconst " + new String(tconst, 0, length));
+            }
+
+            long number = 0;
+            for (int i = PREFIX.length(); i < length; ++i) {
+                char c = tconst[i];
+                if (c < '0' || c > '9') {
+                    throw new IllegalArgumentException("Cannot encode tconst " + new String(tconst, 0, length));
+                }
+                number = number * 10 + (c - '0');
+            }
+            if (number > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Cannot encode tconst " + new String(tconst, 0, length));
+            }
+            return (int) number;
+        }
+
+        /**
+         * Encode averageRating as a byte scaled by 10
+         * @param avgRating averageRating
+         * @return averageRating times 10
+         * @throws IllegalArgumentException if decoding the byte would not give back averageRating
+         */
+        private static byte encodeRating(float avgRating) {
+            int scaled = Math.round(avgRating * 10);
+            if (scaled < 0 || scaled > Byte.MAX_VALUE || scaled / 10.0f != avgRating) {
+                throw new IllegalArgumentException("Cannot encode averageRating " + avgRating);
+            }
+            return (byte) scaled;
+        }
+    }
+}
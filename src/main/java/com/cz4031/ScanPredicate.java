@@ -0,0 +1,108 @@
+package com.cz4031;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class representing a conjunction of inclusive ranges on numVotes and averageRating, evaluated by a full scan
+ * directly against the serialized records of a block, without decoding them. Its ranges are also compared with the
+ * zone map of each block, so that blocks without any matching record are skipped
+ */
+public class ScanPredicate {
+
+    /**
+     * Predicate matching every record
+     */
+    public static final ScanPredicate ALL = new ScanPredicate(Integer.MIN_VALUE, Integer.MAX_VALUE,
+            Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY);
+
+    /**
+     * Bounds of numVotes, inclusive
+     */
+    private final int minVotes;
+    private final int maxVotes;
+
+    /**
+     * Bounds of averageRating, inclusive
+     */
+    private final float minRating;
+    private final float maxRating;
+
+    /**
+     * Construct a predicate matching the records within both ranges
+     * @param minVotes lower bound of numVotes, inclusive
+     * @param maxVotes upper bound of numVotes, inclusive
+     * @param minRating lower bound of averageRating, inclusive
+     * @param maxRating upper bound of averageRating, inclusive
+     */
+    public ScanPredicate(int minVotes, int maxVotes, float minRating, float maxRating) {
+        this.minVotes = minVotes;
+        this.maxVotes = maxVotes;
+        this.minRating = minRating;
+        this.maxRating = maxRating;
+    }
+
+    /**
+     * Construct a predicate on numVotes only
+     * @param lower lower bound of numVotes, inclusive
+     * @param upper upper bound of numVotes, inclusive
+     * @return predicate matching the records with numVotes within the bounds
+     */
+    public static ScanPredicate numVotes(int lower, int upper) {
+        return new ScanPredicate(lower, upper, Float.NEGATIVE_INFINITY, Float.POSITIVE_INFINITY);
+    }
+
+    /**
+     * Construct a predicate on averageRating only
+     * @param lower lower bound of averageRating, inclusive
+     * @param upper upper bound of averageRating, inclusive
+     * @return predicate matching the records with averageRating within the bounds
+     */
+    public static ScanPredicate averageRating(float lower, float upper) {
+        return new ScanPredicate(Integer.MIN_VALUE, Integer.MAX_VALUE, lower, upper);
+    }
+
+    /**
+     * Combine with another predicate
+     * @param other predicate to combine with
+     * @return predicate matching the records matched by both predicates
+     */
+    public ScanPredicate and(ScanPredicate other) {
+        return new ScanPredicate(Math.max(minVotes, other.minVotes), Math.min(maxVotes, other.maxVotes),
+                Math.max(minRating, other.minRating), Math.min(maxRating, other.maxRating));
+    }
+
+    /**
+     * Evaluate the predicate on a serialized record
+     * @param codec codec serializing the records of the block
+     * @param buf buffer containing serialized data
+     * @param blockOffset position of the block in the buffer
+     * @param recordID ID of record relative to the block
+     * @return true if the slot holds a record matching the predicate
+     */
+    public boolean test(RecordCodec codec, ByteBuffer buf, int blockOffset, int recordID) {
+        if (codec.isEmpty(buf, blockOffset, recordID)) return false;
+        int numVotes = codec.getNumVotes(buf, blockOffset, recordID);
+        if (numVotes < minVotes || numVotes > maxVotes) return false;
+        float rating = codec.getAvgRating(buf, blockOffset, recordID);
+        return minRating <= rating && rating <= maxRating;
+    }
+
+    /**
+     * Check whether a block summarized by its zone may hold a matching record
+     * @param zoneMinVotes smallest numVotes in the block
+     * @param zoneMaxVotes largest numVotes in the block
+     * @param zoneMinRating smallest averageRating in the block
+     * @param zoneMaxRating largest averageRating in the block
+     * @return false if no record within the zone can match the predicate
+     */
+    public boolean overlaps(int zoneMinVotes, int zoneMaxVotes, float zoneMinRating, float zoneMaxRating) {
+        return zoneMinVotes <= maxVotes && minVotes <= zoneMaxVotes
+                && zoneMinRating <= maxRating && minRating <= zoneMaxRating;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d <= numVotes <= %d and %.1f <= averageRating <= %.1f", minVotes, maxVotes,
+                minRating, maxRating);
+    }
+}
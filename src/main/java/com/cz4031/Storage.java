@@ -3,40 +3,283 @@ package com.cz4031;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
 
+import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+public class Storage implements Closeable {
+    /**
+     * Size of the header at the start of a storage file, followed by the blocks
+     */
+    private static final int HEADER_SIZE = 4096;
+    private static final int HEADER_MAGIC = 0x435A3431;
+
+    /**
+     * Maximum number of blocks scanned by one task of a parallel scan, larger ranges are split in halves
+     */
+    private static final int SCAN_SPLIT_BLOCKS = 1024;
+
+    /**
+     * Number of buckets of each histogram built by analyze
+     */
+    private static final int HISTOGRAM_BUCKETS = 1000;
 
-public class Storage {
     private final int BLOCK_SIZE;
     private final int RECORD_SIZE;
     private final int NUM_OF_RECORD;
     private final int MEMORY_SIZE;
+    private final RecordCodec codec;
 
-    private byte[] blocks ;
+    private ByteBuffer buffer;
     private int blockTailIdx;
-    private LinkedList<RecordAddress> emptyRecord;
+    private FreeSpaceMap freeSpace;
+    private final ZoneMap zoneMap;
+
+    private FileChannel channel;
+    private MappedByteBuffer header;
+    private BufferPool pool;
+    private String logPath;
+    private WriteAheadLog wal;
 
     private BPlusTree bpt;
+    private final Map<String, BPlusTree> secondaryIndexes = new LinkedHashMap<>();
+    private HashIndex hashIndex;
+    private final Map<IndexAttribute, Histogram> histograms = new EnumMap<>(IndexAttribute.class);
+    private BPlusTree clusterIndex;
+    private double clusterFillFactor;
+    private boolean compressedLeaves;
+    private boolean coveringIndex;
     private AccessLogger accLog;
 
 
     public Storage(int blockSize, int recordSize, int memorySize) {
-        BLOCK_SIZE = blockSize;
-        RECORD_SIZE = recordSize;
-        NUM_OF_RECORD = BLOCK_SIZE / RECORD_SIZE;
+        this(RecordCodec.standard(blockSize, recordSize), memorySize);
+    }
+
+    /**
+     * Construct an in-memory storage whose records are serialized by a codec
+     * @param codec record codec, defining the block size and the number of records in a block
+     * @param memorySize maximum size of all blocks
+     */
+    public Storage(RecordCodec codec, int memorySize) {
+        this(codec, memorySize, ByteBuffer.allocate(memorySize));
+    }
+
+    private Storage(RecordCodec codec, int memorySize, ByteBuffer buffer) {
+        BLOCK_SIZE = codec.getBlockSize();
+        RECORD_SIZE = codec.getRecordSize();
+        NUM_OF_RECORD = codec.getRecordsPerBlock();
         MEMORY_SIZE = memorySize;
+        this.codec = codec;
 
-        blocks = new byte[MEMORY_SIZE];
+        this.buffer = buffer;
         blockTailIdx = -1;
-        emptyRecord = new LinkedList<>();
+        freeSpace = new FreeSpaceMap(NUM_OF_RECORD);
+        zoneMap = new ZoneMap(codec);
         accLog = new AccessLogger(this);
     }
 
+    /**
+     * Open a storage backed by a memory-mapped file, restoring its content if the file already exists.
+     * The file consists of a header storing the state of the storage, followed by the blocks. If a write-ahead
+     * log is left next to the file by a crash, the blocks it records are redone before the storage is used
+     * @param path path of storage file
+     * @param blockSize size of one block
+     * @param recordSize size of one record
+     * @param memorySize maximum size of all blocks
+     * @return storage backed by the file
+     * @throws IOException if the file cannot be mapped, it was created with different sizes, or its write-ahead
+     * log cannot be replayed
+     */
+    public static Storage open(String path, int blockSize, int recordSize, int memorySize) throws IOException {
+        return open(path, RecordCodec.standard(blockSize, recordSize), memorySize);
+    }
+
+    /**
+     * Open a storage backed by a memory-mapped file whose records are serialized by a codec, restoring its content
+     * if the file already exists
+     * @param path path of storage file
+     * @param codec record codec, defining the block size and the number of records in a block
+     * @param memorySize maximum size of all blocks
+     * @return storage backed by the file
+     * @throws IOException if the file cannot be mapped, it was created with different sizes or another codec, or
+     * its write-ahead log cannot be replayed
+     */
+    public static Storage open(String path, RecordCodec codec, int memorySize) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            boolean exists = channel.size() >= HEADER_SIZE;
+            Storage st = new Storage(codec, memorySize,
+                    channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE, memorySize));
+            st.channel = channel;
+            st.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+
+            if (exists) {
+                st.readHeader();
+            } else {
+                st.writeHeader();
+            }
+
+            st.logPath = path + ".wal";
+            if (Files.exists(Paths.get(st.logPath))) st.recover();
+            st.rebuildFreeSpace();
+            return st;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Restore the state of the storage from the header of the storage file
+     * @throws IOException if the file is not a storage file created with the same sizes
+     */
+    private void readHeader() throws IOException {
+        if (header.getInt(0) != HEADER_MAGIC || header.getInt(4) != BLOCK_SIZE
+                || header.getInt(8) != RECORD_SIZE || header.getInt(12) != MEMORY_SIZE) {
+            throw new IOException("Storage file does not match block size, record size or memory size");
+        }
+
+        blockTailIdx = header.getInt(16);
+    }
+
+    /**
+     * Redo the blocks recorded in the write-ahead log, then make them durable in the storage file and remove
+     * the log. Blocks created after the last flush extend the used blocks
+     * @throws IOException if the log cannot be read or the storage file cannot be written
+     */
+    private void recover() throws IOException {
+        WriteAheadLog.replay(logPath, BLOCK_SIZE, (blockID, data) -> {
+            updateBlock(blockID, data);
+            blockTailIdx = Math.max(blockTailIdx, blockID);
+        });
+        flush();
+        Files.delete(Paths.get(logPath));
+    }
+
+    /**
+     * Rebuild the free-space map from the empty flag of each record, and the zone map from the records
+     */
+    private void rebuildFreeSpace() {
+        freeSpace.clear();
+        for (int blockID = 0; blockID <= blockTailIdx; ++blockID) {
+            freeSpace.addBlock(blockID);
+            ByteBuffer buf = pinBlock(blockID);
+            zoneMap.update(blockID, buf, blockOffset(blockID));
+            for (int recordID = 0; recordID < NUM_OF_RECORD; ++recordID) {
+                if (!codec.isEmpty(buf, blockOffset(blockID), recordID)) {
+                    freeSpace.markUsed(blockID, recordID);
+                }
+            }
+            unpinBlock(blockID, false);
+        }
+    }
+
+    /**
+     * Save the state of the storage to the header of the storage file
+     */
+    private void writeHeader() {
+        header.putInt(0, HEADER_MAGIC);
+        header.putInt(4, BLOCK_SIZE);
+        header.putInt(8, RECORD_SIZE);
+        header.putInt(12, MEMORY_SIZE);
+        header.putInt(16, blockTailIdx);
+
+        // Free slots are not stored, they are rebuilt from the empty flags when the file is opened
+    }
+
+    /**
+     * Write the state and blocks of the storage to the storage file, no-op if the storage is not file-backed.
+     * Records of the write-ahead log are removed, since the blocks they describe are durable
+     */
+    public void flush() {
+        if (pool != null) pool.flush();
+        if (channel == null) return;
+        writeHeader();
+        header.force();
+        ((MappedByteBuffer) buffer).force();
+
+        if (wal != null) {
+            try {
+                wal.truncate();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Log every block written from now on to a write-ahead log next to the storage file, committing the log
+     * records in groups. Blocks written before are flushed first. After a crash, the blocks of every committed
+     * group are redone when the storage is opened, blocks of the last uncommitted group may or may not be.
+     * Indexes are not logged, they are rebuilt from the recovered records
+     * @param groupSize number of block writes committed together by one force of the log
+     * @throws IOException if the log cannot be opened
+     * @throws IllegalStateException if the storage is not file-backed
+     */
+    public void enableWriteAheadLog(int groupSize) throws IOException {
+        if (channel == null) throw new IllegalStateException("Write-ahead log requires a file-backed storage");
+        if (wal != null) wal.close();
+        wal = null;
+        flush();
+        wal = WriteAheadLog.open(logPath, BLOCK_SIZE, groupSize);
+        wal.truncate();
+    }
+
+    /**
+     * Commit the block writes logged since the last commit, no-op if the write-ahead log is not enabled
+     * @throws IOException if the log cannot be forced
+     */
+    public void syncLog() throws IOException {
+        if (wal != null) wal.sync();
+    }
+
+    public WriteAheadLog getWriteAheadLog() {
+        return wal;
+    }
+
+    /**
+     * Flush and close the storage file, no-op if the storage is not file-backed
+     * @throws IOException if the file cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel == null) return;
+        flush();
+        if (wal != null) {
+            wal.close();
+            wal = null;
+        }
+        channel.close();
+        channel = null;
+    }
+
     public void initWithTSV(String path) {
         try {
             Reader in = new FileReader(path);
@@ -58,47 +301,582 @@ public class Storage {
     }
 
     /**
-     * Build B+ tree on database by inserting the records from database sequentially
+     * Load records from a TSV file using multiple threads, appending them to new blocks in the order of the file.
+     * Empty slots in existing blocks are not reused. The loaded blocks are not logged, they are flushed instead
+     * if the write-ahead log is enabled
+     * @param path path of TSV file
+     * @param numThreads number of threads parsing the file
+     * @return number of records loaded
+     * @throws IOException if the file cannot be read or contains a malformed row, in which case no record is loaded
+     * @throws IllegalStateException if the storage is clustered, since records would be appended out of order, or
+     * if the hash index is built, since the loaded rows could not be checked for duplicate tconst before they are
+     * stored
+     */
+    public int loadTSV(String path, int numThreads) throws IOException {
+        if (clusterIndex != null) {
+            throw new IllegalStateException("Records of a clustered storage must be created in order");
+        }
+        if (hashIndex != null) {
+            throw new IllegalStateException("The hash index must be built after loading, or dropped before loading");
+        }
+        int firstBlockID = blockTailIdx + 1;
+        int numRecords;
+        try {
+            numRecords = TSVLoader.load(this, path, numThreads);
+        } catch (IOException | RuntimeException e) {
+            // Release the blocks reserved by the loader, so that a failed load leaves the storage unchanged
+            for (int blockID = firstBlockID; blockID <= blockTailIdx; ++blockID) {
+                for (int recordID = 0; recordID < NUM_OF_RECORD; ++recordID) {
+                    freeSpace.free(blockID, recordID);
+                }
+                codec.clearBlock(buffer, blockID * BLOCK_SIZE);
+            }
+            truncateBlocks(firstBlockID);
+            throw e;
+        }
+
+        // The loader fills the appended blocks directly, so their zones are computed once they are filled
+        for (int blockID = firstBlockID; blockID <= blockTailIdx; ++blockID) {
+            ByteBuffer buf = pinBlock(blockID);
+            zoneMap.update(blockID, buf, blockOffset(blockID));
+            unpinBlock(blockID, false);
+        }
+
+        // The loaded rows are not added to the histograms one at a time, so they are rebuilt if they are built
+        if (!histograms.isEmpty()) analyze();
+        if (wal != null) flush();
+        return numRecords;
+    }
+
+    /**
+     * Build B+ tree on database by bulk loading the records sorted by key, with fully packed nodes
      */
     public void buildIndex() {
-        bpt = new BPlusTree(Util.getNFromBlockSize(BLOCK_SIZE), this);
+        buildIndex(1.0);
+    }
+
+    /**
+     * Build B+ tree on database by sorting the records by key and bulk loading them bottom-up, and rebuild the
+     * histograms used by the query planner
+     * @param fillFactor fraction of each node to be filled, between 0 (exclusive) and 1 (inclusive)
+     */
+    public void buildIndex(double fillFactor) {
+        bpt = bulkLoadIndex(IndexAttribute.NUM_VOTES, fillFactor);
+        analyze();
+    }
+
+    /**
+     * Build a secondary B+ tree on an attribute of the records, with fully packed nodes. Like the primary index,
+     * it is used by the query planner and kept consistent by deleteBPT, but new records must be inserted into it
+     * by the caller
+     * @param name name of the index, replacing any secondary index with the same name
+     * @param attribute attribute to index
+     */
+    public void buildIndex(String name, IndexAttribute attribute) {
+        secondaryIndexes.put(name, bulkLoadIndex(attribute, 1.0));
+        analyze();
+    }
+
+    /**
+     * Build an equi-depth histogram on every attribute that can be indexed, from the records in storage. Once
+     * built, the histograms are kept approximately current by createRecord and deleteRecord, which rebuild them
+     * when they become stale
+     */
+    public void analyze() {
+        IndexAttribute[] attributes = IndexAttribute.values();
+        int[][] values = new int[attributes.length][(int) getNumRecords()];
+        int numRecords = 0;
+        Record record = new Record();
         for (int blockID = 0; blockID <= blockTailIdx; ++blockID) {
-            Block block = Block.fromByteArray(readBlock(blockID), RECORD_SIZE);
+            ByteBuffer buf = pinBlock(blockID);
             for (int recordID = 0; recordID < NUM_OF_RECORD; ++recordID) {
-                Record record = block.readRecord(recordID);
+                if (codec.read(buf, blockOffset(blockID), recordID, record).isEmpty()) continue;
+                for (int i = 0; i < attributes.length; ++i) {
+                    values[i][numRecords] = attributes[i].keyOf(record);
+                }
+                ++numRecords;
+            }
+            unpinBlock(blockID, false);
+        }
+
+        for (int i = 0; i < attributes.length; ++i) {
+            Arrays.sort(values[i]);
+            histograms.put(attributes[i], Histogram.build(values[i], HISTOGRAM_BUCKETS));
+        }
+    }
+
+    /**
+     * Check whether a histogram has changed enough since it was built that it should be rebuilt
+     * @return true if any histogram is stale
+     */
+    private boolean isHistogramStale() {
+        for (Histogram histogram : histograms.values()) {
+            if (histogram.isStale()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get the histogram of an attribute
+     * @param attribute attribute of the records
+     * @return histogram, or null if analyze has not been run
+     */
+    public Histogram getHistogram(IndexAttribute attribute) {
+        return histograms.get(attribute);
+    }
+
+    /**
+     * Build a B+ tree on an attribute by sorting the records by key and bulk loading them bottom-up
+     * @param attribute attribute to index
+     * @param fillFactor fraction of each node to be filled, between 0 (exclusive) and 1 (inclusive)
+     * @return B+ tree
+     */
+    private BPlusTree bulkLoadIndex(IndexAttribute attribute, double fillFactor) {
+        List<KeyValuePair> entries = new ArrayList<>();
+        Record record = new Record();
+        for (int blockID = 0; blockID <= blockTailIdx; ++blockID) {
+            ByteBuffer buf = pinBlock(blockID);
+            for (int recordID = 0; recordID < NUM_OF_RECORD; ++recordID) {
+                codec.read(buf, blockOffset(blockID), recordID, record);
                 if (!record.isEmpty()) {
-                    bpt.insert(record, new RecordAddress(blockID, recordID));
+                    Key key = new Key(attribute.keyOf(record), record.getTconst());
+                    entries.add(new KeyValuePair(key, RecordAddress.pack(blockID, recordID), record.getAvgRating()));
                 }
             }
+            unpinBlock(blockID, false);
+        }
+
+        KeyValuePair[] sorted = entries.toArray(new KeyValuePair[0]);
+        Arrays.sort(sorted);
+        Key[] keys = new Key[sorted.length];
+        long[] addresses = new long[sorted.length];
+        float[] ratings = new float[sorted.length];
+        for (int i = 0; i < sorted.length; ++i) {
+            keys[i] = sorted[i].getKey();
+            addresses[i] = sorted[i].getAddress();
+            ratings[i] = sorted[i].getRating();
+        }
+
+        BPlusTree tree = new BPlusTree(Util.getNFromBlockSize(BLOCK_SIZE), this, compressedLeaves, coveringIndex,
+                attribute);
+        tree.bulkLoad(keys, addresses, ratings, fillFactor);
+        return tree;
+    }
+
+    /**
+     * Build B+ tree on database by inserting the records from database sequentially
+     */
+    public void buildIndexByInsertion() {
+        bpt = new BPlusTree(Util.getNFromBlockSize(BLOCK_SIZE), this, compressedLeaves, coveringIndex,
+                IndexAttribute.NUM_VOTES);
+        Record record = new Record();
+        for (int blockID = 0; blockID <= blockTailIdx; ++blockID) {
+            ByteBuffer buf = pinBlock(blockID);
+            for (int recordID = 0; recordID < NUM_OF_RECORD; ++recordID) {
+                codec.read(buf, blockOffset(blockID), recordID, record);
+                if (!record.isEmpty()) {
+                    bpt.insert(record, RecordAddress.pack(blockID, recordID));
+                }
+            }
+            unpinBlock(blockID, false);
+        }
+        analyze();
+    }
+
+    /**
+     * Choose whether B+ trees built afterwards have compressed leaf nodes, which store each distinct numVotes once
+     * and prefix-compress tconst, so that a leaf node of the same size holds more entries
+     * @param compressedLeaves whether leaf nodes are compressed
+     */
+    public void setCompressedLeaves(boolean compressedLeaves) {
+        this.compressedLeaves = compressedLeaves;
+    }
+
+    /**
+     * Choose whether B+ trees built afterwards are covering, storing averageRating in their leaf entries so that
+     * aggregateBPT reads no data block. Leaf nodes of the same size hold fewer entries
+     * @param coveringIndex whether leaf entries include averageRating
+     */
+    public void setCoveringIndex(boolean coveringIndex) {
+        this.coveringIndex = coveringIndex;
+    }
+
+    /**
+     * Discard the B+ tree, releasing its memory
+     */
+    public void dropIndex() {
+        bpt = null;
+    }
+
+    /**
+     * Build a hash index on tconst from the records in storage. Once built, it is maintained by createRecord
+     * and deleteRecord
+     * @throws IllegalArgumentException if two records have the same tconst
+     */
+    public void buildHashIndex() {
+        HashIndex index = new HashIndex(BLOCK_SIZE, this);
+        Record record = new Record();
+        for (int blockID = 0; blockID <= blockTailIdx; ++blockID) {
+            ByteBuffer buf = pinBlock(blockID);
+            for (int recordID = 0; recordID < NUM_OF_RECORD; ++recordID) {
+                codec.read(buf, blockOffset(blockID), recordID, record);
+                if (!record.isEmpty()) index.insert(record.getTconst(), RecordAddress.pack(blockID, recordID));
+            }
+            unpinBlock(blockID, false);
+        }
+        hashIndex = index;
+    }
+
+    /**
+     * Discard the hash index, so that records are no longer added to or removed from it
+     */
+    public void dropHashIndex() {
+        hashIndex = null;
+    }
+
+    public HashIndex getHashIndex() {
+        return hashIndex;
+    }
+
+    /**
+     * Discard a secondary B+ tree
+     * @param name name of the index
+     */
+    public void dropIndex(String name) {
+        secondaryIndexes.remove(name);
+    }
+
+    /**
+     * Get a secondary B+ tree by name
+     * @param name name of the index
+     * @return B+ tree, or null if there is no secondary index with the name
+     */
+    public BPlusTree getIndex(String name) {
+        return secondaryIndexes.get(name);
+    }
+
+    /**
+     * Find a B+ tree on an attribute, preferring the primary index
+     * @param attribute indexed attribute
+     * @return B+ tree, or null if no index is built on the attribute
+     */
+    public BPlusTree findIndex(IndexAttribute attribute) {
+        if (bpt != null && bpt.getAttribute() == attribute) return bpt;
+        for (BPlusTree index : secondaryIndexes.values()) {
+            if (index.getAttribute() == attribute) return index;
         }
+        return null;
     }
 
     /**
-     * Insert a new record into "disk storage"
+     * Write the nodes of the B+ tree to an index file, so that it can be loaded instead of being rebuilt
+     * @param path path of index file
+     * @throws IOException if the file cannot be written
+     */
+    public void saveIndex(String path) throws IOException {
+        IndexFile.write(bpt, path, NUM_OF_RECORD);
+    }
+
+    /**
+     * Load the B+ tree from an index file written by saveIndex
+     * @param path path of index file
+     * @throws IOException if the file cannot be read or was written for a different block size
+     */
+    public void loadIndex(String path) throws IOException {
+        BPlusTree loaded = IndexFile.read(path, this);
+        if (loaded.getN() != Util.getNFromBlockSize(BLOCK_SIZE)) {
+            throw new IOException("Index file does not match block size");
+        }
+        bpt = loaded;
+    }
+
+    /**
+     * Insert a new record into "disk storage", adding it to the hash index and histograms if they are built.
+     * In a clustered storage, the record is placed in the block covering its key
      * @param tConst data for the record
      * @param rating data for the record
      * @param numVotes data for the record
+     * @throws IllegalArgumentException if the hash index is built and already has a record with the tconst, or
+     * if the codec cannot store the values
      */
     public RecordAddress createRecord(String tConst, float rating, int numVotes) {
-        if(emptyRecord.isEmpty()) createBlock();
+        if (hashIndex != null && hashIndex.contains(tConst.toCharArray())) {
+            throw new IllegalArgumentException("Duplicate tconst " + tConst);
+        }
 
-        RecordAddress address = emptyRecord.element();
-        emptyRecord.remove();
+        // Reject values the codec cannot store before a slot or a block is allocated for them
+        codec.checkValues(tConst.toCharArray(), rating);
+
+        int blockID;
+        if (clusterIndex != null) {
+            blockID = findClusteredBlock(new Key(numVotes, tConst.toCharArray()));
+        } else {
+            // Prefer a partially filled block, and create a new block only if every block is full
+            blockID = freeSpace.findBlock();
+            if (blockID < 0) {
+                createBlock();
+                blockID = blockTailIdx;
+            }
+        }
+        RecordAddress address = new RecordAddress(blockID, freeSpace.allocate(blockID));
 
-        Block block = Block.fromByteArray(readBlock(address.getBlockID()), RECORD_SIZE);
+        Block block = Block.fromByteArray(readBlock(address.getBlockID()), codec);
         block.updateRecord(address.getRecordID(), tConst, rating, numVotes);
         updateBlock(address.getBlockID(), block.toByteArray());
 
+        if (hashIndex != null) hashIndex.insert(tConst.toCharArray(), address.pack());
+        Record record = block.readRecord(address.getRecordID());
+        for (Map.Entry<IndexAttribute, Histogram> histogram : histograms.entrySet()) {
+            histogram.getValue().add(histogram.getKey().keyOf(record));
+        }
+        if (isHistogramStale()) analyze();
         return address;
     }
 
+    /**
+     * Reorganize the records into fully packed blocks ordered by numVotes, then tconst, and keep them clustered:
+     * new records are placed in the block covering their key, splitting it if it is full. A sparse index holding
+     * the smallest key of each block locates the blocks of a key range. Built indexes are rebuilt, since every
+     * record may have moved
+     */
+    public void cluster() {
+        cluster(1.0);
+    }
+
+    /**
+     * Reorganize the records into blocks ordered by numVotes, then tconst, leaving free slots in each block for
+     * records inserted later, and keep them clustered
+     * @param fillFactor fraction of each block to be filled, between 0 (exclusive) and 1 (inclusive)
+     */
+    public void cluster(double fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new IllegalArgumentException("Fill factor must be between 0 (exclusive) and 1 (inclusive)");
+        }
+
+        // A record is fully described by its key and averageRating
+        List<KeyValuePair> entries = new ArrayList<>();
+        Record record = new Record();
+        for (int blockID = 0; blockID <= blockTailIdx; ++blockID) {
+            ByteBuffer buf = pinBlock(blockID);
+            for (int recordID = 0; recordID < NUM_OF_RECORD; ++recordID) {
+                codec.read(buf, blockOffset(blockID), recordID, record);
+                if (!record.isEmpty()) {
+                    Key key = new Key(record.getNumVotes(), record.getTconst());
+                    entries.add(new KeyValuePair(key, RecordAddress.pack(blockID, recordID), record.getAvgRating()));
+                }
+            }
+            unpinBlock(blockID, false);
+        }
+        KeyValuePair[] sorted = entries.toArray(new KeyValuePair[0]);
+        Arrays.sort(sorted);
+
+        // Rewrite the records in order from the first block, and empty the blocks after the last one
+        int perBlock = Math.max(1, (int) Math.round(NUM_OF_RECORD * fillFactor));
+        int numBlocks = (sorted.length + perBlock - 1) / perBlock;
+        Key[] firstKeys = new Key[numBlocks];
+        long[] blockAddresses = new long[numBlocks];
+        for (int blockID = 0; blockID <= Math.max(blockTailIdx, numBlocks - 1); ++blockID) {
+            Block block = Block.empty(codec);
+            for (int recordID = 0; recordID < perBlock && blockID * perBlock + recordID < sorted.length; ++recordID) {
+                KeyValuePair entry = sorted[blockID * perBlock + recordID];
+                block.updateRecord(recordID, entry.getKey().getK2(), entry.getRating(), entry.getKey().getK1(), false);
+            }
+            updateBlock(blockID, block.toByteArray());
+            if (blockID < numBlocks) {
+                firstKeys[blockID] = sorted[blockID * perBlock].getKey();
+                blockAddresses[blockID] = RecordAddress.pack(blockID, 0);
+            }
+        }
+        blockTailIdx = numBlocks - 1;
+        rebuildFreeSpace();
+
+        clusterFillFactor = fillFactor;
+        clusterIndex = new BPlusTree(Util.getNFromBlockSize(BLOCK_SIZE), this);
+        clusterIndex.bulkLoad(firstKeys, blockAddresses, 1.0);
+
+        if (bpt != null) bpt = bulkLoadIndex(IndexAttribute.NUM_VOTES, 1.0);
+        for (Map.Entry<String, BPlusTree> index : secondaryIndexes.entrySet()) {
+            index.setValue(bulkLoadIndex(index.getValue().getAttribute(), 1.0));
+        }
+        if (hashIndex != null) buildHashIndex();
+    }
+
+    /**
+     * Find the block of a clustered storage where a record with a key is placed, splitting the block if it is full
+     * @param key key of record (numVotes and tconst)
+     * @return ID of a block with a free slot
+     */
+    private int findClusteredBlock(Key key) {
+        if (clusterIndex.getRoot() == null) {
+            createBlock();
+            clusterIndex.insert(key, RecordAddress.pack(blockTailIdx, 0));
+            return blockTailIdx;
+        }
+
+        int blockID = RecordAddress.blockID(clusterIndex.searchFloor(key));
+        if (freeSpace.getNumUsed(blockID) < NUM_OF_RECORD) return blockID;
+
+        Key splitKey = splitBlock(blockID);
+        return key.compareTo(splitKey) < 0 ? blockID : blockTailIdx;
+    }
+
+    /**
+     * Split a full block of a clustered storage by moving the records with the larger half of the keys to a new
+     * block after the last block, updating their addresses in the indexes
+     * @param blockID ID of full block
+     * @return smallest key in the new block
+     */
+    private Key splitBlock(int blockID) {
+        Block block = Block.fromByteArray(readBlock(blockID), codec);
+        Integer[] order = new Integer[NUM_OF_RECORD];
+        Key[] keys = new Key[NUM_OF_RECORD];
+        for (int recordID = 0; recordID < NUM_OF_RECORD; ++recordID) {
+            Record record = block.readRecord(recordID);
+            order[recordID] = recordID;
+            keys[recordID] = new Key(record.getNumVotes(), record.getTconst());
+        }
+        Arrays.sort(order, Comparator.comparing(recordID -> keys[recordID]));
+
+        createBlock();
+        int newBlockID = blockTailIdx;
+        Block newBlock = Block.empty(codec);
+        int mid = NUM_OF_RECORD / 2;
+        for (int i = mid; i < NUM_OF_RECORD; ++i) {
+            int recordID = order[i], newRecordID = i - mid;
+            Record record = block.readRecord(recordID);
+            newBlock.updateRecord(newRecordID, record.getTconst(), record.getAvgRating(), record.getNumVotes(),
+                    false);
+            block.deleteRecord(recordID);
+            freeSpace.free(blockID, recordID);
+            freeSpace.markUsed(newBlockID, newRecordID);
+            relocate(record, RecordAddress.pack(blockID, recordID), RecordAddress.pack(newBlockID, newRecordID));
+        }
+        updateBlock(blockID, block.toByteArray());
+        updateBlock(newBlockID, newBlock.toByteArray());
+
+        clusterIndex.insert(keys[order[mid]], RecordAddress.pack(newBlockID, 0));
+        return keys[order[mid]];
+    }
+
+    /**
+     * Update the address of a record moved to another slot in every built index
+     * @param record moved record
+     * @param from packed address of record before the move
+     * @param to packed address of record after the move
+     */
+    void relocate(Record record, long from, long to) {
+        if (bpt != null) bpt.updateAddress(new Key(bpt.getAttribute().keyOf(record), record.getTconst()), from, to);
+        for (BPlusTree index : secondaryIndexes.values()) {
+            index.updateAddress(new Key(index.getAttribute().keyOf(record), record.getTconst()), from, to);
+        }
+        if (hashIndex != null) hashIndex.update(record.getTconst(), to);
+    }
+
+    /**
+     * Search for records with numVotes within the bounds in a clustered storage, reading only the blocks whose
+     * key range overlaps the bounds
+     * @param lower lower bound of numVotes, inclusive
+     * @param upper upper bound of numVotes, inclusive
+     * @return list of records, in order of numVotes, then tconst
+     * @throws IllegalStateException if the storage is not clustered
+     */
+    public List<Record> searchClustered(int lower, int upper) {
+        if (clusterIndex == null) throw new IllegalStateException("Storage is not clustered");
+
+        List<Record> result = new ArrayList<>();
+        LongList blocks = clusterIndex.searchSparse(lower, upper);
+        Record record = new Record();
+        for (int i = 0; i < blocks.size(); ++i) {
+            int blockID = RecordAddress.blockID(blocks.get(i));
+            accLog.addBlock(blockID);
+            ByteBuffer buf = pinBlock(blockID);
+            int start = result.size();
+            for (int recordID = 0; recordID < NUM_OF_RECORD; ++recordID) {
+                codec.read(buf, blockOffset(blockID), recordID, record);
+                if (!record.isEmpty() && lower <= record.getNumVotes() && record.getNumVotes() <= upper) {
+                    result.add(record);
+                    record = new Record();
+                }
+            }
+            unpinBlock(blockID, false);
+
+            // Records inserted after clustering are placed in any free slot of their block
+            result.subList(start, result.size()).sort(
+                    Comparator.comparing(matched -> new Key(matched.getNumVotes(), matched.getTconst())));
+        }
+        return result;
+    }
+
+    /**
+     * Compact the storage online, moving records from the last blocks into free slots of the first blocks and
+     * releasing the emptied blocks, with a pause between steps so that other work can proceed
+     * @param movesPerStep maximum number of records moved by a step
+     * @param pauseMillis pause between steps in milliseconds, 0 to run the steps back to back
+     * @return finished compaction, reporting the reclaimed space and elapsed time
+     * @throws InterruptedException if the thread is interrupted during a pause
+     */
+    public Compactor compact(int movesPerStep, long pauseMillis) throws InterruptedException {
+        return new Compactor(this).run(movesPerStep, pauseMillis);
+    }
+
+    /**
+     * Release the empty blocks after the first blocks, dropping their frames from the buffer pool so that the
+     * released blocks can be reserved by appendBlocks
+     * @param numBlocks number of blocks to keep
+     */
+    void truncateBlocks(int numBlocks) {
+        freeSpace.truncate(numBlocks);
+        if (pool != null) pool.discard(numBlocks);
+        blockTailIdx = numBlocks - 1;
+    }
+
+    FreeSpaceMap getFreeSpace() {
+        return freeSpace;
+    }
+
+    double getClusterFillFactor() {
+        return clusterFillFactor;
+    }
+
+    public boolean isClustered() {
+        return clusterIndex != null;
+    }
+
+    public BPlusTree getClusterIndex() {
+        return clusterIndex;
+    }
+
     /**
      * Read a record given its address
      * @param address address of record to get
      */
     public Record readRecord(RecordAddress address) {
-        accLog.addBlock(address);
-        return Block.fromByteArray(readBlock(address.getBlockID()), RECORD_SIZE).readRecord(address.getRecordID());
+        return readRecord(address.pack(), new Record());
+    }
+
+    /**
+     * Read a record given its packed address
+     * @param address packed address of record to get
+     */
+    public Record readRecord(long address) {
+        return readRecord(address, new Record());
+    }
+
+    /**
+     * Read a record given its packed address by decoding only its slot, overwriting a reusable record
+     * @param address packed address of record to get
+     * @param record record to be overwritten with the values of the stored record
+     * @return the given record
+     */
+    public Record readRecord(long address, Record record) {
+        int blockID = RecordAddress.blockID(address);
+        accLog.addBlock(blockID);
+        ByteBuffer buf = pinBlock(blockID);
+        try {
+            return codec.read(buf, blockOffset(blockID), RecordAddress.recordID(address), record);
+        } finally {
+            unpinBlock(blockID, false);
+        }
     }
 
     /**
@@ -106,11 +884,27 @@ public class Storage {
      * @param address address of record to be deleted
      */
     public void deleteRecord(RecordAddress address) {
-        Block block = Block.fromByteArray(readBlock(address.getBlockID()), RECORD_SIZE);
-        block.deleteRecord(address.getRecordID());
-        updateBlock(address.getBlockID(), block.toByteArray());
+        deleteRecord(address.pack());
+    }
+
+    /**
+     * Delete a record given its packed address, reallocate it for reuse, and remove it from the hash index
+     * and histograms if they are built
+     * @param address packed address of record to be deleted
+     */
+    public void deleteRecord(long address) {
+        int blockID = RecordAddress.blockID(address), recordID = RecordAddress.recordID(address);
+        Block block = Block.fromByteArray(readBlock(blockID), codec);
+        Record record = block.readRecord(recordID);
+        if (hashIndex != null) hashIndex.delete(record.getTconst());
+        for (Map.Entry<IndexAttribute, Histogram> histogram : histograms.entrySet()) {
+            histogram.getValue().remove(histogram.getKey().keyOf(record));
+        }
+        block.deleteRecord(recordID);
+        updateBlock(blockID, block.toByteArray());
 
-        emptyRecord.add(address);
+        freeSpace.free(blockID, recordID);
+        if (isHistogramStale()) analyze();
     }
 
     /**
@@ -118,20 +912,63 @@ public class Storage {
      */
     public void createBlock() {
         blockTailIdx++;
-        Block block = Block.empty(BLOCK_SIZE, RECORD_SIZE);
+        Block block = Block.empty(codec);
         updateBlock(blockTailIdx, block.toByteArray());
-        for(int recordID = 0; recordID < NUM_OF_RECORD ; ++recordID) {
-            emptyRecord.add(new RecordAddress(blockTailIdx, recordID));
+        freeSpace.addBlock(blockTailIdx);
+    }
+
+    /**
+     * Reserve new blocks after the last used block to be filled directly by a bulk loader, skipping the
+     * read-modify-write of createRecord. Every slot is initialized as empty, and the slots after the first
+     * numRecords slots are left free. The reserved blocks are not held by the buffer pool,
+     * since the frames of released blocks are dropped by truncateBlocks
+     * @param numBlocks number of blocks to reserve
+     * @param numRecords number of records to be filled from the first slot of the first reserved block
+     * @return buffer of the reserved blocks, starting at the first reserved block
+     */
+    ByteBuffer appendBlocks(int numBlocks, int numRecords) {
+        int firstBlockID = blockTailIdx + 1;
+        if ((long) (firstBlockID + numBlocks) * BLOCK_SIZE > buffer.capacity()) {
+            throw new IllegalStateException("Not enough memory for " + numBlocks + " more blocks");
         }
+        blockTailIdx += numBlocks;
+
+        ByteBuffer blocks = buffer.duplicate();
+        ((Buffer) blocks).position(firstBlockID * BLOCK_SIZE).limit((firstBlockID + numBlocks) * BLOCK_SIZE);
+        blocks = blocks.slice();
+        for (int i = 0; i < numBlocks; ++i) {
+            freeSpace.addBlock(firstBlockID + i);
+            codec.clearBlock(blocks, i * BLOCK_SIZE);
+        }
+
+        // The filled slots are marked here rather than by the loader, whose threads may share a block and could
+        // otherwise overwrite each other's bits of a bitmap
+        for (int i = 0; i < numRecords; ++i) {
+            codec.setEmpty(blocks, (i / NUM_OF_RECORD) * BLOCK_SIZE, i % NUM_OF_RECORD, false);
+            freeSpace.markUsed(firstBlockID + i / NUM_OF_RECORD, i % NUM_OF_RECORD);
+        }
+        return blocks;
     }
 
     /**
-     * Update block in "disk storage".
+     * Update block in "disk storage", logging it first if the write-ahead log is enabled, and recompute its zone
      * @param blockID ID of block to be updated
      * @param data data of the updated block
      */
     public void updateBlock(int blockID, byte[] data) {
-        System.arraycopy(data, 0, blocks, blockID * BLOCK_SIZE, BLOCK_SIZE);
+        if (wal != null) {
+            try {
+                wal.append(blockID, data);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        ByteBuffer dst = pinBlock(blockID).duplicate();
+        ((Buffer) dst).position(blockOffset(blockID));
+        dst.put(data, 0, BLOCK_SIZE);
+        unpinBlock(blockID, true);
+        zoneMap.update(blockID, ByteBuffer.wrap(data), 0);
     }
 
     /**
@@ -140,25 +977,96 @@ public class Storage {
      * @return a block with given ID
      */
     public byte[] readBlock(int blockID) {
-        return Arrays.copyOfRange(blocks, blockID * BLOCK_SIZE, blockID * BLOCK_SIZE + BLOCK_SIZE);
+        byte[] data = new byte[BLOCK_SIZE];
+        ByteBuffer src = pinBlock(blockID).duplicate();
+        ((Buffer) src).position(blockOffset(blockID));
+        src.get(data);
+        unpinBlock(blockID, false);
+        return data;
+    }
+
+    /**
+     * Get a block without pinning it in the buffer pool, so that inspecting a block is not counted as an access
+     * @param blockID ID of the block to get
+     * @return data of the block
+     */
+    byte[] peekBlock(int blockID) {
+        byte[] data = new byte[BLOCK_SIZE];
+        if (pool != null) {
+            pool.peek(blockID, data);
+        } else {
+            ByteBuffer src = buffer.duplicate();
+            ((Buffer) src).position(blockOffset(blockID));
+            src.get(data);
+        }
+        return data;
+    }
+
+    /**
+     * Use a buffer pool for all block accesses, replacing the current buffer pool if any
+     * @param numFrames number of blocks that can be held in memory
+     * @param policy replacement policy of the buffer pool
+     */
+    public void enableBufferPool(int numFrames, BufferPool.Policy policy) {
+        if (pool != null) pool.flush();
+        pool = new BufferPool(buffer, BLOCK_SIZE, numFrames, policy, accLog);
+    }
+
+    /**
+     * Pin a block so that its data can be accessed, through the buffer pool if it is enabled
+     * @param blockID ID of block to pin
+     * @return buffer containing the data of the block, the block is located using blockOffset
+     */
+    private ByteBuffer pinBlock(int blockID) {
+        return pool != null ? pool.pin(blockID) : buffer;
+    }
+
+    /**
+     * Release a block pinned by pinBlock
+     * @param blockID ID of block to unpin
+     * @param modified indicates if the block has been modified while it was pinned
+     */
+    private void unpinBlock(int blockID, boolean modified) {
+        if (pool != null) pool.unpin(blockID, modified);
+    }
+
+    /**
+     * Get the position of a block in the buffer returned by pinBlock, its records are located by the codec
+     * @param blockID ID of block
+     * @return offset of the block
+     */
+    private int blockOffset(int blockID) {
+        return pool != null ? 0 : blockID * BLOCK_SIZE;
+    }
+
+    public BufferPool getBufferPool() {
+        return pool;
     }
 
     public BPlusTree getBPT() {
         return bpt;
     }
 
+    /**
+     * Search for the record with a tconst, using the hash index
+     * @param tconst tconst of record
+     * @return matching record, or null if no record has the tconst
+     */
+    public Record searchHash(String tconst) {
+        // Reset logs for experiment
+        resetLog();
+
+        long address = hashIndex.search(tconst.toCharArray());
+        return address == HashIndex.NOT_FOUND ? null : readRecord(address);
+    }
+
     /**
      * Search for records given the key (numVotes), using index
      * @param searchKey search key value
      * @return list of records matching the key value
      */
     public List<Record> searchBPT(int searchKey) {
-        List<RecordAddress> recordAddresses=  bpt.search(searchKey);
-        List<Record> records = new LinkedList<>();
-        for(RecordAddress ra : recordAddresses) {
-            records.add(readRecord(ra));
-        }
-        return records;
+        return readRecords(bpt.search(searchKey), false);
     }
 
     /**
@@ -168,34 +1076,284 @@ public class Storage {
      * @return list of records having the key value within the lower and upper bounds
      */
     public List<Record> searchBPT(int lower, int upper) {
-        List<RecordAddress> recordAddresses=  bpt.search(lower, upper);
-        List<Record> records = new LinkedList<>();
-        for(RecordAddress ra : recordAddresses) {
-            records.add(readRecord(ra));
+        return searchBPT(lower, upper, false);
+    }
+
+    /**
+     * Search for records given the lower and upper bounds, using index
+     * @param lower lower bound of search key value, inclusive (numVotes)
+     * @param upper upper bound of search key value, inclusive (numVotes)
+     * @param physicalOrder if true, records are returned in the order they are stored instead of key order
+     * @return list of records having the key value within the lower and upper bounds
+     */
+    public List<Record> searchBPT(int lower, int upper, boolean physicalOrder) {
+        return readRecords(bpt.search(lower, upper), physicalOrder);
+    }
+
+    /**
+     * Stream records given the lower and upper bounds, using index. Records are read as the stream is consumed,
+     * so memory usage does not depend on the number of matching records
+     * @param lower lower bound of search key value, inclusive (numVotes)
+     * @param upper upper bound of search key value, inclusive (numVotes)
+     * @return stream of records having the key value within the lower and upper bounds, in key order
+     */
+    public Stream<Record> streamBPT(int lower, int upper) {
+        return streamBPT(lower, upper, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Stream a page of records given the lower and upper bounds, using index. Skipped entries are passed over
+     * in the index without reading their records
+     * @param lower lower bound of search key value, inclusive (numVotes)
+     * @param upper upper bound of search key value, inclusive (numVotes)
+     * @param offset number of matching records to skip
+     * @param limit maximum number of records to return
+     * @return stream of records having the key value within the lower and upper bounds, in key order
+     */
+    public Stream<Record> streamBPT(int lower, int upper, long offset, long limit) {
+        RangeCursor cursor = bpt.cursor(lower, upper);
+        cursor.skip(offset);
+        Spliterator.OfLong spliterator = Spliterators.spliteratorUnknownSize(cursor,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.longStream(spliterator, false).limit(limit).mapToObj(this::readRecord);
+    }
+
+    /**
+     * Compute the count, sum, minimum and maximum of averageRating of the records given the lower and upper bounds,
+     * using index. A covering index answers from its leaf nodes alone, otherwise the matching records are read
+     * @param lower lower bound of search key value, inclusive (numVotes)
+     * @param upper upper bound of search key value, inclusive (numVotes)
+     * @return aggregate of averageRating of the records having the key value within the lower and upper bounds
+     */
+    public Aggregate aggregateBPT(int lower, int upper) {
+        if (bpt.isCovering()) return bpt.aggregate(lower, upper);
+
+        Aggregate result = new Aggregate();
+        for (Record record : searchBPT(lower, upper, true)) {
+            result.add(record.getAvgRating());
         }
-        return records;
+        return result;
     }
 
     /**
-     * Delete records that match the key value, using index
-     * @param deleteKey
+     * Read records given their addresses, grouping the addresses by block so that each distinct block is
+     * read and logged exactly once
+     * @param addresses packed addresses of records to get
+     * @param physicalOrder if true, records are returned in the order they are stored instead of the
+     *                      order of the addresses
+     * @return list of records
+     */
+    public List<Record> readRecords(LongList addresses, boolean physicalOrder) {
+        // Packed addresses sort by block ID, then by record ID
+        long[] sorted = addresses.toArray();
+        Arrays.sort(sorted);
+
+        Record[] records = new Record[sorted.length];
+        for (int start = 0, end; start < sorted.length; start = end) {
+            int blockID = RecordAddress.blockID(sorted[start]);
+            accLog.addBlock(blockID);
+
+            // Decode every requested slot of the block while it is pinned
+            ByteBuffer buf = pinBlock(blockID);
+            for (end = start; end < sorted.length && RecordAddress.blockID(sorted[end]) == blockID; ++end) {
+                int recordID = RecordAddress.recordID(sorted[end]);
+                records[end] = codec.read(buf, blockOffset(blockID), recordID, new Record());
+            }
+            unpinBlock(blockID, false);
+        }
+        if (physicalOrder) return Arrays.asList(records);
+
+        // Restore the order of the addresses by finding the position of each address in the sorted addresses
+        Record[] ordered = new Record[records.length];
+        for (int i = 0; i < ordered.length; ++i) {
+            ordered[i] = records[Arrays.binarySearch(sorted, addresses.get(i))];
+        }
+        return Arrays.asList(ordered);
+    }
+
+    /**
+     * Delete records that match the key value, using index, and remove them from the secondary indexes
+     * @param deleteKey key value (numVotes)
      */
     public void deleteBPT(int deleteKey) {
+        if (secondaryIndexes.isEmpty()) {
+            bpt.delete(deleteKey);
+            return;
+        }
+
+        // Read the deleted records first, since their other attributes locate their entries in the secondary indexes
+        LongList addresses = bpt.searchInternal(bpt.getRoot(), deleteKey, deleteKey);
+        List<Record> records = readRecords(addresses, false);
         bpt.delete(deleteKey);
+        for (BPlusTree index : secondaryIndexes.values()) {
+            for (int i = 0; i < addresses.size(); ++i) {
+                Record record = records.get(i);
+                index.deleteEntry(new Key(index.getAttribute().keyOf(record), record.getTconst()), addresses.get(i));
+            }
+        }
+    }
+
+    /**
+     * Read every record in storage that satisfies a predicate, reading each block once
+     * @param predicate condition on the records to return
+     * @return list of matching records, in the order they are stored
+     */
+    public List<Record> scan(Predicate<Record> predicate) {
+        List<Record> result = new ArrayList<>();
+        Record record = new Record();
+        for (int blockID = 0; blockID <= blockTailIdx; ++blockID) {
+            accLog.addBlock(blockID);
+            ByteBuffer buf = pinBlock(blockID);
+            for (int recordID = 0; recordID < NUM_OF_RECORD; ++recordID) {
+                codec.read(buf, blockOffset(blockID), recordID, record);
+                if (!record.isEmpty() && predicate.test(record)) {
+                    result.add(record);
+                    record = new Record();
+                }
+            }
+            unpinBlock(blockID, false);
+        }
+        return result;
+    }
+
+    /**
+     * Read every record in storage that satisfies a predicate in parallel, using the common fork/join pool
+     * @param predicate ranges of numVotes and averageRating of the records to return
+     * @return list of matching records, in the order they are stored
+     */
+    public List<Record> scan(ScanPredicate predicate) {
+        return scan(predicate, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Read every record in storage that satisfies a predicate, splitting the blocks into ranges scanned by the
+     * tasks of a fork/join pool. The predicate is evaluated on the serialized records, so only matching records
+     * are decoded, and blocks whose zone does not overlap the predicate are not read. If the buffer pool is
+     * enabled, the blocks are scanned by the calling thread, since the buffer pool is not thread-safe
+     * @param predicate ranges of numVotes and averageRating of the records to return
+     * @param executor pool running the tasks of the scan
+     * @return list of matching records, in the order they are stored
+     */
+    public List<Record> scan(ScanPredicate predicate, ForkJoinPool executor) {
+        // Reset logs for experiment
+        resetLog();
+
+        LongAdder numBlocksRead = new LongAdder();
+        ScanTask task = new ScanTask(predicate, 0, blockTailIdx + 1, pool == null, numBlocksRead);
+        List<Record> result = pool == null ? executor.invoke(task) : task.compute();
+        accLog.addBlocks(numBlocksRead.intValue());
+        return result;
+    }
+
+    /**
+     * Task scanning a range of blocks, split in halves scanned in parallel until the range is small enough
+     */
+    private class ScanTask extends RecursiveTask<List<Record>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ScanPredicate predicate;
+        private final int from;
+        private final int to;
+        private final boolean split;
+        private final LongAdder numBlocksRead;
+
+        /**
+         * Construct a task scanning a range of blocks
+         * @param predicate ranges of numVotes and averageRating of the records to return
+         * @param from ID of first block, inclusive
+         * @param to ID of last block, exclusive
+         * @param split whether the range may be split into parallel tasks
+         * @param numBlocksRead counter of the blocks read by every task of the scan
+         */
+        ScanTask(ScanPredicate predicate, int from, int to, boolean split, LongAdder numBlocksRead) {
+            this.predicate = predicate;
+            this.from = from;
+            this.to = to;
+            this.split = split;
+            this.numBlocksRead = numBlocksRead;
+        }
+
+        @Override
+        protected List<Record> compute() {
+            if (split && to - from > SCAN_SPLIT_BLOCKS) {
+                int mid = (from + to) >>> 1;
+                ScanTask right = new ScanTask(predicate, mid, to, true, numBlocksRead);
+                right.fork();
+                List<Record> result = new ScanTask(predicate, from, mid, true, numBlocksRead).compute();
+                result.addAll(right.join());
+                return result;
+            }
+
+            List<Record> result = new ArrayList<>();
+            int numRead = 0;
+            for (int blockID = from; blockID < to; ++blockID) {
+                if (!zoneMap.mayMatch(blockID, predicate)) continue;
+
+                ++numRead;
+                ByteBuffer buf = pinBlock(blockID);
+                int offset = blockOffset(blockID);
+                for (int recordID = 0; recordID < NUM_OF_RECORD; ++recordID) {
+                    if (predicate.test(codec, buf, offset, recordID)) {
+                        result.add(codec.read(buf, offset, recordID, new Record()));
+                    }
+                }
+                unpinBlock(blockID, false);
+            }
+            numBlocksRead.add(numRead);
+            return result;
+        }
+    }
+
+    /**
+     * Count the blocks read by a scan with a predicate, without reading them
+     * @param predicate ranges of numVotes and averageRating of the records to return
+     * @return number of blocks whose zone overlaps the predicate
+     */
+    public int countBlocks(ScanPredicate predicate) {
+        int numBlocks = 0;
+        for (int blockID = 0; blockID <= blockTailIdx; ++blockID) {
+            if (zoneMap.mayMatch(blockID, predicate)) ++numBlocks;
+        }
+        return numBlocks;
+    }
+
+    public ZoneMap getZoneMap() {
+        return zoneMap;
+    }
+
+    /**
+     * Get the number of records in storage
+     * @return number of non-empty slots
+     */
+    public long getNumRecords() {
+        return (long) getNumBlocksUsed() * NUM_OF_RECORD - freeSpace.getNumFree();
     }
 
     public int getNumBlocksUsed() {
         return blockTailIdx + 1;
     }
 
+    public int getBlockSize() {
+        return BLOCK_SIZE;
+    }
+
     public int getRecordSize() {
         return RECORD_SIZE;
     }
 
+    public RecordCodec getCodec() {
+        return codec;
+    }
+
     public void logNodeAccess(Node node) {
         accLog.addNode(node);
     }
 
+    public void logBucketAccess() {
+        accLog.addBucket();
+    }
+
     public void resetLog() {
         accLog.reset();
     }
@@ -215,4 +1373,12 @@ public class Storage {
     public int getNumNodeAccess() {
         return accLog.getNumNodeAccess();
     }
+
+    public int getNumBufferHit() {
+        return accLog.getNumBufferHit();
+    }
+
+    public int getNumBufferMiss() {
+        return accLog.getNumBufferMiss();
+    }
 }
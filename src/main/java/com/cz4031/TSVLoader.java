@@ -0,0 +1,307 @@
+package com.cz4031;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Class loading a TSV file of records into a storage using multiple threads.
+ * The file is memory-mapped and split into chunks on line boundaries. Each thread first counts the rows of its chunk,
+ * so that the position of every row in the storage is known, then parses its chunk and encodes each row directly
+ * into its slot. Records are appended to new blocks in the order of the file, without reading the blocks first.
+ * <p>
+ * Expected columns: tconst, averageRating, numVotes, with a header row.
+ */
+public class TSVLoader {
+
+    private static final String HEADER = "tconst\taverageRating\tnumVotes";
+
+    /**
+     * Powers of 10 that are exactly representable as a float
+     */
+    private static final float[] POW10 = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    /**
+     * Largest integer below which every integer is exactly representable as a float
+     */
+    private static final int MAX_EXACT_FLOAT = 1 << 24;
+
+    /**
+     * Load all rows of a TSV file into new blocks of a storage
+     * @param st storage to load the records into
+     * @param path path of TSV file
+     * @param numThreads number of threads parsing the file
+     * @return number of records loaded
+     * @throws IOException if the file cannot be read or contains a malformed row
+     */
+    public static int load(Storage st, String path, int numThreads) throws IOException {
+        if (numThreads <= 0) throw new IllegalArgumentException("Number of threads must be positive");
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("File is too large to be mapped");
+            MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            int dataStart = checkHeader(file);
+            int[] bounds = split(file, dataStart, numThreads);
+            int numChunks = bounds.length - 1;
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(numThreads, numChunks));
+            try {
+                // Count rows of each chunk, then find the index of the first row of each chunk
+                List<Future<Integer>> counts = new ArrayList<>();
+                for (int i = 0; i < numChunks; ++i) {
+                    int start = bounds[i], end = bounds[i + 1];
+                    counts.add(executor.submit(() -> countRows(file, start, end)));
+                }
+                int[] firstRow = new int[numChunks + 1];
+                for (int i = 0; i < numChunks; ++i) {
+                    firstRow[i + 1] = firstRow[i] + get(counts.get(i));
+                }
+
+                int numRecords = firstRow[numChunks];
+                RecordCodec codec = st.getCodec();
+                int recordsPerBlock = codec.getRecordsPerBlock();
+                int numBlocks = (numRecords + recordsPerBlock - 1) / recordsPerBlock;
+                ByteBuffer blocks = st.appendBlocks(numBlocks, numRecords);
+
+                // Encode rows of each chunk into their slots
+                List<Future<Integer>> results = new ArrayList<>();
+                for (int i = 0; i < numChunks; ++i) {
+                    int start = bounds[i], end = bounds[i + 1], row = firstRow[i];
+                    results.add(executor.submit(() -> encodeRows(file, start, end, blocks.duplicate(), row, codec)));
+                }
+                // Every task is waited for before failing, so that no thread still writes to the reserved blocks
+                // while the storage releases them
+                Exception failure = null;
+                for (Future<Integer> result : results) {
+                    try {
+                        get(result);
+                    } catch (IOException | RuntimeException e) {
+                        if (failure == null) failure = e;
+                    }
+                }
+                if (failure instanceof IOException) throw (IOException) failure;
+                if (failure != null) throw (RuntimeException) failure;
+                return numRecords;
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Check the header row of the file
+     * @param file content of the file
+     * @return position of the first data row
+     * @throws IOException if the header row does not have the expected columns
+     */
+    private static int checkHeader(ByteBuffer file) throws IOException {
+        int end = 0;
+        while (end < file.limit() && file.get(end) != '\n') ++end;
+
+        byte[] header = new byte[end];
+        for (int i = 0; i < end; ++i) {
+            header[i] = file.get(i);
+        }
+        if (!new String(header, StandardCharsets.US_ASCII).trim().equals(HEADER)) {
+            throw new IOException("Unexpected header, expected columns: " + HEADER.replace('\t', ' '));
+        }
+        return Math.min(end + 1, file.limit());
+    }
+
+    /**
+     * Split the data rows of the file into chunks of about the same size, each starting at the start of a row
+     * @param file content of the file
+     * @param dataStart position of the first data row
+     * @param numChunks maximum number of chunks
+     * @return start position of each chunk, followed by the end of the file
+     */
+    private static int[] split(ByteBuffer file, int dataStart, int numChunks) {
+        int length = file.limit() - dataStart;
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(dataStart);
+        for (int i = 1; i < numChunks; ++i) {
+            // Move the boundary to the start of the next row
+            int pos = Math.max(dataStart + (int) ((long) length * i / numChunks), bounds.get(bounds.size() - 1));
+            while (pos < file.limit() && file.get(pos - 1) != '\n') ++pos;
+            if (pos > bounds.get(bounds.size() - 1) && pos < file.limit()) bounds.add(pos);
+        }
+        bounds.add(file.limit());
+        return bounds.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Count the non-blank rows in a chunk
+     * @param file content of the file
+     * @param start start position of chunk
+     * @param end end position of chunk
+     * @return number of rows
+     */
+    private static int countRows(ByteBuffer file, int start, int end) {
+        int count = 0;
+        for (int pos = start; pos < end; pos = nextRow(file, pos, end)) {
+            if (!isBlank(file, pos, end)) ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Parse the rows in a chunk and encode each of them into its slot
+     * @param file content of the file
+     * @param start start position of chunk
+     * @param end end position of chunk
+     * @param blocks buffer of the blocks reserved for all rows
+     * @param row index of the first row of the chunk among all rows
+     * @param codec codec serializing the records of the storage
+     * @return number of rows encoded
+     * @throws IOException if a row is malformed or cannot be encoded by the codec
+     */
+    private static int encodeRows(ByteBuffer file, int start, int end, ByteBuffer blocks, int row,
+                                  RecordCodec codec) throws IOException {
+        int recordsPerBlock = codec.getRecordsPerBlock();
+        char[] tconst = new char[Key.K2_LENGTH];
+        int count = 0;
+        for (int pos = start; pos < end; pos = nextRow(file, pos, end)) {
+            if (isBlank(file, pos, end)) continue;
+
+            encodeRow(file, pos, end, blocks, (row / recordsPerBlock) * codec.getBlockSize(),
+                    row % recordsPerBlock, codec, tconst);
+            ++row;
+            ++count;
+        }
+        return count;
+    }
+
+    /**
+     * Parse one row and encode its values into a slot, whose empty flag is set by Storage.appendBlocks
+     * @param file content of the file
+     * @param pos start position of the row
+     * @param end end position of chunk
+     * @param blocks buffer of the reserved blocks
+     * @param blockOffset position of the block of the slot in the buffer
+     * @param recordID ID of the slot relative to the block
+     * @param codec codec serializing the records of the storage
+     * @param tconst array reused to hold tconst
+     * @throws IOException if the row is malformed or cannot be encoded by the codec
+     */
+    private static void encodeRow(ByteBuffer file, int pos, int end, ByteBuffer blocks, int blockOffset,
+                                  int recordID, RecordCodec codec, char[] tconst) throws IOException {
+        int rowStart = pos;
+
+        // tconst, padded with zeroes
+        int length = 0;
+        for (; pos < end && file.get(pos) != '\t'; ++pos, ++length) {
+            if (length == Key.K2_LENGTH) throw malformed(rowStart);
+            tconst[length] = (char) (file.get(pos) & 0xFF);
+        }
+        for (int i = length; i < Key.K2_LENGTH; ++i) {
+            tconst[i] = 0;
+        }
+        if (length == 0 || pos >= end) throw malformed(rowStart);
+        ++pos;
+
+        // averageRating, as digits with an optional fractional part
+        int fieldStart = pos;
+        long mantissa = 0;
+        int scale = -1;
+        for (; pos < end && file.get(pos) != '\t'; ++pos) {
+            byte c = file.get(pos);
+            if (c == '.' && scale < 0) {
+                scale = 0;
+            } else if (c >= '0' && c <= '9' && mantissa < MAX_EXACT_FLOAT) {
+                mantissa = mantissa * 10 + (c - '0');
+                if (scale >= 0) ++scale;
+            } else {
+                scale = Integer.MIN_VALUE;
+                break;
+            }
+        }
+        float rating;
+        if (pos > fieldStart && scale < POW10.length && scale != Integer.MIN_VALUE && mantissa < MAX_EXACT_FLOAT) {
+            // Dividing two exact values is correctly rounded, so the result is the same as Float.parseFloat
+            rating = mantissa / POW10[Math.max(scale, 0)];
+        } else {
+            // Fall back to the standard parser for other formats, such as exponents
+            while (pos < end && file.get(pos) != '\t') ++pos;
+            rating = parseFloat(file, fieldStart, pos, rowStart);
+        }
+        if (pos >= end) throw malformed(rowStart);
+        ++pos;
+
+        // numVotes
+        fieldStart = pos;
+        long numVotes = 0;
+        for (; pos < end && file.get(pos) != '\n' && file.get(pos) != '\r'; ++pos) {
+            byte c = file.get(pos);
+            if (c < '0' || c > '9' || numVotes > Integer.MAX_VALUE) throw malformed(rowStart);
+            numVotes = numVotes * 10 + (c - '0');
+        }
+        if (pos == fieldStart || numVotes > Integer.MAX_VALUE) throw malformed(rowStart);
+
+        try {
+            codec.writeValues(blocks, blockOffset, recordID, tconst, rating, (int) numVotes);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Cannot encode row at byte " + rowStart + ": " + e.getMessage());
+        }
+    }
+
+    private static float parseFloat(ByteBuffer file, int start, int end, int rowStart) throws IOException {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = file.get(start + i);
+        }
+        try {
+            return Float.parseFloat(new String(bytes, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            throw malformed(rowStart);
+        }
+    }
+
+    /**
+     * Find the start of the row after a row
+     * @param file content of the file
+     * @param pos start position of the row
+     * @param end end position of chunk
+     * @return start position of the next row, or the end of the chunk
+     */
+    private static int nextRow(ByteBuffer file, int pos, int end) {
+        while (pos < end && file.get(pos) != '\n') ++pos;
+        return pos + 1;
+    }
+
+    private static boolean isBlank(ByteBuffer file, int pos, int end) {
+        return pos >= end || file.get(pos) == '\n' || file.get(pos) == '\r';
+    }
+
+    private static IOException malformed(int pos) {
+        return new IOException("Malformed row at byte " + pos);
+    }
+
+    /**
+     * Wait for the result of a task, rethrowing its exception
+     * @param future result of a task
+     * @return value of the result
+     * @throws IOException if the task failed with an IOException
+     */
+    private static int get(Future<Integer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+    }
+}
@@ -43,6 +43,42 @@ public class Util {
         arr[pos] = t;
     }
 
+    /**
+     * Insert an element to a specific index in an array of longs, shift the elements affected by the insertion
+     * and delete last element in the array
+     * @param arr array to be inserted into
+     * @param t element to be inserted
+     * @param pos index to insert
+     */
+    public static void insertAndShift(long[] arr, long t, int pos) {
+        System.arraycopy(arr, pos, arr, pos + 1, arr.length - pos - 1);
+        arr[pos] = t;
+    }
+
+    /**
+     * Insert an element to a specific index in an array of floats, shift the elements affected by the insertion
+     * and delete last element in the array
+     * @param arr array to be inserted into
+     * @param t element to be inserted
+     * @param pos index to insert
+     */
+    public static void insertAndShift(float[] arr, float t, int pos) {
+        System.arraycopy(arr, pos, arr, pos + 1, arr.length - pos - 1);
+        arr[pos] = t;
+    }
+
+    /**
+     * Insert an element to a specific index in an array of doubles, shift the elements affected by the insertion
+     * and delete last element in the array
+     * @param arr array to be inserted into
+     * @param t element to be inserted
+     * @param pos index to insert
+     */
+    public static void insertAndShift(double[] arr, double t, int pos) {
+        System.arraycopy(arr, pos, arr, pos + 1, arr.length - pos - 1);
+        arr[pos] = t;
+    }
+
     /**
      * Delete an element on the specified index in an array, then shift the elements accordingly
      * @param arr array to be deleted from
@@ -56,6 +92,36 @@ public class Util {
         arr[arr.length - 1] = null;
     }
 
+    /**
+     * Delete an element on the specified index in an array of longs, then shift the elements accordingly
+     * @param arr array to be deleted from
+     * @param pos position of element to be deleted
+     */
+    public static void deleteAndShift(long[] arr, int pos) {
+        System.arraycopy(arr, pos + 1, arr, pos, arr.length - pos - 1);
+        arr[arr.length - 1] = 0;
+    }
+
+    /**
+     * Delete an element on the specified index in an array of floats, then shift the elements accordingly
+     * @param arr array to be deleted from
+     * @param pos position of element to be deleted
+     */
+    public static void deleteAndShift(float[] arr, int pos) {
+        System.arraycopy(arr, pos + 1, arr, pos, arr.length - pos - 1);
+        arr[arr.length - 1] = 0;
+    }
+
+    /**
+     * Delete an element on the specified index in an array of doubles, then shift the elements accordingly
+     * @param arr array to be deleted from
+     * @param pos position of element to be deleted
+     */
+    public static void deleteAndShift(double[] arr, int pos) {
+        System.arraycopy(arr, pos + 1, arr, pos, arr.length - pos - 1);
+        arr[arr.length - 1] = 0;
+    }
+
     /**
      * Get n parameter of B+ tree from block size
      * @param blockSize size of block in bytes
@@ -0,0 +1,266 @@
+package com.cz4031;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Class representing a sequential redo log of the blocks written to a file-backed storage.
+ * <p>
+ * Every block write appends the after-image of the whole block, so replaying the log in order restores the
+ * latest logged content of every block regardless of which writes reached the storage file. A log file starts
+ * with a magic number and the block size (4 bytes each), followed by fixed-size log records, each being the
+ * block ID and a CRC32 checksum of the record (4 bytes each) followed by the data of the block. A record torn
+ * by a crash fails its checksum and ends the replay.
+ * <p>
+ * Records are committed in groups: appended records are buffered, and a full group is written to the file
+ * and forced to disk at once, so that a single force is shared by the whole group instead of one per write.
+ * A record is durable only once its group is forced, or when the log is synced.
+ */
+public class WriteAheadLog implements Closeable {
+
+    /**
+     * Size of the header at the start of a log file
+     */
+    private static final int HEADER_SIZE = 8;
+    private static final int HEADER_MAGIC = 0x435A574C;
+
+    /**
+     * Size of the block ID and checksum preceding the data of a block in a log record
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * Channel of the log file, records are appended at its end
+     */
+    private final FileChannel channel;
+
+    /**
+     * Size of one block
+     */
+    private final int blockSize;
+
+    /**
+     * Maximum number of records committed together by one force
+     */
+    private final int groupSize;
+
+    /**
+     * Records appended since the last commit
+     */
+    private final ByteBuffer group;
+
+    /**
+     * Number of records in the current group
+     */
+    private int numPending;
+
+    /**
+     * Number of records appended and number of forces, for experiment
+     */
+    private long numAppended;
+    private long numForces;
+
+    private final CRC32 crc = new CRC32();
+
+    private WriteAheadLog(FileChannel channel, int blockSize, int groupSize) {
+        this.channel = channel;
+        this.blockSize = blockSize;
+        this.groupSize = groupSize;
+        group = ByteBuffer.allocate(groupSize * getRecordSize(blockSize));
+    }
+
+    /**
+     * Open a log file for appending, creating it if it does not exist
+     * @param path path of log file
+     * @param blockSize size of one block
+     * @param groupSize maximum number of records committed together by one force, at least 1
+     * @return log positioned at the end of its last complete record
+     * @throws IOException if the file cannot be opened, or it was created with a different block size
+     */
+    public static WriteAheadLog open(String path, int blockSize, int groupSize) throws IOException {
+        if (groupSize < 1) throw new IllegalArgumentException("Group size must be at least 1");
+
+        FileChannel channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(HEADER_MAGIC).putInt(blockSize);
+                channel.truncate(0);
+                channel.write((ByteBuffer) ((Buffer) header).flip(), 0);
+                channel.force(false);
+            }
+
+            // Discard a record torn by a crash, so that new records are not appended after it
+            long end = replay(channel, blockSize, null);
+            channel.truncate(end);
+            channel.position(end);
+            return new WriteAheadLog(channel, blockSize, groupSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Append the after-image of a block, committing the current group if it becomes full
+     * @param blockID ID of the written block
+     * @param data data of the block, at least one block long
+     * @throws IOException if the group cannot be committed
+     */
+    public synchronized void append(int blockID, byte[] data) throws IOException {
+        crc.reset();
+        crc.update(blockID >>> 24);
+        crc.update(blockID >>> 16);
+        crc.update(blockID >>> 8);
+        crc.update(blockID);
+        crc.update(data, 0, blockSize);
+        group.putInt(blockID).putInt((int) crc.getValue()).put(data, 0, blockSize);
+        ++numAppended;
+
+        if (++numPending == groupSize) sync();
+    }
+
+    /**
+     * Commit the records of the current group, even if the group is not full
+     * @throws IOException if the records cannot be written or forced
+     */
+    public synchronized void sync() throws IOException {
+        if (numPending == 0) return;
+
+        ((Buffer) group).flip();
+        while (group.hasRemaining()) {
+            channel.write(group);
+        }
+        ((Buffer) group).clear();
+        numPending = 0;
+
+        // Data of the file is forced, its metadata is only needed for the size, which the checksum protects
+        channel.force(false);
+        ++numForces;
+    }
+
+    /**
+     * Remove every record, after the blocks they describe have been forced to the storage file
+     * @throws IOException if the file cannot be truncated
+     */
+    public synchronized void truncate() throws IOException {
+        ((Buffer) group).clear();
+        numPending = 0;
+        channel.truncate(HEADER_SIZE);
+        channel.position(HEADER_SIZE);
+        channel.force(false);
+    }
+
+    /**
+     * Commit the current group and close the log file
+     * @throws IOException if the records cannot be committed or the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) return;
+        sync();
+        channel.close();
+    }
+
+    /**
+     * Replay the complete records of a log file in the order they were appended
+     * @param path path of log file
+     * @param blockSize size of one block
+     * @param redo receiver of the block ID and data of each record
+     * @return number of records replayed
+     * @throws IOException if the file cannot be read, or it was created with a different block size
+     */
+    public static long replay(String path, int blockSize, Redo redo) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return (replay(channel, blockSize, redo) - HEADER_SIZE) / getRecordSize(blockSize);
+        }
+    }
+
+    /**
+     * Replay the complete records of a log file, stopping at the first torn record
+     * @param channel channel of log file
+     * @param blockSize size of one block
+     * @param redo receiver of the block ID and data of each record, null to only find the end of the log
+     * @return position after the last complete record
+     * @throws IOException if the file cannot be read, or it was created with a different block size
+     */
+    private static long replay(FileChannel channel, int blockSize, Redo redo) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        if (header.getInt(0) != HEADER_MAGIC || header.getInt(4) != blockSize) {
+            throw new IOException("Log file does not match block size");
+        }
+
+        // Read many records at a time, since they are read sequentially
+        int recordSize = getRecordSize(blockSize);
+        ByteBuffer chunk = ByteBuffer.allocate(Math.max(1, (1 << 20) / recordSize) * recordSize);
+        byte[] data = new byte[blockSize];
+        CRC32 crc = new CRC32();
+        long position = HEADER_SIZE;
+        while (true) {
+            ((Buffer) chunk).clear();
+            int read;
+            do {
+                read = channel.read(chunk, position + chunk.position());
+            } while (read > 0 && chunk.hasRemaining());
+            ((Buffer) chunk).flip();
+            if (chunk.remaining() < recordSize) return position;
+
+            while (chunk.remaining() >= recordSize) {
+                int blockID = chunk.getInt();
+                int checksum = chunk.getInt();
+                chunk.get(data);
+
+                crc.reset();
+                crc.update(blockID >>> 24);
+                crc.update(blockID >>> 16);
+                crc.update(blockID >>> 8);
+                crc.update(blockID);
+                crc.update(data);
+                if ((int) crc.getValue() != checksum) return position;
+
+                if (redo != null) redo.write(blockID, data);
+                position += recordSize;
+            }
+        }
+    }
+
+    /**
+     * Get the size of a log record
+     * @param blockSize size of one block
+     * @return size of the block ID, checksum and block data
+     */
+    private static int getRecordSize(int blockSize) {
+        return RECORD_HEADER_SIZE + blockSize;
+    }
+
+    public int getGroupSize() {
+        return groupSize;
+    }
+
+    public long getNumAppended() {
+        return numAppended;
+    }
+
+    public long getNumForces() {
+        return numForces;
+    }
+
+    /**
+     * Receiver of the blocks replayed from a log
+     */
+    public interface Redo {
+        /**
+         * Write the after-image of a block
+         * @param blockID ID of the block
+         * @param data data of the block, reused for the next record
+         */
+        void write(int blockID, byte[] data);
+    }
+}
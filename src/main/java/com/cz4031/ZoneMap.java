@@ -0,0 +1,109 @@
+package com.cz4031;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Class keeping the smallest and largest numVotes and averageRating of the records of every block, so that a scan
+ * can skip the blocks whose ranges do not overlap its predicate. The zone of a block is recomputed from its data
+ * whenever the block is written, so it stays exact after records are deleted or moved. A block without records has
+ * an empty zone, which overlaps no predicate
+ */
+public class ZoneMap {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final RecordCodec codec;
+
+    /**
+     * Bounds of numVotes of each block
+     */
+    private int[] minVotes;
+    private int[] maxVotes;
+
+    /**
+     * Bounds of averageRating of each block
+     */
+    private float[] minRating;
+    private float[] maxRating;
+
+    /**
+     * Construct a zone map without any block
+     * @param codec codec serializing the records of the blocks
+     */
+    public ZoneMap(RecordCodec codec) {
+        this.codec = codec;
+
+        minVotes = new int[INITIAL_CAPACITY];
+        maxVotes = new int[INITIAL_CAPACITY];
+        minRating = new float[INITIAL_CAPACITY];
+        maxRating = new float[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Recompute the zone of a block from its serialized records
+     * @param blockID ID of the block
+     * @param buf buffer containing the data of the block
+     * @param offset position of the block in the buffer
+     */
+    public void update(int blockID, ByteBuffer buf, int offset) {
+        if (blockID >= minVotes.length) grow(blockID + 1);
+
+        int lowVotes = Integer.MAX_VALUE, highVotes = Integer.MIN_VALUE;
+        float lowRating = Float.POSITIVE_INFINITY, highRating = Float.NEGATIVE_INFINITY;
+        for (int recordID = 0; recordID < codec.getRecordsPerBlock(); ++recordID) {
+            if (codec.isEmpty(buf, offset, recordID)) continue;
+
+            int numVotes = codec.getNumVotes(buf, offset, recordID);
+            float rating = codec.getAvgRating(buf, offset, recordID);
+            lowVotes = Math.min(lowVotes, numVotes);
+            highVotes = Math.max(highVotes, numVotes);
+            lowRating = Math.min(lowRating, rating);
+            highRating = Math.max(highRating, rating);
+        }
+
+        minVotes[blockID] = lowVotes;
+        maxVotes[blockID] = highVotes;
+        minRating[blockID] = lowRating;
+        maxRating[blockID] = highRating;
+    }
+
+    /**
+     * Check whether a block may hold a record matching a predicate
+     * @param blockID ID of the block, whose zone has been computed
+     * @param predicate predicate of a scan
+     * @return false if the block can be skipped
+     */
+    public boolean mayMatch(int blockID, ScanPredicate predicate) {
+        return predicate.overlaps(minVotes[blockID], maxVotes[blockID], minRating[blockID], maxRating[blockID]);
+    }
+
+    public int getMinVotes(int blockID) {
+        return minVotes[blockID];
+    }
+
+    public int getMaxVotes(int blockID) {
+        return maxVotes[blockID];
+    }
+
+    public float getMinRating(int blockID) {
+        return minRating[blockID];
+    }
+
+    public float getMaxRating(int blockID) {
+        return maxRating[blockID];
+    }
+
+    /**
+     * Double the capacity of the arrays until they hold a number of blocks
+     * @param numBlocks number of blocks to hold
+     */
+    private void grow(int numBlocks) {
+        int capacity = minVotes.length;
+        while (capacity < numBlocks) capacity *= 2;
+        minVotes = Arrays.copyOf(minVotes, capacity);
+        maxVotes = Arrays.copyOf(maxVotes, capacity);
+        minRating = Arrays.copyOf(minRating, capacity);
+        maxRating = Arrays.copyOf(maxRating, capacity);
+    }
+}
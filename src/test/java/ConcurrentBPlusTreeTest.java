@@ -0,0 +1,75 @@
+import com.cz4031.ConcurrentBPlusTree;
+import com.cz4031.Record;
+import com.cz4031.RecordAddress;
+import com.cz4031.Storage;
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrentBPlusTreeTest {
+    static final int NUM_READERS = 4;
+    static final int NUM_INSERTS = 3000;
+    static final int ENTRIES_PER_KEY = 10;
+
+    @Test
+    @DisplayName("Ensure that concurrent searches see consistent results while a writer inserts and deletes")
+    void searchWhileWriting() throws InterruptedException {
+        Storage st = new Storage(100, 19, 1 << 20);
+        st.initWithTSV("test_data.tsv");
+        st.buildIndex();
+        ConcurrentBPlusTree tree = new ConcurrentBPlusTree(st.getBPT(), st);
+        int numOriginal = tree.search(0, 200).size();
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < NUM_READERS; ++i) {
+            readers.add(new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        // Entries of the original records are never modified by the writer
+                        assertEquals(numOriginal, tree.search(0, 200).size());
+                        assertEquals(4, tree.search(80).size());
+
+                        // Entries of one key are inserted one at a time, then deleted all at once
+                        int size = tree.search(1000 + (int) (Math.random() * NUM_INSERTS / ENTRIES_PER_KEY)).size();
+                        assertTrue(size <= ENTRIES_PER_KEY);
+                        assertTrue(tree.getAccessLog().getNumNodeAccess() > 0);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+        readers.forEach(Thread::start);
+
+        Record record = new Record();
+        for (int i = 0; i < NUM_INSERTS; ++i) {
+            String tconst = String.format("tx%07d", i);
+            int numVotes = 1000 + i / ENTRIES_PER_KEY;
+            RecordAddress address = st.createRecord(tconst, 5.0f, numVotes);
+            record.setTconst(String.format("%-10s", tconst).toCharArray());
+            record.setNumVotes(numVotes);
+            tree.insert(record, address.pack());
+
+            // Delete every other key once all of its entries are inserted
+            if (i % (2 * ENTRIES_PER_KEY) == 2 * ENTRIES_PER_KEY - 1) tree.delete(numVotes);
+        }
+
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+
+        assertEquals(numOriginal, tree.search(0, 200).size());
+        assertEquals(NUM_INSERTS / 2, tree.search(1000, 1000 + NUM_INSERTS).size());
+        assertEquals(ENTRIES_PER_KEY, tree.search(1000).size());
+        assertTrue(tree.search(1001).isEmpty());
+    }
+}
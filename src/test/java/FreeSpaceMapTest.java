@@ -0,0 +1,83 @@
+import com.cz4031.FreeSpaceMap;
+import com.cz4031.Storage;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FreeSpaceMapTest {
+
+    @Test
+    @DisplayName("Ensure that partially filled blocks are filled before empty blocks")
+    void preferPartiallyFilledBlocks() {
+        FreeSpaceMap freeSpace = new FreeSpaceMap(5);
+        assertEquals(-1, freeSpace.findBlock());
+        for (int blockID = 0; blockID < 3; ++blockID) {
+            freeSpace.addBlock(blockID);
+        }
+
+        // Fill all blocks
+        for (int i = 0; i < 15; ++i) {
+            int blockID = freeSpace.findBlock();
+            freeSpace.allocate(blockID);
+        }
+        assertEquals(-1, freeSpace.findBlock());
+        assertEquals(0, freeSpace.getNumFree());
+
+        // Empty block 1 and free one slot of block 2
+        for (int recordID = 0; recordID < 5; ++recordID) {
+            freeSpace.free(1, recordID);
+        }
+        freeSpace.free(2, 3);
+        assertTrue(freeSpace.isFree(2, 3));
+        assertEquals(6, freeSpace.getNumFree());
+
+        assertEquals(2, freeSpace.findBlock());
+        assertEquals(3, freeSpace.allocate(2));
+        for (int recordID = 0; recordID < 5; ++recordID) {
+            assertEquals(1, freeSpace.findBlock());
+            assertEquals(recordID, freeSpace.allocate(1));
+        }
+        assertEquals(-1, freeSpace.findBlock());
+    }
+
+    @Test
+    @DisplayName("Ensure that blocks with more than 64 records are tracked across bitmap words")
+    void largeBlocks() {
+        FreeSpaceMap freeSpace = new FreeSpaceMap(4096 / 19);
+        for (int blockID = 0; blockID < 100; ++blockID) {
+            freeSpace.addBlock(blockID);
+        }
+        assertEquals(100 * 215, freeSpace.getNumFree());
+
+        int blockID = freeSpace.findBlock();
+        for (int recordID = 0; recordID < 215; ++recordID) {
+            assertEquals(recordID, freeSpace.allocate(blockID));
+        }
+        assertNotEquals(blockID, freeSpace.findBlock());
+
+        freeSpace.free(blockID, 200);
+        assertTrue(freeSpace.isFree(blockID, 200));
+        assertEquals(blockID, freeSpace.findBlock());
+        assertEquals(200, freeSpace.allocate(blockID));
+        assertFalse(freeSpace.isFree(blockID, 200));
+    }
+
+    @Test
+    @DisplayName("Ensure that storage reuses slots of deleted records before creating a block")
+    void reuseDeletedSlots() {
+        Storage st = new Storage(100, 19, 1 << 20);
+        st.initWithTSV("test_data.tsv");
+        st.buildIndex();
+        int numBlocks = st.getNumBlocksUsed();
+
+        // Records with numVotes 10 and 20 are stored in the first 3 blocks, their slots are reused before the
+        // free slot of the last block
+        st.deleteBPT(10);
+        st.deleteBPT(20);
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(st.createRecord(String.format("tt%07d", 100 + i), 5.0f, 300).getBlockID() < 3);
+        }
+        assertEquals(numBlocks - 1, st.createRecord("tt0000104", 5.0f, 300).getBlockID());
+        assertEquals(numBlocks, st.getNumBlocksUsed());
+    }
+}
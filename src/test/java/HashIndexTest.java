@@ -0,0 +1,69 @@
+import com.cz4031.HashIndex;
+import com.cz4031.Record;
+import com.cz4031.RecordAddress;
+import com.cz4031.Storage;
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashIndexTest {
+    static final int NUM_RECORDS = 20000;
+
+    @Test
+    @DisplayName("Ensure that a lookup by tconst reads one bucket and one block")
+    void searchByTconst() {
+        Storage st = new Storage(100, 19, 1 << 20);
+        st.initWithTSV("test_data.tsv");
+        st.buildHashIndex();
+        assertEquals(24, st.getHashIndex().size());
+
+        Record record = st.searchHash("tt0000015");
+        assertEquals(80, record.getNumVotes());
+        assertEquals(6.1f, record.getAvgRating());
+        assertEquals(1, st.getNumNodeAccess());
+        assertEquals(1, st.getNumBlockAccess());
+
+        assertNull(st.searchHash("tt9999999"));
+        assertEquals(0, st.getNumBlockAccess());
+    }
+
+    @Test
+    @DisplayName("Ensure that the hash index is maintained when records are created and deleted")
+    void maintainOnCreateAndDelete() {
+        Storage st = new Storage(100, 19, 1 << 20);
+        st.initWithTSV("test_data.tsv");
+        st.buildHashIndex();
+        st.buildIndex();
+
+        // Deleting through the B+ tree deletes the records, which removes them from the hash index
+        st.deleteBPT(80);
+        assertNull(st.searchHash("tt0000008"));
+        assertEquals(20, st.getHashIndex().size());
+
+        RecordAddress address = st.createRecord("tt0000008", 7.0f, 81);
+        assertEquals(81, st.searchHash("tt0000008").getNumVotes());
+        assertEquals(address.pack(), st.getHashIndex().search("tt0000008".toCharArray()));
+        assertThrows(IllegalArgumentException.class, () -> st.createRecord("tt0000001", 1.0f, 1));
+    }
+
+    @Test
+    @DisplayName("Ensure that splitting buckets keeps every entry reachable")
+    void splitBuckets() {
+        Storage st = new Storage(100, 19, 1 << 20);
+        HashIndex index = new HashIndex(100, st);
+        for (int i = 0; i < NUM_RECORDS; ++i) {
+            index.insert(String.format("tt%07d", i).toCharArray(), i);
+        }
+        assertEquals(NUM_RECORDS, index.size());
+        assertTrue(index.getNumBuckets() >= NUM_RECORDS / 5);
+
+        for (int i = 0; i < NUM_RECORDS; i += 2) {
+            assertTrue(index.delete(String.format("tt%07d", i).toCharArray()));
+        }
+        assertFalse(index.delete("tt0000000".toCharArray()));
+        for (int i = 0; i < NUM_RECORDS; ++i) {
+            long expected = i % 2 == 0 ? HashIndex.NOT_FOUND : i;
+            assertEquals(expected, index.search(String.format("tt%07d", i).toCharArray()));
+        }
+    }
+}
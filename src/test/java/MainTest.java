@@ -1,4 +1,8 @@
-import com.cz4031.RecordAddress;
+import com.cz4031.BPlusTree;
+import com.cz4031.InternalNode;
+import com.cz4031.LeafNode;
+import com.cz4031.LongList;
+import com.cz4031.Node;
 import com.cz4031.Storage;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
@@ -8,8 +12,12 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -47,18 +55,144 @@ public class MainTest {
     @DisplayName("Ensure that the number of records in the tree matches the number of records in the tsv")
     Stream<DynamicTest> checkNumberRecord() {
          return hm.entrySet().stream().map(e -> {
-            List<RecordAddress> recordAddresses = st.getBPT().search(e.getKey());
+            LongList recordAddresses = st.getBPT().search(e.getKey());
             return dynamicTest(String.format("record %d, expected %d", e.getKey(), e.getValue()), () -> assertEquals(e.getValue().intValue(), recordAddresses.size(), String.format("mismatch of record %d, actual %d, found %d\n", e.getKey(), e.getValue(), recordAddresses.size()))
             );
         });
     }
 
+    @Test
+    @DisplayName("Ensure that bulk loading with any fill factor finds the same records as sequential insertion")
+    void bulkLoadMatchesInsertion() {
+        // Records share 500 numVotes, so that the tree has several levels of internal nodes at 100-byte blocks
+        Storage generated = generate(3000, 500);
+        generated.buildIndexByInsertion();
+        assertValidTree(generated.getBPT(), 3000);
+        HashMap<Integer, List<Long>> expected = new HashMap<>();
+        for (int key = 0; key < 500; ++key) {
+            expected.put(key, sorted(generated.getBPT().search(key)));
+        }
+        List<Long> expectedRange = sorted(generated.getBPT().search(100, 199));
+        assertEquals(600, expectedRange.size());
+
+        for (double fillFactor : new double[]{0.5, 0.7, 1.0}) {
+            generated.buildIndex(fillFactor);
+            assertValidTree(generated.getBPT(), 3000);
+            assertTrue(generated.getBPT().getHeight() >= 2);
+            for (int key = 0; key < 500; ++key) {
+                assertEquals(expected.get(key), sorted(generated.getBPT().search(key)),
+                        String.format("mismatch of record %d with fill factor %.1f\n", key, fillFactor));
+            }
+            assertEquals(expectedRange, sorted(generated.getBPT().search(100, 199)));
+        }
+    }
+
+    @Test
+    @DisplayName("Ensure that deleting keys with many duplicates keeps other records and the node count")
+    void deleteDuplicatesKeepsOtherRecords() {
+        for (int fillFactor = 5; fillFactor <= 10; fillFactor += 5) {
+            // Each of the 4 numVotes is shared by 200 records, a run spanning dozens of leaves
+            Storage generated = generate(800, 4);
+            generated.buildIndex(fillFactor / 10.0);
+            int numNodes = generated.getBPT().getTotalNodes();
+
+            // Delete the runs in the middle, so that both neighbouring runs must be kept
+            for (int key = 1; key <= 2; ++key) {
+                generated.getBPT().delete(key);
+                assertTrue(generated.getBPT().getTotalNodesDeleted() > 10);
+            }
+            for (int key = 0; key < 4; ++key) {
+                LongList addresses = generated.getBPT().search(key);
+                assertEquals(key == 1 || key == 2 ? 0 : 200, addresses.size(),
+                        String.format("mismatch of record %d\n", key));
+                for (int i = 0; i < addresses.size(); ++i) {
+                    assertEquals(key, generated.readRecord(addresses.get(i)).getNumVotes());
+                }
+            }
+            assertValidTree(generated.getBPT(), 400);
+            assertTrue(generated.getBPT().getTotalNodes() < numNodes);
+
+            // Slots of deleted records are released, so recreating them does not need new blocks
+            assertEquals(400, generated.getNumRecords());
+            int numBlocks = generated.getNumBlocksUsed();
+            for (int i = 0; i < 400; ++i) {
+                generated.createRecord(String.format("tt%07d", 800 + i), 5.0f, 1 + i % 2);
+            }
+            assertEquals(numBlocks, generated.getNumBlocksUsed());
+        }
+    }
+
+    /**
+     * Construct a storage of 100-byte blocks with generated records
+     * @param numRecords number of records
+     * @param numKeys number of distinct numVotes, shared by the records in turn
+     * @return storage with the records, without index
+     */
+    private static Storage generate(int numRecords, int numKeys) {
+        Storage st = new Storage(100, 19, 1 << 20);
+        for (int i = 0; i < numRecords; ++i) {
+            st.createRecord(String.format("tt%07d", i), (i * 7 % 100) / 10.0f, i * 7 % numKeys);
+        }
+        return st;
+    }
+
+    private static List<Long> sorted(LongList addresses) {
+        List<Long> list = new ArrayList<>();
+        for (int i = 0; i < addresses.size(); ++i) {
+            list.add(addresses.get(i));
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    /**
+     * Check the structure of a tree: every leaf is at the depth given by its height, every child points to its
+     * parent, the number of nodes is counted correctly, and the leaf chain holds every entry in key order
+     * @param tree tree to check
+     * @param numEntries expected number of entries
+     */
+    private static void assertValidTree(BPlusTree tree, int numEntries) {
+        int numNodes = 0;
+        Queue<Node> queue = new LinkedList<>();
+        Queue<Integer> depths = new LinkedList<>();
+        queue.add(tree.getRoot());
+        depths.add(0);
+        while (!queue.isEmpty()) {
+            Node node = queue.remove();
+            int depth = depths.remove();
+            ++numNodes;
+            assertTrue(node.getDegree() > 0);
+            if (node instanceof InternalNode) {
+                for (int i = 0; i < node.getDegree(); ++i) {
+                    assertSame(node, ((InternalNode) node).getPointers()[i].getParent());
+                    queue.add(((InternalNode) node).getPointers()[i]);
+                    depths.add(depth + 1);
+                }
+            } else {
+                assertEquals(tree.getHeight(), depth);
+            }
+        }
+        assertEquals(numNodes, tree.getTotalNodes());
+
+        Node node = tree.getRoot();
+        while (node instanceof InternalNode) node = ((InternalNode) node).getPointers()[0];
+        int count = 0, prevKey = Integer.MIN_VALUE;
+        for (LeafNode leaf = (LeafNode) node; leaf != null; leaf = leaf.getRightSibling()) {
+            for (int i = 0; i < leaf.getDegree(); ++i) {
+                assertTrue(prevKey <= leaf.getKeys().getK1(i));
+                prevKey = leaf.getKeys().getK1(i);
+                ++count;
+            }
+        }
+        assertEquals(numEntries, count);
+    }
+
     @Test
     @DisplayName("Ensure that after deletion, the list are empty")
     void emptyAfterDelete() {
         for(int i = 10 ; i <= 200 ; i += 10) {
             st.getBPT().delete(i);
-            List<RecordAddress> rr = st.getBPT().search(i);
+            LongList rr = st.getBPT().search(i);
             assertTrue(rr.isEmpty(), String.format("not empty after deleting %d\n", i));
         }
     }
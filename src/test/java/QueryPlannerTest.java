@@ -0,0 +1,146 @@
+import com.cz4031.Histogram;
+import com.cz4031.IndexAttribute;
+import com.cz4031.QueryPlanner;
+import com.cz4031.Record;
+import com.cz4031.Storage;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryPlannerTest {
+    static final int NUM_RECORDS = 3000;
+
+    Storage st;
+    QueryPlanner planner;
+
+    @BeforeEach
+    void setUp() {
+        // numVotes repeats every 1000 records and averageRating every 100 records, so the attributes are independent
+        st = new Storage(100, 19, 1 << 20);
+        for (int i = 0; i < NUM_RECORDS; ++i) {
+            st.createRecord(String.format("tt%07d", i), (i * 7 % 100) / 10.0f, i % 1000);
+        }
+        st.buildIndex();
+        st.buildIndex("rating", IndexAttribute.AVERAGE_RATING);
+        planner = new QueryPlanner(st);
+    }
+
+    @Test
+    @DisplayName("Ensure that the planner picks the cheapest plan and returns the same records as a full scan")
+    void choosePlan() {
+        assertSearch(10, 12, 0.0f, 10.0f, QueryPlanner.Plan.NUM_VOTES_INDEX, 9);
+        assertSearch(0, 999, 5.0f, 5.0f, QueryPlanner.Plan.AVERAGE_RATING_INDEX_SCAN, 30);
+        // Zone maps narrow the scan to the 120 blocks holding numVotes 0 to 199
+        assertSearch(0, 199, 0.0f, 1.9f, QueryPlanner.Plan.FULL_SCAN, 120);
+        assertSearch(0, 999, 0.0f, 10.0f, QueryPlanner.Plan.FULL_SCAN, NUM_RECORDS);
+
+        // A full scan reads each block once, an index plan reads the blocks of matching records
+        planner.search(0, 999, 0.0f, 10.0f);
+        assertEquals(st.getNumBlocksUsed(), st.getNumBlockAccess());
+        planner.search(10, 12, 0.0f, 10.0f);
+        assertTrue(st.getNumBlockAccess() <= 9);
+
+        // Without a secondary index, only the primary index can be used
+        st.dropIndex("rating");
+        assertSearch(0, 999, 5.0f, 5.0f, QueryPlanner.Plan.FULL_SCAN, 30);
+        assertSearch(10, 12, 5.0f, 5.0f, QueryPlanner.Plan.NUM_VOTES_INDEX, 0);
+
+        // Zone maps cannot narrow the scan when numVotes is scattered across blocks
+        st = new Storage(100, 19, 1 << 20);
+        for (int i = 0; i < NUM_RECORDS; ++i) {
+            st.createRecord(String.format("tt%07d", i), (i * 7 % 100) / 10.0f, i * 601 % 1000);
+        }
+        st.buildIndex();
+        st.buildIndex("rating", IndexAttribute.AVERAGE_RATING);
+        planner = new QueryPlanner(st);
+        assertSearch(0, 99, 0.0f, 0.9f, QueryPlanner.Plan.INDEX_INTERSECTION, 30);
+    }
+
+    @Test
+    @DisplayName("Ensure that deleting through the primary index removes the records from the secondary index")
+    void deleteKeepsSecondaryIndex() {
+        st.deleteBPT(500);
+        assertEquals(NUM_RECORDS - 3, st.getNumRecords());
+        assertEquals(NUM_RECORDS - 3, st.getIndex("rating").search(Integer.MIN_VALUE, Integer.MAX_VALUE).size());
+        assertSearch(0, 999, 0.0f, 0.0f, QueryPlanner.Plan.AVERAGE_RATING_INDEX_SCAN, 27);
+    }
+
+    @Test
+    @DisplayName("Ensure that histograms estimate selectivities and follow inserts and deletes")
+    void histogramEstimates() throws IOException {
+        Histogram votes = st.getHistogram(IndexAttribute.NUM_VOTES);
+        assertEquals(NUM_RECORDS, votes.getTotal());
+        assertEquals(0.1, votes.estimateSelectivity(0, 99), 0.01);
+        assertEquals(1.0, votes.estimateSelectivity(Integer.MIN_VALUE, Integer.MAX_VALUE), 1e-9);
+        assertEquals(0.0, votes.estimateSelectivity(1000, 2000), 1e-9);
+        Histogram ratings = st.getHistogram(IndexAttribute.AVERAGE_RATING);
+        assertEquals(0.5, ratings.estimateSelectivity(IndexAttribute.ratingKey(0.0f), IndexAttribute.ratingKey(4.9f)),
+                0.05);
+
+        for (int i = 0; i < 1000; ++i) {
+            st.createRecord(String.format("tx%07d", i), 9.9f, 5000);
+        }
+        st.deleteBPT(10);
+
+        // The histograms are rebuilt once they are stale, since the new numVotes are beyond their buckets
+        votes = st.getHistogram(IndexAttribute.NUM_VOTES);
+        assertEquals(NUM_RECORDS + 1000 - 3, votes.getTotal());
+        assertEquals(0.25, votes.estimateSelectivity(5000, 5000), 0.01);
+        assertFalse(votes.isStale());
+
+        // Rows loaded in bulk are counted once the loader returns
+        assertEquals(24, st.loadTSV("test_data.tsv", 2));
+        assertEquals(NUM_RECORDS + 1000 - 3 + 24, st.getHistogram(IndexAttribute.NUM_VOTES).getTotal());
+    }
+
+    @Test
+    @DisplayName("Ensure that explain reports the estimated and actual accesses of the chosen plan")
+    void explain() {
+        // Every block holds 5 consecutive numVotes, so the 9 records of 3 numVotes share 3 blocks
+        QueryPlanner.Explain batched = planner.explain(10, 12, 0.0f, 10.0f);
+        assertEquals(QueryPlanner.Plan.NUM_VOTES_INDEX, batched.getPlan());
+        assertEquals(9, batched.getActualRecords());
+        assertEquals(3, batched.getActualBlocks());
+        assertEquals(batched.getActualBlocks(), batched.getEstimatedBlocks(), 1e-9);
+        assertEquals(batched.getActualRecords(), batched.getEstimatedRecords(), 1);
+
+        QueryPlanner.Explain scan = planner.explain(0, 999, 0.0f, 10.0f);
+        assertEquals(QueryPlanner.Plan.FULL_SCAN, scan.getPlan());
+        assertEquals(st.getNumBlocksUsed(), scan.getEstimatedBlocks(), 1e-9);
+        assertEquals(st.getNumBlocksUsed(), scan.getActualBlocks());
+        assertEquals(NUM_RECORDS, scan.getActualRecords());
+
+        // An index scan reads one block per matching record
+        QueryPlanner.Explain indexScan = planner.explain(0, 999, 5.0f, 5.0f);
+        assertEquals(QueryPlanner.Plan.AVERAGE_RATING_INDEX_SCAN, indexScan.getPlan());
+        assertEquals(indexScan.getActualRecords(), indexScan.getActualBlocks());
+        assertTrue(indexScan.toString().startsWith("AVERAGE_RATING_INDEX_SCAN: estimated 30 records"));
+    }
+
+    @Test
+    @DisplayName("Ensure that rating keys follow the order of ratings")
+    void ratingKeyOrder() {
+        float[] ratings = {-10.0f, -1.5f, -0.0f, 0.0f, 0.1f, 1.5f, 10.0f};
+        for (int i = 1; i < ratings.length; ++i) {
+            assertTrue(IndexAttribute.ratingKey(ratings[i-1]) < IndexAttribute.ratingKey(ratings[i]));
+        }
+    }
+
+    void assertSearch(int minVotes, int maxVotes, float minRating, float maxRating,
+                      QueryPlanner.Plan plan, int numResults) {
+        Set<String> result = tconsts(planner.search(minVotes, maxVotes, minRating, maxRating));
+        assertEquals(plan, planner.getLastPlan());
+        assertEquals(numResults, result.size());
+        assertEquals(tconsts(st.scan(record -> minVotes <= record.getNumVotes() && record.getNumVotes() <= maxVotes
+                && minRating <= record.getAvgRating() && record.getAvgRating() <= maxRating)), result);
+    }
+
+    Set<String> tconsts(List<Record> records) {
+        return records.stream().map(record -> new String(record.getTconst())).collect(Collectors.toSet());
+    }
+}
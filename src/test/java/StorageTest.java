@@ -0,0 +1,587 @@
+import com.cz4031.Aggregate;
+import com.cz4031.Block;
+import com.cz4031.BufferPool;
+import com.cz4031.Compactor;
+import com.cz4031.IndexAttribute;
+import com.cz4031.IndexFile;
+import com.cz4031.LongList;
+import com.cz4031.Record;
+import com.cz4031.RecordAddress;
+import com.cz4031.RecordCodec;
+import com.cz4031.ScanPredicate;
+import com.cz4031.Storage;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StorageTest {
+    Path path;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        path = Files.createTempFile("storage", ".db");
+        Files.delete(path);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    @DisplayName("Ensure that a file-backed storage keeps its records and empty slots after reopening")
+    void reopenFileBackedStorage() throws IOException {
+        int numBlocks;
+        try (Storage st = Storage.open(path.toString(), 100, 19, 1 << 20)) {
+            st.initWithTSV("test_data.tsv");
+            st.buildIndex();
+            st.deleteBPT(80);
+            numBlocks = st.getNumBlocksUsed();
+        }
+
+        try (Storage st = Storage.open(path.toString(), 100, 19, 1 << 20)) {
+            assertEquals(numBlocks, st.getNumBlocksUsed());
+
+            st.buildIndex();
+            assertTrue(st.searchBPT(80).isEmpty());
+            List<Record> records = st.searchBPT(120);
+            assertEquals(2, records.size());
+            assertEquals(5.0f, records.get(0).getAvgRating());
+
+            // Slots freed before closing are reused before a new block is created
+            RecordAddress address = st.createRecord("tt0000026", 7.0f, 80);
+            assertTrue(address.getBlockID() < numBlocks);
+            assertEquals(numBlocks, st.getNumBlocksUsed());
+        }
+    }
+
+    @Test
+    @DisplayName("Ensure that a saved index can be loaded instead of rebuilding it")
+    void saveAndLoadIndex() throws IOException {
+        Path indexPath = Files.createTempFile("index", ".bpt");
+        try (Storage st = Storage.open(path.toString(), 100, 19, 1 << 20)) {
+            st.initWithTSV("test_data.tsv");
+            st.buildIndex(0.7);
+            st.saveIndex(indexPath.toString());
+        }
+
+        try (Storage st = Storage.open(path.toString(), 100, 19, 1 << 20)) {
+            st.loadIndex(indexPath.toString());
+            assertEquals(4, st.searchBPT(80).size());
+            assertEquals(12, st.searchBPT(30, 80).size());
+            assertEquals(1, st.getBPT().getHeight());
+
+            // Loaded nodes support updates like a built tree
+            st.deleteBPT(80);
+            assertTrue(st.searchBPT(80).isEmpty());
+            assertEquals(8, st.searchBPT(30, 80).size());
+        } finally {
+            Files.delete(indexPath);
+        }
+    }
+
+    @Test
+    @DisplayName("Ensure that records stay consistent when blocks are evicted from a small buffer pool")
+    void bufferPoolEviction() {
+        for (BufferPool.Policy policy : BufferPool.Policy.values()) {
+            Storage st = new Storage(100, 19, 1 << 20);
+            st.enableBufferPool(2, policy);
+            st.initWithTSV("test_data.tsv");
+            st.buildIndex();
+
+            List<Record> records = st.searchBPT(30, 80);
+            assertEquals(12, records.size());
+            assertEquals(st.getNumBlockAccess(), st.getNumBufferHit() + st.getNumBufferMiss());
+            assertTrue(st.getNumBufferMiss() > 0);
+
+            // Printing the logged blocks does not access the pool
+            long numHits = st.getBufferPool().getNumHits(), numMisses = st.getBufferPool().getNumMisses();
+            assertTrue(st.getBlockLog().contains("tt0000004"));
+            assertEquals(numHits, st.getBufferPool().getNumHits());
+            assertEquals(numMisses, st.getBufferPool().getNumMisses());
+            assertEquals(st.getNumBlockAccess(), st.getNumBufferHit() + st.getNumBufferMiss());
+
+            // Deleted slots are written back on eviction and reused by new records
+            st.deleteBPT(80);
+            st.createRecord("tt0000026", 7.0f, 80);
+            st.buildIndex();
+            records = st.searchBPT(80);
+            assertEquals(1, records.size(), policy.name());
+            assertEquals(7.0f, records.get(0).getAvgRating(), policy.name());
+            assertEquals(8, st.searchBPT(30, 70).size(), policy.name());
+        }
+    }
+
+    @Test
+    @DisplayName("Ensure that a range search reads each distinct block once and can return records in physical order")
+    void rangeSearchReadsDistinctBlocks() {
+        Storage st = new Storage(100, 19, 1 << 20);
+        st.initWithTSV("test_data.tsv");
+        st.buildIndex();
+
+        // Records with numVotes 10 to 50 are the first 14 records, stored in the first 3 blocks
+        List<Record> keyOrder = st.searchBPT(10, 50);
+        assertEquals(10, keyOrder.size());
+        assertEquals(3, st.getNumBlockAccess());
+        for (int i = 1; i < keyOrder.size(); ++i) {
+            assertTrue(keyOrder.get(i - 1).getNumVotes() <= keyOrder.get(i).getNumVotes());
+        }
+
+        List<Record> physicalOrder = st.searchBPT(10, 50, true);
+        assertEquals(3, st.getNumBlockAccess());
+        for (int i = 1; i < physicalOrder.size(); ++i) {
+            assertTrue(physicalOrder.get(i - 1).toString().compareTo(physicalOrder.get(i).toString()) < 0);
+        }
+    }
+
+    @Test
+    @DisplayName("Ensure that streaming a range returns the same records as searching it, one page at a time")
+    void streamRangeInPages() {
+        Storage st = new Storage(100, 19, 1 << 20);
+        st.initWithTSV("test_data.tsv");
+        st.buildIndex();
+
+        List<Record> expected = st.searchBPT(20, 120);
+        assertEquals(expected.size(), st.streamBPT(20, 120).count());
+        for (int offset = 0; offset < expected.size(); offset += 4) {
+            List<Record> page = st.streamBPT(20, 120, offset, 4).collect(Collectors.toList());
+            assertEquals(Math.min(4, expected.size() - offset), page.size());
+            for (int i = 0; i < page.size(); ++i) {
+                assertEquals(expected.get(offset + i).toString(), page.get(i).toString());
+            }
+
+            // Only the records on the page are read
+            assertEquals(page.size(), st.getNumBlockAccess());
+        }
+        assertEquals(0, st.streamBPT(201, 300).count());
+    }
+
+    @Test
+    @DisplayName("Ensure that the parallel TSV loader stores the same blocks as loading records one at a time")
+    void loadTSVInParallel() throws IOException {
+        Storage expected = new Storage(100, 19, 1 << 20);
+        expected.initWithTSV("test_data.tsv");
+
+        for (int numThreads = 1; numThreads <= 8; ++numThreads) {
+            Storage st = new Storage(100, 19, 1 << 20);
+            assertEquals(24, st.loadTSV("test_data.tsv", numThreads));
+            assertEquals(expected.getNumBlocksUsed(), st.getNumBlocksUsed());
+            for (int blockID = 0; blockID < st.getNumBlocksUsed(); ++blockID) {
+                assertEquals(Block.fromByteArray(expected.readBlock(blockID), 19).toString(),
+                        Block.fromByteArray(st.readBlock(blockID), 19).toString());
+            }
+
+            // Remaining slots of the last block are reused
+            st.createRecord("tt0000026", 7.0f, 80);
+            assertEquals(expected.getNumBlocksUsed(), st.getNumBlocksUsed());
+        }
+
+        // Loaded rows are not checked against the hash index, so loading is rejected while it is built
+        Storage indexed = new Storage(100, 19, 1 << 20);
+        indexed.initWithTSV("test_data.tsv");
+        indexed.buildHashIndex();
+        assertThrows(IllegalStateException.class, () -> indexed.loadTSV("test_data.tsv", 2));
+        assertEquals(24, indexed.getNumRecords());
+
+        Files.write(path, "tconst\taverageRating\tnumVotes\ntt0000001\t5.6\n".getBytes());
+        assertThrows(IOException.class, () -> new Storage(100, 19, 1 << 20).loadTSV(path.toString(), 2));
+
+        // A failed load releases the blocks reserved for the file, even when some of its rows were encoded
+        StringBuilder rows = new StringBuilder("tconst\taverageRating\tnumVotes\n");
+        for (int i = 0; i < 100; ++i) {
+            rows.append(String.format("tt%07d\t5.0\t%d\n", 100 + i, i));
+        }
+        Files.write(path, rows.append("tt0000200\t5.0\n").toString().getBytes());
+        Storage loaded = new Storage(100, 19, 1 << 20);
+        loaded.initWithTSV("test_data.tsv");
+        loaded.deleteRecord(RecordAddress.pack(0, 3));
+        for (int numThreads = 1; numThreads <= 4; ++numThreads) {
+            int threads = numThreads;
+            assertThrows(IOException.class, () -> loaded.loadTSV(path.toString(), threads));
+            assertEquals(expected.getNumBlocksUsed(), loaded.getNumBlocksUsed());
+            assertEquals(23, loaded.getNumRecords());
+        }
+        assertEquals(24, loaded.loadTSV("test_data.tsv", 2));
+        assertEquals(47, loaded.getNumRecords());
+        assertEquals(2 * expected.getNumBlocksUsed(), loaded.getNumBlocksUsed());
+        assertEquals(47, loaded.scan(ScanPredicate.averageRating(0.0f, 10.0f)).size());
+    }
+
+    @Test
+    @DisplayName("Ensure that compressed leaf nodes hold more entries and return the same search results")
+    void compressedLeaves() throws IOException {
+        Path indexPath = Files.createTempFile("index", ".bpt");
+        for (boolean bulkLoad : new boolean[]{true, false}) {
+            Storage[] storages = new Storage[2];
+            for (int i = 0; i < storages.length; ++i) {
+                storages[i] = new Storage(500, 19, 1 << 20);
+                storages[i].setCompressedLeaves(i == 1);
+                for (int j = 0; j < 3000; ++j) {
+                    storages[i].createRecord(String.format("tt%07d", j), 5.0f, j % 20);
+                }
+                if (bulkLoad) storages[i].buildIndex(); else storages[i].buildIndexByInsertion();
+            }
+            Storage plain = storages[0], compressed = storages[1];
+            assertTrue(compressed.getBPT().hasCompressedLeaves());
+            assertTrue(compressed.getBPT().getTotalNodes() < plain.getBPT().getTotalNodes() * 0.8);
+
+            for (int key = 0; key < 20; key += 3) {
+                compressed.deleteBPT(key);
+                plain.deleteBPT(key);
+            }
+            List<List<Long>> saved = new ArrayList<>();
+            for (int key = 0; key < 20; ++key) {
+                saved.add(toList(compressed.getBPT().search(key)));
+            }
+            int numNodes = compressed.getBPT().getTotalNodes();
+            compressed.saveIndex(indexPath.toString());
+            compressed.loadIndex(indexPath.toString());
+            assertTrue(compressed.getBPT().hasCompressedLeaves());
+            for (int key = 0; key < 20; ++key) {
+                assertEquals(plain.getBPT().search(key).size(), compressed.getBPT().search(key).size());
+                assertEquals(saved.get(key), toList(compressed.getBPT().search(key)));
+            }
+
+            // Compressed leaf nodes are stored encoded, in pages that fit in a block
+            int n = compressed.getBPT().getN();
+            int pageSize = IndexFile.getPageSize(n, true);
+            assertTrue(pageSize <= 500);
+            assertTrue(pageSize < IndexFile.getPageSize(n, false));
+            assertEquals(32 + (long) numNodes * pageSize, Files.size(indexPath));
+            assertEquals(plain.getBPT().search(5, 12).size(), compressed.getBPT().search(5, 12).size());
+
+            // Loaded leaf nodes, whose left siblings are restored from the right siblings, can be rebalanced
+            compressed.deleteBPT(10);
+            plain.deleteBPT(10);
+            assertEquals(plain.getBPT().search(0, 19).size(), compressed.getBPT().search(0, 19).size());
+        }
+        Files.delete(indexPath);
+    }
+
+    @Test
+    @DisplayName("Ensure that block writes committed to the write-ahead log survive a crash before flushing")
+    void recoverFromWriteAheadLog() throws IOException {
+        Path crashed = Files.createTempFile("crashed", ".db");
+        Path crashedLog = Paths.get(crashed + ".wal");
+        Path log = Paths.get(path + ".wal");
+        try (Storage st = Storage.open(path.toString(), 100, 19, 1 << 20)) {
+            st.initWithTSV("test_data.tsv");
+            st.flush();
+
+            // Storage file as it was at the last flush, as if no later write reached the disk
+            Files.copy(path, crashed, StandardCopyOption.REPLACE_EXISTING);
+
+            st.enableWriteAheadLog(4);
+            st.buildIndex();
+            st.deleteBPT(80);
+            for (int i = 0; i < 10; ++i) {
+                st.createRecord(String.format("tt%07d", 100 + i), 7.0f, 300 + i);
+            }
+            assertTrue(st.getWriteAheadLog().getNumForces() < st.getWriteAheadLog().getNumAppended());
+            st.syncLog();
+
+            // A record torn by the crash is ignored
+            Files.copy(log, crashedLog, StandardCopyOption.REPLACE_EXISTING);
+            Files.write(crashedLog, new byte[50], StandardOpenOption.APPEND);
+
+            try (Storage recovered = Storage.open(crashed.toString(), 100, 19, 1 << 20)) {
+                assertFalse(Files.exists(crashedLog));
+                assertEquals(st.getNumBlocksUsed(), recovered.getNumBlocksUsed());
+                for (int blockID = 0; blockID < st.getNumBlocksUsed(); ++blockID) {
+                    assertArrayEquals(st.readBlock(blockID), recovered.readBlock(blockID));
+                }
+
+                recovered.buildIndex();
+                assertTrue(recovered.searchBPT(80).isEmpty());
+                assertEquals(10, recovered.searchBPT(300, 309).size());
+            }
+
+            // Flushing makes the blocks durable, so the log records are removed
+            st.flush();
+            assertEquals(8, Files.size(log));
+        } finally {
+            Files.deleteIfExists(crashed);
+            Files.deleteIfExists(crashedLog);
+            Files.deleteIfExists(log);
+        }
+    }
+
+    @Test
+    @DisplayName("Ensure that a clustered storage reads contiguous blocks for a range and stays ordered after inserts")
+    void clusteredStorage() {
+        Storage st = new Storage(100, 19, 1 << 20);
+        for (int i = 0; i < 2000; ++i) {
+            st.createRecord(String.format("tt%07d", i), 5.0f, i * 7 % 500);
+        }
+        st.buildIndex();
+        st.buildHashIndex();
+        st.cluster();
+        assertTrue(st.isClustered());
+
+        // 40 records with numVotes 100 to 109 fill 8 blocks of 5 records, the block before may hold some of them
+        List<Record> records = st.searchClustered(100, 109);
+        assertEquals(40, records.size());
+        assertTrue(st.getNumBlockAccess() <= 9);
+        assertEquals(st.searchBPT(100, 109).size(), records.size());
+        for (int i = 1; i < records.size(); ++i) {
+            assertTrue(records.get(i - 1).getNumVotes() <= records.get(i).getNumVotes());
+        }
+
+        // Inserts split full blocks, moving records whose addresses are updated in the built indexes
+        int numBlocks = st.getNumBlocksUsed();
+        for (int i = 2000; i < 2500; ++i) {
+            st.createRecord(String.format("tt%07d", i), 6.0f, i * 7 % 500);
+        }
+        assertTrue(st.getNumBlocksUsed() > numBlocks);
+        for (int key = 0; key < 500; key += 37) {
+            assertEquals(4, st.searchBPT(key).size());
+            assertEquals(5, st.searchClustered(key, key).size());
+        }
+        assertEquals(2500, st.searchClustered(0, 499).size());
+        assertEquals(7 * 1234 % 500, st.searchHash("tt0001234").getNumVotes());
+        assertThrows(IllegalStateException.class, () -> st.loadTSV("test_data.tsv", 1));
+    }
+
+    @Test
+    @DisplayName("Ensure that compaction releases the blocks emptied by deletions while queries run between its steps")
+    void compactAfterDeletes() throws InterruptedException {
+        Storage st = new Storage(100, 19, 1 << 20);
+        for (int i = 0; i < 2000; ++i) {
+            st.createRecord(String.format("tt%07d", i), 5.0f, i % 100);
+        }
+        st.buildIndex();
+        st.buildIndex("rating", IndexAttribute.AVERAGE_RATING);
+        st.buildHashIndex();
+        for (int key = 0; key < 100; key += 3) {
+            st.deleteBPT(key);
+        }
+        assertEquals(400, st.getNumBlocksUsed());
+
+        Compactor compactor = new Compactor(st);
+        while (compactor.step(50)) {
+            assertEquals(20, st.searchBPT(1).size());
+            assertTrue(st.searchBPT(0).isEmpty());
+        }
+        assertEquals(1320, st.getNumRecords());
+        assertEquals(264, st.getNumBlocksUsed());
+        assertEquals(136, compactor.getNumBlocksReclaimed());
+        assertEquals(136 * 100, compactor.getBytesReclaimed());
+        assertTrue(compactor.getNumSteps() > 1);
+
+        // Every index finds the moved records at their new addresses
+        for (int key = 1; key < 100; key += 3) {
+            List<Record> records = st.searchBPT(key);
+            assertEquals(20, records.size());
+            for (Record record : records) {
+                assertEquals(key, record.getNumVotes());
+            }
+        }
+        assertEquals(98, st.searchHash("tt0001998").getNumVotes());
+        assertEquals(1320, st.getIndex("rating").search(Integer.MIN_VALUE, Integer.MAX_VALUE).size());
+
+        // Every remaining block is full, so a new block is appended after them
+        st.createRecord("tt0002000", 5.0f, 0);
+        st.createRecord("tt0002001", 5.0f, 0);
+        assertEquals(265, st.getNumBlocksUsed());
+
+        // A clustered storage is compacted by clustering it again
+        st.cluster();
+        st.deleteBPT(1);
+        Compactor clustered = st.compact(10, 1);
+        assertTrue(clustered.isDone());
+        assertEquals(4, clustered.getNumBlocksReclaimed());
+        assertEquals(20, st.searchClustered(2, 2).size());
+    }
+
+    @Test
+    @DisplayName("Ensure that blocks released by compaction are reused by the TSV loader without stale pool frames")
+    void loadTSVAfterCompaction() throws IOException, InterruptedException {
+        Storage st = new Storage(100, 19, 1 << 20);
+        st.enableBufferPool(4, BufferPool.Policy.LRU);
+        for (int i = 0; i < 50; ++i) {
+            st.createRecord(String.format("tt%07d", 100 + i), 1.0f, 1000 + i);
+        }
+        for (int i = 25; i < 50; ++i) {
+            st.deleteRecord(RecordAddress.pack(i / 5, i % 5));
+        }
+        assertEquals(5, st.compact(10, 0).getNumBlocksReclaimed());
+
+        // The modified frames of the released blocks must not hide or overwrite the loaded blocks
+        assertEquals(24, st.loadTSV("test_data.tsv", 2));
+        assertEquals(49, st.scan(ScanPredicate.averageRating(0.0f, 10.0f)).size());
+        for (int i = 0; i < 25; ++i) {
+            st.createRecord(String.format("tt%07d", 200 + i), 1.0f, 2000 + i);
+        }
+        assertEquals(24, st.scan(ScanPredicate.averageRating(2.0f, 10.0f)).size());
+    }
+
+    @Test
+    @DisplayName("Ensure that a parallel scan returns the records matching its predicate and skips blocks by zone")
+    void parallelScanWithZoneMaps() {
+        Storage st = new Storage(100, 19, 1 << 20);
+        for (int i = 0; i < 3000; ++i) {
+            st.createRecord(String.format("tt%07d", i), (i * 7 % 100) / 10.0f, i);
+        }
+
+        ForkJoinPool executor = new ForkJoinPool(4);
+        ScanPredicate[] predicates = {
+                ScanPredicate.numVotes(100, 199),
+                ScanPredicate.averageRating(2.0f, 3.5f),
+                ScanPredicate.numVotes(500, 1500).and(ScanPredicate.averageRating(9.0f, 9.9f)),
+                ScanPredicate.ALL
+        };
+        List<Predicate<Record>> expected = Arrays.asList(
+                record -> 100 <= record.getNumVotes() && record.getNumVotes() <= 199,
+                record -> 2.0f <= record.getAvgRating() && record.getAvgRating() <= 3.5f,
+                record -> 500 <= record.getNumVotes() && record.getNumVotes() <= 1500
+                        && 9.0f <= record.getAvgRating() && record.getAvgRating() <= 9.9f,
+                record -> true
+        );
+        for (int i = 0; i < predicates.length; ++i) {
+            assertEquals(st.scan(expected.get(i)).stream().map(Record::toString).collect(Collectors.toList()),
+                    st.scan(predicates[i], executor).stream().map(Record::toString).collect(Collectors.toList()));
+        }
+
+        // Records are stored in order of numVotes, so only the 20 blocks of the range are read
+        assertEquals(100, st.scan(ScanPredicate.numVotes(100, 199), executor).size());
+        assertEquals(20, st.getNumBlockAccess());
+
+        // Zones shrink when records are deleted
+        for (int i = 100; i < 200; ++i) {
+            st.deleteRecord(RecordAddress.pack(i / 5, i % 5));
+        }
+        assertTrue(st.scan(ScanPredicate.numVotes(100, 199), executor).isEmpty());
+        assertEquals(0, st.getNumBlockAccess());
+
+        // The buffer pool is not thread-safe, so the calling thread scans every block through it
+        st.enableBufferPool(4, BufferPool.Policy.LRU);
+        assertEquals(st.scan(record -> record.getAvgRating() >= 9.0f).size(),
+                st.scan(ScanPredicate.averageRating(9.0f, 10.0f), executor).size());
+        executor.shutdown();
+    }
+
+    @Test
+    @DisplayName("Ensure that a compact storage holds the same records in fewer blocks")
+    void compactRecordCodec() throws IOException {
+        Storage expected = new Storage(100, 19, 1 << 20);
+        expected.initWithTSV("test_data.tsv");
+        expected.createRecord("tt12345678", 9.9f, 300);
+        expected.deleteRecord(RecordAddress.pack(0, 3));
+        expected.buildIndex();
+
+        int numBlocks;
+        try (Storage st = Storage.open(path.toString(), RecordCodec.compact(100), 1 << 20)) {
+            assertEquals(24, st.loadTSV("test_data.tsv", 2));
+            assertEquals(10, st.getCodec().getRecordsPerBlock());
+            assertEquals(3, st.getNumBlocksUsed());
+            assertEquals(5, expected.getNumBlocksUsed());
+
+            // Every value is decoded exactly, including tconst with more than 7 digits
+            st.createRecord("tt12345678", 9.9f, 300);
+            st.deleteRecord(RecordAddress.pack(0, 3));
+            assertThrows(IllegalArgumentException.class, () -> st.createRecord("nm0000001", 5.0f, 10));
+            assertThrows(IllegalArgumentException.class, () -> st.createRecord("tt0000027", 5.55f, 10));
+
+            // Rejected records take no slot, even when every block is full
+            assertEquals(24, st.getNumRecords());
+            for (int i = 0; st.getNumRecords() < st.getNumBlocksUsed() * 10L; ++i) {
+                st.createRecord(String.format("tt%07d", 100 + i), 1.0f, 400);
+            }
+            numBlocks = st.getNumBlocksUsed();
+            assertThrows(IllegalArgumentException.class, () -> st.createRecord("nm0000001", 5.0f, 10));
+            assertEquals(numBlocks, st.getNumBlocksUsed());
+            assertEquals(numBlocks * 10L, st.getNumRecords());
+        }
+
+        try (Storage st = Storage.open(path.toString(), RecordCodec.compact(100), 1 << 20)) {
+            assertEquals(numBlocks, st.getNumBlocksUsed());
+            assertEquals(numBlocks * 10L, st.getNumRecords());
+            st.buildIndex();
+            assertEquals("tt12345678", st.searchBPT(300).get(0).toString());
+            assertEquals(9.9f, st.searchBPT(300).get(0).getAvgRating());
+            for (int numVotes = 10; numVotes <= 300; numVotes += 10) {
+                assertEquals(expected.searchBPT(numVotes).stream().map(Record::toString).collect(Collectors.toList()),
+                        st.searchBPT(numVotes).stream().map(Record::toString).collect(Collectors.toList()));
+            }
+            assertEquals(expected.scan(ScanPredicate.averageRating(5.0f, 6.0f)).size(),
+                    st.scan(ScanPredicate.averageRating(5.0f, 6.0f)).size());
+        }
+
+        // A compact storage file cannot be opened with the standard codec
+        assertThrows(IOException.class, () -> Storage.open(path.toString(), 100, 19, 1 << 20));
+    }
+
+    @Test
+    @DisplayName("Ensure that a storage file cannot be opened with different sizes")
+    void rejectMismatchedStorageFile() throws IOException {
+        Storage.open(path.toString(), 100, 19, 1 << 20).close();
+        assertThrows(IOException.class, () -> Storage.open(path.toString(), 500, 19, 1 << 20));
+    }
+
+    @Test
+    @DisplayName("Ensure that a covering index answers aggregates without reading data blocks")
+    void coveringIndex() throws IOException {
+        Path indexPath = Files.createTempFile("index", ".bpt");
+        for (boolean bulkLoad : new boolean[]{true, false}) {
+            Storage[] storages = new Storage[2];
+            for (int i = 0; i < storages.length; ++i) {
+                storages[i] = new Storage(100, 19, 1 << 20);
+                storages[i].setCoveringIndex(i == 1);
+                for (int j = 0; j < 3000; ++j) {
+                    storages[i].createRecord(String.format("tt%07d", j), (j * 7 % 100) / 10.0f, j % 200);
+                }
+                if (bulkLoad) storages[i].buildIndex(); else storages[i].buildIndexByInsertion();
+            }
+            Storage plain = storages[0], covering = storages[1];
+            assertTrue(covering.getBPT().isCovering());
+            assertTrue(covering.getBPT().getMaxKeysLeaf() < plain.getBPT().getMaxKeysLeaf());
+
+            for (int key = 0; key < 200; key += 7) {
+                covering.deleteBPT(key);
+                plain.deleteBPT(key);
+            }
+            covering.saveIndex(indexPath.toString());
+            covering.loadIndex(indexPath.toString());
+            assertTrue(covering.getBPT().isCovering());
+
+            for (int[] range : new int[][]{{50, 50}, {20, 120}, {0, 199}, {7, 7}}) {
+                Aggregate expected = plain.aggregateBPT(range[0], range[1]);
+                assertTrue(plain.getNumBlockAccess() > 0 || expected.getCount() == 0);
+                Aggregate actual = covering.aggregateBPT(range[0], range[1]);
+                assertEquals(0, covering.getNumBlockAccess());
+                assertEquals(expected.getCount(), actual.getCount());
+                assertEquals(expected.getSum(), actual.getSum(), 1e-6);
+                assertEquals(expected.getMin(), actual.getMin());
+                assertEquals(expected.getMax(), actual.getMax());
+
+                // Subtree totals give the same count and sum from the two boundary paths only
+                Aggregate totals = covering.getBPT().rangeAggregate(range[0], range[1]);
+                assertEquals(expected.getCount(), totals.getCount());
+                assertEquals(expected.getSum(), totals.getSum(), 1e-6);
+                assertTrue(covering.getNumNodeAccess() <= 2 * (covering.getBPT().getHeight() + 1));
+            }
+        }
+        Files.delete(indexPath);
+    }
+
+    private static List<Long> toList(LongList addresses) {
+        List<Long> list = new ArrayList<>();
+        for (int i = 0; i < addresses.size(); ++i) {
+            list.add(addresses.get(i));
+        }
+        return list;
+    }
+}